@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Synthetic, reproducible inputs for the benchmarks.
+ */
+public final class BenchmarkData
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String UID_LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ";
+
+    private static final String UID_CHARACTERS = UID_LETTERS + "0123456789";
+
+    private BenchmarkData()
+    {
+    }
+
+    public static List<String> uids( int count, long seed )
+    {
+        Random random = new Random( seed );
+        List<String> uids = new ArrayList<>( count );
+        char[] uid = new char[11];
+        for ( int i = 0; i < count; i++ )
+        {
+            uid[0] = UID_LETTERS.charAt( random.nextInt( UID_LETTERS.length() ) );
+            for ( int j = 1; j < uid.length; j++ )
+            {
+                uid[j] = UID_CHARACTERS.charAt( random.nextInt( UID_CHARACTERS.length() ) );
+            }
+            uids.add( new String( uid ) );
+        }
+
+        return uids;
+    }
+
+    public static List<String> organisationUnitIds( int count )
+    {
+        return uids( count, 1 );
+    }
+
+    public static List<ProgramIndicatorMapping> programIndicatorMappings( int count )
+    {
+        List<ProgramIndicatorMapping> mappings = new ArrayList<>( count );
+        for ( String programIndicatorId : uids( count, 2 ) )
+        {
+            mappings.add( new ProgramIndicatorMapping( programIndicatorId, "DE_" + programIndicatorId, null, null ) );
+        }
+
+        return mappings;
+    }
+
+    /**
+     * Monthly periods counting back from December 2022.
+     */
+    public static List<String> periods( int count )
+    {
+        List<String> periods = new ArrayList<>( count );
+        for ( int i = 0; i < count; i++ )
+        {
+            periods.add( String.format( "%d%02d", 2022 - (i / 12), 12 - (i % 12) ) );
+        }
+
+        return periods;
+    }
+
+    /**
+     * An analytics grid laid out as T2A requests it: organisation unit and
+     * period rows with a value column per program indicator.
+     */
+    public static byte[] analyticsGrid( int rowCount, List<ProgramIndicatorMapping> mappings, List<String> periods )
+        throws IOException
+    {
+        List<String> organisationUnitIds = organisationUnitIds( Math.max( 1, rowCount / periods.size() ) );
+        Random random = new Random( 3 );
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try ( JsonGenerator generator = JSON_FACTORY.createGenerator( outputStream ) )
+        {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart( "headers" );
+            writeHeader( generator, "ou", "Organisation unit" );
+            writeHeader( generator, "pe", "Period" );
+            for ( ProgramIndicatorMapping mapping : mappings )
+            {
+                writeHeader( generator, mapping.getProgramIndicatorId(), mapping.getProgramIndicatorId() );
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart( "rows" );
+            for ( int i = 0; i < rowCount; i++ )
+            {
+                generator.writeStartArray();
+                generator.writeString( organisationUnitIds.get( (i / periods.size()) % organisationUnitIds.size() ) );
+                generator.writeString( periods.get( i % periods.size() ) );
+                for ( int j = 0; j < mappings.size(); j++ )
+                {
+                    generator.writeString( String.valueOf( random.nextInt( 1000 ) ) );
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
+            generator.writeNumberField( "height", rowCount );
+            generator.writeNumberField( "width", 2 + mappings.size() );
+            generator.writeEndObject();
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    public static byte[] dataValueSet( int dataValueCount )
+        throws IOException
+    {
+        List<String> organisationUnitIds = organisationUnitIds( Math.max( 1, dataValueCount / 12 ) );
+        List<String> periods = periods( 12 );
+        Random random = new Random( 4 );
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try ( JsonGenerator generator = JSON_FACTORY.createGenerator( outputStream ) )
+        {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart( "dataValues" );
+            for ( int i = 0; i < dataValueCount; i++ )
+            {
+                generator.writeStartObject();
+                generator.writeStringField( "dataElement", "DE_1" );
+                generator.writeStringField( "period", periods.get( i % periods.size() ) );
+                generator.writeStringField( "orgUnit", organisationUnitIds.get( i / periods.size() ) );
+                generator.writeStringField( "value", String.valueOf( random.nextInt( 1000 ) ) );
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    private static void writeHeader( JsonGenerator generator, String name, String column )
+        throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeStringField( "name", name );
+        generator.writeStringField( "column", column );
+        generator.writeStringField( "valueType", "TEXT" );
+        generator.writeEndObject();
+    }
+}
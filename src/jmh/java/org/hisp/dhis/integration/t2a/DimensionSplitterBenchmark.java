@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.hisp.dhis.integration.t2a.route.T2ARouteBuilder.ALL_ORG_UNITS_PROPERTY;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.OrganisationUnitIds;
+import org.hisp.dhis.integration.t2a.model.RunPlan;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Splits a whole run into dimensions, that is, one operation walks every
+ * period, organisation unit batch and program indicator.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( 1 )
+public class DimensionSplitterBenchmark
+{
+    @Param( { "1000", "20000", "200000" } )
+    private int orgUnitCount;
+
+    @Param( { "1", "10", "100" } )
+    private int programIndicatorCount;
+
+    @Param( { "1", "12", "24" } )
+    private int periodCount;
+
+    @Param( { "100" } )
+    private int orgUnitBatchSize;
+
+    private DimensionSplitter dimensionSplitter;
+
+    private Exchange exchange;
+
+    @Setup
+    public void setUp()
+    {
+        dimensionSplitter = new DimensionSplitter();
+        dimensionSplitter.setOrgUnitBatchSize( orgUnitBatchSize );
+        dimensionSplitter.setProgramIndicatorBatchSize( 1 );
+        dimensionSplitter.setSplitPeriods( true );
+        dimensionSplitter.setPeriods( String.join( ",", BenchmarkData.periods( periodCount ) ) );
+        dimensionSplitter.setOrgUnitBatchSizer( new OrgUnitBatchSizer() );
+        dimensionSplitter.setCheckpointJournal( new CheckpointJournal() );
+
+        OrganisationUnitIds.Builder organisationUnitIds = OrganisationUnitIds.builder();
+        BenchmarkData.organisationUnitIds( orgUnitCount ).forEach( organisationUnitIds::add );
+
+        exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.setProperty( ALL_ORG_UNITS_PROPERTY, organisationUnitIds.build() );
+        exchange.getMessage()
+            .setBody( new RunPlan( BenchmarkData.programIndicatorMappings( programIndicatorCount ), Map.of() ) );
+    }
+
+    @Benchmark
+    public void split( Blackhole blackhole )
+    {
+        Iterator<Dimensions> dimensions = dimensionSplitter.split( exchange );
+        while ( dimensions.hasNext() )
+        {
+            blackhole.consume( dimensions.next() );
+        }
+    }
+}
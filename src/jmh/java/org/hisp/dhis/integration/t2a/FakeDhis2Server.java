@@ -0,0 +1,653 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A stand-in for the parts of the DHIS2 Web API that T2A calls, serving
+ * synthetic organisation units, program indicators, analytics grids, data
+ * value set imports and analytics table tasks. Response sizes, latencies and
+ * failures are set through {@link Options} so that full runs can be driven at
+ * scale without a DHIS2 instance.
+ */
+public class FakeDhis2Server
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( FakeDhis2Server.class );
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String PROGRAM_INDICATOR_GROUP_ID = "Lesc1szBJGe";
+
+    private static final Set<String> TRACKER_RESOURCES = Set.of( "events", "enrollments",
+        "trackedEntityInstances" );
+
+    private static final String LAST_UPDATED = "2022-01-01T00:00:00.000";
+
+    private final Options options;
+
+    private final List<String> organisationUnitIds;
+
+    private final List<String> programIndicatorIds;
+
+    private final Map<String, Long> analyticsTableTasks = new ConcurrentHashMap<>();
+
+    private final AtomicLong requestCount = new AtomicLong();
+
+    private final AtomicLong dataValueCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private volatile String lastAnalyticsTableGeneration;
+
+    private HttpServer httpServer;
+
+    private ExecutorService executorService;
+
+    public FakeDhis2Server( Options options )
+    {
+        this.options = options;
+        this.organisationUnitIds = BenchmarkData.organisationUnitIds( options.getOrgUnitCount() ).stream().sorted()
+            .collect( Collectors.toList() );
+        this.programIndicatorIds = BenchmarkData.uids( options.getProgramIndicatorCount(), 2 );
+    }
+
+    public void start()
+        throws IOException
+    {
+        httpServer = HttpServer.create( new InetSocketAddress( "localhost", options.getPort() ), 0 );
+        // latencies are simulated by sleeping so every request gets a thread of its own
+        executorService = Executors.newCachedThreadPool();
+        httpServer.setExecutor( executorService );
+        httpServer.createContext( "/api/", this::handle );
+        httpServer.start();
+        LOGGER.info( "Fake DHIS2 serving {} organisation unit/s and {} program indicator/s on {}",
+            organisationUnitIds.size(), programIndicatorIds.size(), getApiUrl() );
+    }
+
+    public void stop()
+    {
+        httpServer.stop( 0 );
+        executorService.shutdownNow();
+    }
+
+    public String getApiUrl()
+    {
+        return "http://localhost:" + httpServer.getAddress().getPort() + "/api";
+    }
+
+    public String getProgramIndicatorGroupId()
+    {
+        return PROGRAM_INDICATOR_GROUP_ID;
+    }
+
+    public long getRequestCount()
+    {
+        return requestCount.get();
+    }
+
+    public long getDataValueCount()
+    {
+        return dataValueCount.get();
+    }
+
+    public long getFailureCount()
+    {
+        return failureCount.get();
+    }
+
+    private void handle( HttpExchange exchange )
+        throws IOException
+    {
+        requestCount.incrementAndGet();
+        try
+        {
+            String path = exchange.getRequestURI().getPath().substring( "/api/".length() ).replaceAll( "\\.json$",
+                "" );
+            Map<String, List<String>> parameters = parseQuery( exchange.getRequestURI().getRawQuery() );
+            String method = exchange.getRequestMethod();
+
+            if ( method.equals( "GET" ) && path.equals( "analytics" ) )
+            {
+                getAnalytics( exchange, parameters );
+            }
+            else if ( method.equals( "POST" ) && path.equals( "dataValueSets" ) )
+            {
+                postDataValueSets( exchange );
+            }
+            else if ( method.equals( "GET" ) && path.equals( "organisationUnits" ) )
+            {
+                getOrganisationUnits( exchange, parameters );
+            }
+            else if ( method.equals( "GET" ) && path.startsWith( "programIndicatorGroups/" ) )
+            {
+                writeJson( exchange, 200,
+                    generator -> writeProgramIndicators( generator, programIndicatorIds ) );
+            }
+            else if ( method.equals( "GET" ) && path.equals( "programIndicators" ) )
+            {
+                Set<String> ids = Set.of( getInFilter( parameters ) );
+                writeJson( exchange, 200, generator -> writeProgramIndicators( generator,
+                    programIndicatorIds.stream().filter( ids::contains ).collect( Collectors.toList() ) ) );
+            }
+            else if ( method.equals( "GET" ) && path.equals( "dataElements" ) )
+            {
+                getDataElements( exchange, parameters );
+            }
+            else if ( method.equals( "POST" ) && path.equals( "resourceTables/analytics" ) )
+            {
+                postAnalyticsTables( exchange );
+            }
+            else if ( method.equals( "GET" ) && path.startsWith( "system/tasks/ANALYTICS_TABLE/" ) )
+            {
+                getAnalyticsTableTask( exchange, path.substring( path.lastIndexOf( '/' ) + 1 ) );
+            }
+            else if ( method.equals( "GET" ) && path.equals( "system/info" ) )
+            {
+                writeJson( exchange, 200, generator -> {
+                    generator.writeStartObject();
+                    generator.writeStringField( "serverDate", LocalDateTime.now().toString() );
+                    generator.writeStringField( "version", "2.37.7" );
+                    if ( lastAnalyticsTableGeneration != null )
+                    {
+                        generator.writeStringField( "lastAnalyticsTableGeneration", lastAnalyticsTableGeneration );
+                    }
+                    generator.writeEndObject();
+                } );
+            }
+            else if ( method.equals( "GET" ) && TRACKER_RESOURCES.contains( path ) )
+            {
+                // tracker data never changes in here
+                writeJson( exchange, 200, generator -> {
+                    generator.writeStartObject();
+                    generator.writeArrayFieldStart( path );
+                    generator.writeEndArray();
+                    generator.writeEndObject();
+                } );
+            }
+            else if ( method.equals( "POST" ) && path.equals( "maintenance" ) )
+            {
+                exchange.sendResponseHeaders( 204, -1 );
+            }
+            else
+            {
+                LOGGER.warn( "Fake DHIS2 has no resource for {} {}", method, exchange.getRequestURI() );
+                writeWebMessage( exchange, 404, "Not Found" );
+            }
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    private void getAnalytics( HttpExchange exchange, Map<String, List<String>> parameters )
+        throws IOException,
+        InterruptedException
+    {
+        Map<String, String[]> dimensions = new HashMap<>();
+        for ( String dimension : parameters.getOrDefault( "dimension", List.of() ) )
+        {
+            int separator = dimension.indexOf( ':' );
+            dimensions.put( dimension.substring( 0, separator ), dimension.substring( separator + 1 ).split( ";" ) );
+        }
+        String[] programIndicators = dimensions.getOrDefault( "dx", new String[0] );
+        String[] orgUnits = dimensions.getOrDefault( "ou", new String[0] );
+        String[] periods = dimensions.getOrDefault( "pe", new String[0] );
+        int rowCount = orgUnits.length * periods.length;
+
+        options.getAnalyticsLatency().await( rowCount );
+        if ( injectFailure( exchange ) )
+        {
+            return;
+        }
+
+        writeJson( exchange, 200, generator -> {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart( "headers" );
+            writeHeader( generator, "ou", "Organisation unit" );
+            writeHeader( generator, "pe", "Period" );
+            for ( String programIndicator : programIndicators )
+            {
+                writeHeader( generator, programIndicator, programIndicator );
+            }
+            generator.writeEndArray();
+            generator.writeArrayFieldStart( "rows" );
+            for ( String orgUnit : orgUnits )
+            {
+                for ( String period : periods )
+                {
+                    generator.writeStartArray();
+                    generator.writeString( orgUnit );
+                    generator.writeString( period );
+                    for ( String programIndicator : programIndicators )
+                    {
+                        int value = Math.floorMod( (orgUnit + period + programIndicator).hashCode(), 1000 );
+                        generator.writeString( String.valueOf( value ) );
+                    }
+                    generator.writeEndArray();
+                }
+            }
+            generator.writeEndArray();
+            generator.writeNumberField( "height", rowCount );
+            generator.writeNumberField( "width", 2 + programIndicators.length );
+            generator.writeEndObject();
+        } );
+    }
+
+    private void postDataValueSets( HttpExchange exchange )
+        throws IOException,
+        InterruptedException
+    {
+        int count = 0;
+        try ( InputStream inputStream = exchange.getRequestBody();
+            JsonParser parser = JSON_FACTORY.createParser( inputStream ) )
+        {
+            JsonToken token;
+            while ( (token = parser.nextToken()) != null )
+            {
+                if ( token == JsonToken.FIELD_NAME && parser.getCurrentName().equals( "dataElement" ) )
+                {
+                    count++;
+                }
+            }
+        }
+
+        options.getImportLatency().await( count );
+        if ( injectFailure( exchange ) )
+        {
+            return;
+        }
+
+        dataValueCount.addAndGet( count );
+        int imported = count;
+        writeJson( exchange, 200, generator -> {
+            generator.writeStartObject();
+            generator.writeStringField( "responseType", "ImportSummary" );
+            generator.writeStringField( "status", "SUCCESS" );
+            generator.writeObjectFieldStart( "importCount" );
+            generator.writeNumberField( "imported", imported );
+            generator.writeNumberField( "updated", 0 );
+            generator.writeNumberField( "ignored", 0 );
+            generator.writeNumberField( "deleted", 0 );
+            generator.writeEndObject();
+            generator.writeArrayFieldStart( "conflicts" );
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } );
+    }
+
+    private void getOrganisationUnits( HttpExchange exchange, Map<String, List<String>> parameters )
+        throws IOException
+    {
+        List<String> filters = parameters.getOrDefault( "filter", List.of() );
+        boolean includeLevel = getParameter( parameters, "fields", "id" ).contains( "level" );
+        if ( filters.stream().anyMatch( filter -> filter.startsWith( "lastUpdated:" ) ) )
+        {
+            // nothing ever changes in here
+            writeJson( exchange, 200, generator -> writeOrganisationUnits( generator, List.of(), includeLevel ) );
+            return;
+        }
+
+        int pageSize = Integer.parseInt( getParameter( parameters, "pageSize", "50" ) );
+        if ( getParameter( parameters, "paging", "true" ).equals( "false" ) )
+        {
+            writeJson( exchange, 200,
+                generator -> writeOrganisationUnits( generator, organisationUnitIds, includeLevel ) );
+            return;
+        }
+
+        int page = Integer.parseInt( getParameter( parameters, "page", "1" ) );
+        int pageCount = Math.max( 1, (organisationUnitIds.size() + pageSize - 1) / pageSize );
+        List<String> pageIds = organisationUnitIds.subList( Math.min( (page - 1) * pageSize,
+            organisationUnitIds.size() ), Math.min( page * pageSize, organisationUnitIds.size() ) );
+        writeJson( exchange, 200, generator -> {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart( "pager" );
+            generator.writeNumberField( "page", page );
+            generator.writeNumberField( "pageCount", pageCount );
+            generator.writeNumberField( "total", organisationUnitIds.size() );
+            generator.writeNumberField( "pageSize", pageSize );
+            generator.writeEndObject();
+            writeOrganisationUnitArray( generator, pageIds, includeLevel );
+            generator.writeEndObject();
+        } );
+    }
+
+    private void getDataElements( HttpExchange exchange, Map<String, List<String>> parameters )
+        throws IOException
+    {
+        // every data element code asked for exists
+        String[] codes = getInFilter( parameters );
+        writeJson( exchange, 200, generator -> {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart( "dataElements" );
+            for ( String code : codes )
+            {
+                generator.writeStartObject();
+                generator.writeStringField( "code", code );
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        } );
+    }
+
+    private void postAnalyticsTables( HttpExchange exchange )
+        throws IOException
+    {
+        String id = UUID.randomUUID().toString().replace( "-", "" ).substring( 0, 11 );
+        lastAnalyticsTableGeneration = LocalDateTime.now().toString();
+        analyticsTableTasks.put( id, System.currentTimeMillis() + options.getAnalyticsTableLatency().next( 0 ) );
+        writeJson( exchange, 200, generator -> {
+            generator.writeStartObject();
+            generator.writeStringField( "httpStatus", "OK" );
+            generator.writeNumberField( "httpStatusCode", 200 );
+            generator.writeStringField( "status", "OK" );
+            generator.writeStringField( "message", "Initiated inMemoryAnalyticsJob" );
+            generator.writeObjectFieldStart( "response" );
+            generator.writeStringField( "name", "inMemoryAnalyticsJob" );
+            generator.writeStringField( "id", id );
+            generator.writeStringField( "jobType", "ANALYTICS_TABLE" );
+            generator.writeStringField( "relativeNotifierEndpoint", "/api/system/tasks/ANALYTICS_TABLE/" + id );
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } );
+    }
+
+    private void getAnalyticsTableTask( HttpExchange exchange, String id )
+        throws IOException
+    {
+        Long completionTime = analyticsTableTasks.get( id );
+        boolean completed = completionTime != null && System.currentTimeMillis() >= completionTime;
+        writeJson( exchange, 200, generator -> {
+            generator.writeStartArray();
+            if ( completionTime != null )
+            {
+                generator.writeStartObject();
+                generator.writeStringField( "uid", id );
+                generator.writeStringField( "level", "INFO" );
+                generator.writeStringField( "category", "ANALYTICS_TABLE" );
+                generator.writeStringField( "time", LocalDateTime.now().toString() );
+                generator.writeStringField( "message",
+                    completed ? "Analytics tables updated" : "Populating analytics tables" );
+                generator.writeBooleanField( "completed", completed );
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        } );
+    }
+
+    private boolean injectFailure( HttpExchange exchange )
+        throws IOException
+    {
+        if ( ThreadLocalRandom.current().nextDouble() < options.getErrorRate() )
+        {
+            failureCount.incrementAndGet();
+            writeWebMessage( exchange, 500, "Injected failure" );
+            return true;
+        }
+
+        return false;
+    }
+
+    private void writeProgramIndicators( JsonGenerator generator, List<String> ids )
+        throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeArrayFieldStart( "programIndicators" );
+        for ( String id : ids )
+        {
+            generator.writeStartObject();
+            generator.writeStringField( "id", id );
+            generator.writeStringField( "name", "Program indicator " + id );
+            generator.writeStringField( "lastUpdated", LAST_UPDATED );
+            generator.writeArrayFieldStart( "attributeValues" );
+            generator.writeStartObject();
+            generator.writeObjectFieldStart( "attribute" );
+            generator.writeStringField( "id", options.getAggregateDataExportAttributeId() );
+            generator.writeEndObject();
+            generator.writeStringField( "value", "DE_" + id );
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private void writeOrganisationUnits( JsonGenerator generator, List<String> ids, boolean includeLevel )
+        throws IOException
+    {
+        generator.writeStartObject();
+        writeOrganisationUnitArray( generator, ids, includeLevel );
+        generator.writeEndObject();
+    }
+
+    private void writeOrganisationUnitArray( JsonGenerator generator, List<String> ids, boolean includeLevel )
+        throws IOException
+    {
+        generator.writeArrayFieldStart( "organisationUnits" );
+        for ( String id : ids )
+        {
+            generator.writeStartObject();
+            generator.writeStringField( "id", id );
+            if ( includeLevel )
+            {
+                generator.writeNumberField( "level", options.getOrgUnitLevel() );
+            }
+            generator.writeEndObject();
+        }
+        generator.writeEndArray();
+    }
+
+    private static void writeHeader( JsonGenerator generator, String name, String column )
+        throws IOException
+    {
+        generator.writeStartObject();
+        generator.writeStringField( "name", name );
+        generator.writeStringField( "column", column );
+        generator.writeEndObject();
+    }
+
+    private static void writeWebMessage( HttpExchange exchange, int status, String message )
+        throws IOException
+    {
+        writeJson( exchange, status, generator -> {
+            generator.writeStartObject();
+            generator.writeNumberField( "httpStatusCode", status );
+            generator.writeStringField( "status", "ERROR" );
+            generator.writeStringField( "message", message );
+            generator.writeEndObject();
+        } );
+    }
+
+    private static void writeJson( HttpExchange exchange, int status, JsonWriter writer )
+        throws IOException
+    {
+        exchange.getResponseHeaders().set( "Content-Type", "application/json;charset=UTF-8" );
+        exchange.sendResponseHeaders( status, 0 );
+        try ( OutputStream outputStream = exchange.getResponseBody();
+            JsonGenerator generator = JSON_FACTORY.createGenerator( outputStream ) )
+        {
+            writer.write( generator );
+        }
+    }
+
+    private static String[] getInFilter( Map<String, List<String>> parameters )
+    {
+        String filter = getParameter( parameters, "filter", "" );
+        int start = filter.indexOf( '[' );
+        int end = filter.lastIndexOf( ']' );
+
+        return start < 0 || end <= start + 1 ? new String[0] : filter.substring( start + 1, end ).split( "," );
+    }
+
+    private static String getParameter( Map<String, List<String>> parameters, String name, String defaultValue )
+    {
+        List<String> values = parameters.get( name );
+
+        return values == null || values.isEmpty() ? defaultValue : values.get( 0 );
+    }
+
+    private static Map<String, List<String>> parseQuery( String query )
+    {
+        Map<String, List<String>> parameters = new HashMap<>();
+        if ( query == null )
+        {
+            return parameters;
+        }
+
+        for ( String parameter : query.split( "&" ) )
+        {
+            int separator = parameter.indexOf( '=' );
+            String name = URLDecoder.decode( separator < 0 ? parameter : parameter.substring( 0, separator ),
+                StandardCharsets.UTF_8 );
+            String value = separator < 0 ? ""
+                : URLDecoder.decode( parameter.substring( separator + 1 ), StandardCharsets.UTF_8 );
+            parameters.computeIfAbsent( name, k -> new ArrayList<>() ).add( value );
+        }
+
+        return parameters;
+    }
+
+    @FunctionalInterface
+    private interface JsonWriter
+    {
+        void write( JsonGenerator generator )
+            throws IOException;
+    }
+
+    /**
+     * A latency of a fixed part, a part proportional to the no. of items in
+     * the request or response, and an exponentially distributed jitter.
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Latency
+    {
+        private long fixedMillis;
+
+        private long perItemMicros;
+
+        private long meanJitterMillis;
+
+        /**
+         * Parses <code>fixedMillis,perItemMicros,meanJitterMillis</code>.
+         */
+        public static Latency parse( String latency )
+        {
+            long[] parts = Arrays.stream( latency.split( "," ) ).map( String::trim ).mapToLong( Long::parseLong )
+                .toArray();
+            if ( parts.length != 3 )
+            {
+                throw new T2AException( "Bad configuration: latency must be <fixed ms>,<per item us>,<jitter ms>" );
+            }
+
+            return new Latency( parts[0], parts[1], parts[2] );
+        }
+
+        public long next( int itemCount )
+        {
+            double jitter = meanJitterMillis == 0 ? 0
+                : -meanJitterMillis * Math.log( 1 - ThreadLocalRandom.current().nextDouble() );
+
+            return fixedMillis + (perItemMicros * itemCount / 1000) + (long) jitter;
+        }
+
+        public void await( int itemCount )
+            throws InterruptedException
+        {
+            long millis = next( itemCount );
+            if ( millis > 0 )
+            {
+                Thread.sleep( millis );
+            }
+        }
+    }
+
+    @Data
+    public static class Options
+    {
+        private int port;
+
+        private int orgUnitCount = 1000;
+
+        private int orgUnitLevel = 2;
+
+        private int programIndicatorCount = 10;
+
+        private String aggregateDataExportAttributeId = "vudyDP7jUy5";
+
+        private Latency analyticsLatency = new Latency( 50, 10, 20 );
+
+        private Latency importLatency = new Latency( 20, 20, 10 );
+
+        private Latency analyticsTableLatency = new Latency( 1000, 0, 0 );
+
+        private double errorRate;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.apache.camel.CamelContext;
+import org.apache.camel.ProducerTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.Banner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Drives a full T2A run against a {@link FakeDhis2Server} and reports the
+ * throughput and peak heap of the run. The fake server is set up from
+ * <code>fake.*</code> system properties while every other system property
+ * configures T2A as usual:
+ *
+ * <pre>
+ * -Dfake.org.units=20000 -Dfake.program.indicators=50 -Dfake.analytics.latency=200,20,100
+ * -Dfake.import.latency=50,20,20 -Dfake.analytics.table.latency=5000,0,0 -Dfake.error.rate=0.01
+ * -Dthread.pool.size=4 -Dorg.unit.batch.size=100
+ * </pre>
+ *
+ * Latencies are <code>fixed ms,per item us,mean jitter ms</code> where items
+ * are analytics rows or imported data values.
+ */
+public final class LoadBenchmark
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( LoadBenchmark.class );
+
+    private LoadBenchmark()
+    {
+    }
+
+    public static void main( String[] args )
+        throws Exception
+    {
+        FakeDhis2Server.Options options = new FakeDhis2Server.Options();
+        options.setOrgUnitCount( Integer.getInteger( "fake.org.units", options.getOrgUnitCount() ) );
+        options.setProgramIndicatorCount(
+            Integer.getInteger( "fake.program.indicators", options.getProgramIndicatorCount() ) );
+        options.setOrgUnitLevel( Integer.parseInt( System.getProperty( "org.unit.level",
+            String.valueOf( options.getOrgUnitLevel() ) ) ) );
+        options.setAggregateDataExportAttributeId(
+            System.getProperty( "aggr.data.export.attr.id", options.getAggregateDataExportAttributeId() ) );
+        if ( System.getProperty( "fake.analytics.latency" ) != null )
+        {
+            options.setAnalyticsLatency(
+                FakeDhis2Server.Latency.parse( System.getProperty( "fake.analytics.latency" ) ) );
+        }
+        if ( System.getProperty( "fake.import.latency" ) != null )
+        {
+            options.setImportLatency( FakeDhis2Server.Latency.parse( System.getProperty( "fake.import.latency" ) ) );
+        }
+        if ( System.getProperty( "fake.analytics.table.latency" ) != null )
+        {
+            options.setAnalyticsTableLatency(
+                FakeDhis2Server.Latency.parse( System.getProperty( "fake.analytics.table.latency" ) ) );
+        }
+        options.setErrorRate( Double.parseDouble( System.getProperty( "fake.error.rate", "0" ) ) );
+
+        FakeDhis2Server fakeDhis2Server = new FakeDhis2Server( options );
+        fakeDhis2Server.start();
+
+        System.setProperty( "dhis2.api.url", fakeDhis2Server.getApiUrl() );
+        System.setProperty( "dhis2.api.username", "admin" );
+        System.setProperty( "dhis2.api.password", "district" );
+        System.setProperty( "pi.group.id", fakeDhis2Server.getProgramIndicatorGroupId() );
+        System.setProperty( "org.unit.level", String.valueOf( options.getOrgUnitLevel() ) );
+        setDefault( "periods", "2022Q1,2022Q2,2022Q3,2022Q4" );
+        // runs are triggered by hand below
+        setDefault( "schedule.expression", "0 0 0 1 1 ? 2099" );
+
+        SpringApplication springApplication = new SpringApplication( Application.class );
+        springApplication.setBannerMode( Banner.Mode.OFF );
+        try ( ConfigurableApplicationContext applicationContext = springApplication.run( args ) )
+        {
+            ProducerTemplate producerTemplate = applicationContext.getBean( CamelContext.class )
+                .createProducerTemplate();
+            List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter( pool -> pool.getType() == MemoryType.HEAP ).collect( Collectors.toList() );
+            heapPools.forEach( MemoryPoolMXBean::resetPeakUsage );
+            long requestCount = fakeDhis2Server.getRequestCount();
+
+            long startTime = System.nanoTime();
+            String outcome = "succeeded";
+            try
+            {
+                producerTemplate.requestBody( "seda:t2a?timeout=0", (Object) null );
+            }
+            catch ( Exception e )
+            {
+                LOGGER.error( "Run failed", e );
+                outcome = "failed";
+            }
+            double seconds = (System.nanoTime() - startTime) / 1e9;
+
+            long requests = fakeDhis2Server.getRequestCount() - requestCount;
+            long dataValues = fakeDhis2Server.getDataValueCount();
+            // the sum of the pool peaks may overstate the peak heap a little as pools peak at different times
+            long peakHeap = heapPools.stream().mapToLong( pool -> pool.getPeakUsage().getUsed() ).sum();
+            LOGGER.info( String.format(
+                "Run %s in %.1f s: %d request/s (%.1f/s), %d data value/s imported (%.1f/s), %d injected failure/s, peak heap %d MB",
+                outcome, seconds, requests, requests / seconds, dataValues, dataValues / seconds,
+                fakeDhis2Server.getFailureCount(), peakHeap / (1024 * 1024) ) );
+        }
+        finally
+        {
+            fakeDhis2Server.stop();
+        }
+    }
+
+    private static void setDefault( String key, String value )
+    {
+        if ( System.getProperty( key ) == null )
+        {
+            System.setProperty( key, value );
+        }
+    }
+}
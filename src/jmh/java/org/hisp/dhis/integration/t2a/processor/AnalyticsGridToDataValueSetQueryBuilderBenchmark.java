@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.processor;
+
+import static org.hisp.dhis.integration.t2a.route.T2ARouteBuilder.DIMENSIONS_PROPERTY;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.hisp.dhis.integration.t2a.BenchmarkData;
+import org.hisp.dhis.integration.t2a.DataValueFingerprintStore;
+import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transforms analytics grids of up to millions of rows into data value sets.
+ * The largest grids need a large heap since the whole data value set is held
+ * in memory.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( value = 1, jvmArgsAppend = "-Xmx8g" )
+public class AnalyticsGridToDataValueSetQueryBuilderBenchmark
+{
+    @Param( { "1000", "100000", "1000000" } )
+    private int rowCount;
+
+    @Param( { "1", "10" } )
+    private int programIndicatorCount;
+
+    private final AnalyticsGridToDataValueSetQueryBuilder analyticsGridToDataValueSetQueryBuilder = new AnalyticsGridToDataValueSetQueryBuilder();
+
+    private Exchange exchange;
+
+    private byte[] grid;
+
+    @Setup
+    public void setUp()
+        throws IOException
+    {
+        List<ProgramIndicatorMapping> mappings = BenchmarkData.programIndicatorMappings( programIndicatorCount );
+        List<String> periods = BenchmarkData.periods( 12 );
+        grid = BenchmarkData.analyticsGrid( rowCount, mappings, periods );
+
+        analyticsGridToDataValueSetQueryBuilder.setDataValueFingerprintStore( new DataValueFingerprintStore() );
+        exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.setProperty( DIMENSIONS_PROPERTY, new Dimensions( String.join( ";", periods ),
+            String.join( ";", BenchmarkData.organisationUnitIds( Math.max( 1, rowCount / periods.size() ) ) ),
+            mappings ) );
+    }
+
+    @Benchmark
+    public Object process()
+        throws IOException
+    {
+        exchange.getMessage().setBody( new ByteArrayInputStream( grid ) );
+        analyticsGridToDataValueSetQueryBuilder.process( exchange );
+
+        return exchange.getMessage().getBody();
+    }
+}
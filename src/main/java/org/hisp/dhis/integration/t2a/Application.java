@@ -29,7 +29,9 @@ package org.hisp.dhis.integration.t2a;
 
 import org.hisp.dhis.integration.sdk.Dhis2ClientBuilder;
 import org.hisp.dhis.integration.sdk.api.Dhis2Client;
-import org.springframework.beans.factory.annotation.Value;
+import org.hisp.dhis.integration.t2a.http.Dhis2Credentials;
+import org.hisp.dhis.integration.t2a.job.JobLauncher;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.Banner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -38,20 +40,16 @@ import org.springframework.context.annotation.Bean;
 @SpringBootApplication
 public class Application
 {
-    @Value( "${dhis2.api.url}" )
-    private String baseApiUrl;
-
-    @Value( "${dhis2.api.username:#{null}}" )
-    private String username;
-
-    @Value( "${dhis2.api.password:#{null}}" )
-    private String password;
-
-    @Value( "${dhis2.api.pat:#{null}}" )
-    private String pat;
+    @Autowired
+    private Dhis2Credentials dhis2Credentials;
 
     public static void main( String[] args )
     {
+        if ( JobLauncher.launch( args ) )
+        {
+            return;
+        }
+
         SpringApplication springApplication = new SpringApplication( Application.class );
         springApplication.setBannerMode( Banner.Mode.OFF );
         springApplication.run( args );
@@ -60,23 +58,15 @@ public class Application
     @Bean
     public Dhis2Client dhis2Client()
     {
-        if ( pat != null && (username != null || password != null) )
-        {
-            throw new T2AException(
-                "Bad configuration: PAT authentication and basic authentication are mutually exclusive" );
-        }
-
-        if ( pat != null )
-        {
-            return Dhis2ClientBuilder.newClient( baseApiUrl, pat ).build();
-        }
-        else if ( username != null && password != null )
+        if ( dhis2Credentials.isPat() )
         {
-            return Dhis2ClientBuilder.newClient( baseApiUrl, username, password ).build();
+            return Dhis2ClientBuilder.newClient( dhis2Credentials.getBaseApiUrl(), dhis2Credentials.getPat() )
+                .build();
         }
         else
         {
-            throw new T2AException( "Bad configuration: missing authentication details" );
+            return Dhis2ClientBuilder.newClient( dhis2Credentials.getBaseApiUrl(), dhis2Credentials.getUsername(),
+                dhis2Credentials.getPassword() ).build();
         }
     }
 }
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+/**
+ * Append-only journal of the dimensions whose data values have all been
+ * imported, so that a run which is interrupted can be resumed by a later run
+ * with the same configuration instead of starting over. An item is journaled
+ * once {@link OutstandingDimensions} tells that every data value set holding
+ * any of its data values is imported. The journal is deleted when a run
+ * completes.
+ */
+@Component
+public class CheckpointJournal
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( CheckpointJournal.class );
+
+    private static final String HEADER_PREFIX = "# t2a checkpoint ";
+
+    @Value( "${checkpoint.journal:false}" )
+    private boolean enabled;
+
+    @Value( "${checkpoint.journal.path:t2a-checkpoint.journal}" )
+    private String journalPath;
+
+    @Value( "${periods:}" )
+    private String periods;
+
+    @Value( "${split.periods:true}" )
+    private boolean splitPeriods;
+
+    @Value( "${pi.group.id:}" )
+    private String programIndicatorGroupId;
+
+    @Value( "${org.unit.level:}" )
+    private String orgUnitLevel;
+
+    // completed organisation units keyed by periods and program indicator ids
+    private Map<String, Set<String>> completedOrgUnits = new HashMap<>();
+
+    private final OutstandingDimensions outstanding = new OutstandingDimensions();
+
+    private BufferedWriter writer;
+
+    /**
+     * Loads the journal left behind by an interrupted run with the same
+     * configuration, or starts a new journal otherwise.
+     *
+     * @return whether the run resumes an interrupted run
+     */
+    public synchronized boolean open( List<String> organisationUnits )
+        throws IOException
+    {
+        if ( !enabled )
+        {
+            return false;
+        }
+
+        close();
+        completedOrgUnits = new HashMap<>();
+        outstanding.clear();
+
+        Path path = Paths.get( journalPath );
+        String header = HEADER_PREFIX + getConfigurationDigest( organisationUnits );
+        boolean resuming = Files.exists( path ) && load( path, header );
+        if ( resuming )
+        {
+            LOGGER.info( "Resuming interrupted run from checkpoint journal '{}'", journalPath );
+            writer = Files.newBufferedWriter( path, StandardCharsets.UTF_8, StandardOpenOption.APPEND );
+        }
+        else
+        {
+            writer = Files.newBufferedWriter( path, StandardCharsets.UTF_8 );
+            writer.write( header );
+            writer.newLine();
+            writer.flush();
+        }
+
+        return resuming;
+    }
+
+    private boolean load( Path path, String header )
+        throws IOException
+    {
+        int entries = 0;
+        try ( BufferedReader reader = Files.newBufferedReader( path, StandardCharsets.UTF_8 ) )
+        {
+            if ( !header.equals( reader.readLine() ) )
+            {
+                LOGGER.info( "Discarding checkpoint journal '{}' written for a different configuration",
+                    journalPath );
+                return false;
+            }
+
+            String line;
+            while ( (line = reader.readLine()) != null )
+            {
+                String[] fields = line.split( "\t" );
+                // a torn last line leaves fewer fields behind and is redone
+                if ( fields.length == 3 )
+                {
+                    completedOrgUnits.computeIfAbsent( key( fields[0], fields[1] ), k -> new HashSet<>() )
+                        .addAll( Arrays.asList( fields[2].split( ";" ) ) );
+                    entries++;
+                }
+            }
+        }
+
+        return entries > 0;
+    }
+
+    /**
+     * @return the organisation units whose data values for the given periods
+     *         and program indicators were imported by an interrupted run
+     */
+    public synchronized Set<String> getCompletedOrgUnits( String periods, String programIndicatorIds )
+    {
+        return completedOrgUnits.getOrDefault( key( periods, programIndicatorIds ), Set.of() );
+    }
+
+    /**
+     * Starts tracking a dimensions item once its data values are transformed.
+     * An item without data values is complete straight away.
+     */
+    public synchronized void register( Dimensions dimensions, boolean hasDataValues )
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        outstanding.register( dimensions, hasDataValues, this::append );
+    }
+
+    public synchronized void submitted( EncodedDataValues dataValueSet )
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        outstanding.submitted( dataValueSet, this::append );
+    }
+
+    public synchronized void imported( EncodedDataValues dataValueSet )
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        outstanding.imported( dataValueSet, this::append );
+    }
+
+    private void append( Dimensions dimensions )
+    {
+        try
+        {
+            writer.write( dimensions.getPeriods() + "\t" + dimensions.getProgramIndicatorIds() + "\t"
+                + dimensions.getOrganisationUnitIds() );
+            writer.newLine();
+            writer.flush();
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+    }
+
+    /**
+     * Deletes the journal once the run is complete.
+     */
+    public synchronized void complete()
+        throws IOException
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        close();
+        completedOrgUnits = new HashMap<>();
+        outstanding.clear();
+        Files.deleteIfExists( Paths.get( journalPath ) );
+    }
+
+    private void close()
+        throws IOException
+    {
+        if ( writer != null )
+        {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    private String getConfigurationDigest( List<String> organisationUnits )
+    {
+        String configuration = String.join( "\n", periods, String.valueOf( splitPeriods ),
+            programIndicatorGroupId, orgUnitLevel, String.join( ";", organisationUnits ) );
+
+        return DigestUtils.md5DigestAsHex( configuration.getBytes( StandardCharsets.UTF_8 ) );
+    }
+
+    private static String key( String periods, String programIndicatorIds )
+    {
+        return periods + "\t" + programIndicatorIds;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+    public String getJournalPath()
+    {
+        return journalPath;
+    }
+
+    public void setJournalPath( String journalPath )
+    {
+        this.journalPath = journalPath;
+    }
+
+    public String getPeriods()
+    {
+        return periods;
+    }
+
+    public void setPeriods( String periods )
+    {
+        this.periods = periods;
+    }
+
+    public boolean isSplitPeriods()
+    {
+        return splitPeriods;
+    }
+
+    public void setSplitPeriods( boolean splitPeriods )
+    {
+        this.splitPeriods = splitPeriods;
+    }
+}
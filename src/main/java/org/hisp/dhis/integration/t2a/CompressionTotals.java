@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Sums up, for a run, the bytes of the analytics responses received and of
+ * the data value set requests sent, both as they went over the wire and
+ * once decompressed, to tell how much compressing the transfers saved.
+ */
+@Component
+public class CompressionTotals
+{
+    public static final String RECEIVED = "received";
+
+    public static final String SENT = "sent";
+
+    private long receivedWireBytes;
+
+    private long receivedBytes;
+
+    private long sentWireBytes;
+
+    private long sentBytes;
+
+    public synchronized void reset()
+    {
+        receivedWireBytes = 0;
+        receivedBytes = 0;
+        sentWireBytes = 0;
+        sentBytes = 0;
+    }
+
+    public synchronized void add( String direction, long wireBytes, long bytes )
+    {
+        if ( direction.equals( RECEIVED ) )
+        {
+            receivedWireBytes += wireBytes;
+            receivedBytes += bytes;
+        }
+        else
+        {
+            sentWireBytes += wireBytes;
+            sentBytes += bytes;
+        }
+    }
+
+    public synchronized long getWireBytes( String direction )
+    {
+        return direction.equals( RECEIVED ) ? receivedWireBytes : sentWireBytes;
+    }
+
+    public synchronized long getBytes( String direction )
+    {
+        return direction.equals( RECEIVED ) ? receivedBytes : sentBytes;
+    }
+
+    public synchronized long getBytesSaved( String direction )
+    {
+        return getBytes( direction ) - getWireBytes( direction );
+    }
+
+    /**
+     * The decompressed size over the size on the wire, or <code>NaN</code>
+     * when nothing was transferred.
+     */
+    public synchronized double getRatio( String direction )
+    {
+        long wireBytes = getWireBytes( direction );
+
+        return wireBytes == 0 ? Double.NaN : (double) getBytes( direction ) / wireBytes;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format( "%s byte/s received as %s (%.1f:1), %s byte/s sent as %s (%.1f:1)", receivedBytes,
+            receivedWireBytes, getRatio( RECEIVED ), sentBytes, sentWireBytes, getRatio( SENT ) );
+    }
+}
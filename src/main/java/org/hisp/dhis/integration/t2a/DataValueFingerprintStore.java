@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers a 64-bit fingerprint of each data value pushed by the last
+ * successful run, keyed by organisation unit, period, data element, category
+ * option combo and attribute option combo, so that unchanged data values can
+ * be left out of the next push. The fingerprints of a data value set are
+ * only staged by {@link #imported(EncodedDataValues)} once DHIS2 has imported
+ * it without conflicts or ignored data values, and made permanent by
+ * {@link #commit()} once the run has succeeded, so that data values DHIS2 did
+ * not take are pushed again by the next run. The fingerprints are held in
+ * primitive maps since there is one per data value pushed.
+ */
+@Component
+public class DataValueFingerprintStore
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( DataValueFingerprintStore.class );
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    @Value( "${delta.push:false}" )
+    private boolean enabled;
+
+    @Value( "${delta.push.store.path:t2a-fingerprints.bin}" )
+    private String storePath;
+
+    // swapped as a whole by invalidate() so that a run in progress never sees a half-cleared map
+    private volatile LongLongHashMap fingerprints;
+
+    private final LongLongHashMap stagedFingerprints = new LongLongHashMap();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    private volatile boolean fullPush;
+
+    public synchronized void begin( boolean forceFullPush )
+        throws IOException
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        if ( fingerprints == null )
+        {
+            fingerprints = load();
+        }
+        synchronized ( stagedFingerprints )
+        {
+            stagedFingerprints.clear();
+        }
+        skipped.set( 0 );
+        fullPush = forceFullPush;
+
+        if ( fullPush )
+        {
+            LOGGER.info( "Pushing all data values regardless of their fingerprints" );
+        }
+    }
+
+    /**
+     * Tells whether the data value is identical to the one pushed by the last
+     * successful run.
+     */
+    public boolean isUnchanged( String dataElement, String period, String orgUnit, String categoryOptionCombo,
+        String attributeOptionCombo, String value )
+    {
+        if ( !enabled || fullPush )
+        {
+            return false;
+        }
+
+        long key = key( dataElement, period, orgUnit, categoryOptionCombo, attributeOptionCombo );
+        LongLongHashMap lastFingerprints = fingerprints;
+        long fingerprint = hash( FNV_OFFSET_BASIS, value );
+        if ( lastFingerprints.containsKey( key ) && lastFingerprints.get( key, 0 ) == fingerprint )
+        {
+            skipped.incrementAndGet();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Stages the fingerprints of a data value set which DHIS2 imported without
+     * conflicts or ignored data values.
+     */
+    public void imported( EncodedDataValues dataValues )
+        throws IOException
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        LongLongHashMap importedFingerprints = new LongLongHashMap( dataValues.size() );
+        dataValues.forEach( ( dataElement, period, orgUnit, categoryOptionCombo, attributeOptionCombo,
+            value ) -> importedFingerprints.put( key( dataElement, period, orgUnit, categoryOptionCombo,
+                attributeOptionCombo ), hash( FNV_OFFSET_BASIS, value ) ) );
+        synchronized ( stagedFingerprints )
+        {
+            stagedFingerprints.putAll( importedFingerprints );
+        }
+    }
+
+    public synchronized void commit()
+        throws IOException
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        synchronized ( stagedFingerprints )
+        {
+            fingerprints.putAll( stagedFingerprints );
+            stagedFingerprints.clear();
+        }
+        save();
+
+        LOGGER.info( "Skipped {} unchanged data value/s. Stored {} data value fingerprint/s in '{}'",
+            skipped.get(), fingerprints.size(), storePath );
+    }
+
+    /**
+     * Forgets every fingerprint so that the next run pushes all data values.
+     * A run in progress carries on with the fingerprints it started with, and
+     * its commit only keeps the fingerprints of its own imports.
+     */
+    public synchronized void invalidate()
+        throws IOException
+    {
+        fingerprints = new LongLongHashMap();
+        Files.deleteIfExists( Paths.get( storePath ) );
+
+        LOGGER.info( "Invalidated data value fingerprints in '{}'", storePath );
+    }
+
+    private LongLongHashMap load()
+        throws IOException
+    {
+        Path path = Paths.get( storePath );
+        if ( !Files.exists( path ) )
+        {
+            return new LongLongHashMap();
+        }
+
+        try ( DataInputStream in = new DataInputStream(
+            new BufferedInputStream( Files.newInputStream( path ) ) ) )
+        {
+            if ( in.readInt() != FORMAT_VERSION )
+            {
+                LOGGER.warn( "Ignoring data value fingerprints in '{}' written in an unknown format", storePath );
+                return new LongLongHashMap();
+            }
+
+            int size = in.readInt();
+            LongLongHashMap loadedFingerprints = new LongLongHashMap( size );
+            for ( int i = 0; i < size; i++ )
+            {
+                loadedFingerprints.put( in.readLong(), in.readLong() );
+            }
+
+            return loadedFingerprints;
+        }
+    }
+
+    private void save()
+        throws IOException
+    {
+        Path path = Paths.get( storePath ).toAbsolutePath();
+        Path tempPath = path.resolveSibling( path.getFileName() + ".tmp" );
+        try ( DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream( Files.newOutputStream( tempPath ) ) ) )
+        {
+            out.writeInt( FORMAT_VERSION );
+            out.writeInt( fingerprints.size() );
+            fingerprints.forEach( ( key, fingerprint ) -> {
+                try
+                {
+                    out.writeLong( key );
+                    out.writeLong( fingerprint );
+                }
+                catch ( IOException e )
+                {
+                    throw new UncheckedIOException( e );
+                }
+            } );
+        }
+        catch ( UncheckedIOException e )
+        {
+            throw e.getCause();
+        }
+        Files.move( tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    private static long key( String dataElement, String period, String orgUnit, String categoryOptionCombo,
+        String attributeOptionCombo )
+    {
+        return hash( FNV_OFFSET_BASIS, orgUnit, period, dataElement, categoryOptionCombo, attributeOptionCombo );
+    }
+
+    private static long hash( long hash, String... parts )
+    {
+        for ( String part : parts )
+        {
+            if ( part != null )
+            {
+                for ( int i = 0; i < part.length(); i++ )
+                {
+                    hash = (hash ^ part.charAt( i )) * FNV_PRIME;
+                }
+            }
+            // separates the parts so that e.g. ("ab", "c") and ("a", "bc") differ
+            hash = (hash ^ 0x1F) * FNV_PRIME;
+        }
+
+        return hash;
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+    public String getStorePath()
+    {
+        return storePath;
+    }
+
+    public void setStorePath( String storePath )
+    {
+        this.storePath = storePath;
+    }
+}
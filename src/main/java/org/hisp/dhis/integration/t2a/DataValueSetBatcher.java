@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Re-batches the data values transformed from analytics grids into data value
+ * sets of <code>data.value.set.batch.size</code> data values so that the DHIS2
+ * server is neither flooded with tiny imports nor handed imports too large to
+ * complete. Data values buffered for longer than
+ * <code>data.value.set.flush.interval</code> milliseconds are released by
+ * {@link #flushExpired()}, which is called both when more data values arrive
+ * and on a schedule so that they are not held back while analytics is slow to
+ * answer. Whatever is left at the end of a run is released by
+ * {@link #flush()}.
+ */
+@Component
+public class DataValueSetBatcher
+{
+    @Value( "${data.value.set.batch.size:10000}" )
+    private int batchSize;
+
+    @Value( "${data.value.set.flush.interval:30000}" )
+    private long flushInterval;
+
+    private EncodedDataValues.Builder buffer;
+
+    private long bufferedSince;
+
+    public synchronized List<EncodedDataValues> add( EncodedDataValues dataValues )
+        throws IOException
+    {
+        if ( batchSize < 1 )
+        {
+            throw new T2AException( "Bad configuration: data.value.set.batch.size must be greater than 0" );
+        }
+
+        List<EncodedDataValues> dataValueSets = new ArrayList<>();
+        int offset = 0;
+        while ( offset < dataValues.size() )
+        {
+            if ( buffer == null )
+            {
+                buffer = EncodedDataValues.builder();
+                bufferedSince = System.currentTimeMillis();
+            }
+
+            int count = Math.min( batchSize - buffer.size(), dataValues.size() - offset );
+            buffer.append( dataValues, offset, offset + count );
+            offset += count;
+
+            if ( buffer.size() == batchSize )
+            {
+                dataValueSets.add( offset < dataValues.size() ? buffer.build( dataValues.getSources() )
+                    : buffer.build() );
+                buffer = null;
+            }
+        }
+
+        dataValueSets.addAll( flushExpired() );
+
+        return dataValueSets;
+    }
+
+    /**
+     * Releases the buffered data values if they have been held back for at
+     * least <code>data.value.set.flush.interval</code> milliseconds.
+     */
+    public synchronized List<EncodedDataValues> flushExpired()
+        throws IOException
+    {
+        if ( buffer == null || System.currentTimeMillis() - bufferedSince < flushInterval )
+        {
+            return List.of();
+        }
+
+        return flush();
+    }
+
+    public synchronized List<EncodedDataValues> flush()
+        throws IOException
+    {
+        if ( buffer == null )
+        {
+            return List.of();
+        }
+
+        EncodedDataValues dataValueSet = buffer.build();
+        buffer = null;
+
+        return List.of( dataValueSet );
+    }
+
+    public synchronized void clear()
+    {
+        buffer = null;
+    }
+
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public void setBatchSize( int batchSize )
+    {
+        this.batchSize = batchSize;
+    }
+
+    public long getFlushInterval()
+    {
+        return flushInterval;
+    }
+
+    public void setFlushInterval( long flushInterval )
+    {
+        this.flushInterval = flushInterval;
+    }
+}
@@ -30,13 +30,18 @@ package org.hisp.dhis.integration.t2a;
 import static org.hisp.dhis.integration.t2a.route.T2ARouteBuilder.ALL_ORG_UNITS_PROPERTY;
 
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import org.apache.camel.Exchange;
-import org.hisp.dhis.api.model.v2_37_7.ProgramIndicatorGroup;
 import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+import org.hisp.dhis.integration.t2a.model.RunPlan;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
@@ -46,40 +51,188 @@ public class DimensionSplitter
     @Value( "${org.unit.batch.size:1}" )
     private int orgUnitBatchSize;
 
+    @Value( "${pi.batch.size:1}" )
+    private int programIndicatorBatchSize = 1;
+
     @Value( "${split.periods:true}" )
     private boolean splitPeriods;
 
     @Value( "${periods}" )
     private String periods;
 
-    public List<Dimensions> split( Exchange exchange )
+    @Autowired
+    private OrgUnitBatchSizer orgUnitBatchSizer;
+
+    @Autowired
+    private CheckpointJournal checkpointJournal;
+
+    /**
+     * Lazily splits the periods, organisation units and program indicators
+     * into dimensions. Dimensions are created one at a time as the splitter
+     * consumes them so that memory use does not grow with the size of the
+     * cartesian product. Each organisation unit batch is sized by
+     * {@link OrgUnitBatchSizer} at the time it is handed out. Organisation
+     * units already completed by an interrupted run, as recorded in the
+     * {@link CheckpointJournal}, are left out.
+     */
+    public Iterator<Dimensions> split( Exchange exchange )
     {
         List<String> organisationUnits = exchange.getProperty( ALL_ORG_UNITS_PROPERTY,
             List.class );
-        ProgramIndicatorGroup programIndicatorGroup = exchange.getMessage().getBody( ProgramIndicatorGroup.class );
-        List<String> periodsAsList;
+        RunPlan runPlan = exchange.getMessage().getBody( RunPlan.class );
+
+        if ( orgUnitBatchSize < 1 )
+        {
+            throw new T2AException( "Bad configuration: batch size must be greater than 0" );
+        }
+        orgUnitBatchSizer.reset( orgUnitBatchSize );
+
+        return new DimensionsIterator( getPeriodsAsList(), organisationUnits,
+            batch( runPlan.getMappings(), programIndicatorBatchSize ),
+            orgUnitBatchSizer, checkpointJournal );
+    }
+
+    private List<String> getPeriodsAsList()
+    {
         if ( splitPeriods )
         {
-            periodsAsList = Arrays.stream( periods.split( "," ) ).collect( Collectors.toList() );
+            return Arrays.stream( periods.split( "," ) ).collect( Collectors.toList() );
         }
         else
         {
-            periodsAsList = List.of( String.join( ";", periods.split( "," ) ) );
+            return List.of( String.join( ";", periods.split( "," ) ) );
         }
+    }
 
-        List<List<String>> orgUnitBatches = IntStream.iterate( 0,
-            i -> i < organisationUnits.size(), i -> i + orgUnitBatchSize )
-            .mapToObj( i -> organisationUnits
-                .subList( i, Math.min( i + orgUnitBatchSize, organisationUnits.size() ) ) )
-            .collect( Collectors.toList() );
+    private static <T> List<List<T>> batch( List<T> items, int batchSize )
+    {
+        if ( batchSize < 1 )
+        {
+            throw new T2AException( "Bad configuration: batch size must be greater than 0" );
+        }
 
-        List<Dimensions> dimensions = periodsAsList.stream().flatMap(
-            pe -> orgUnitBatches.stream()
-                .flatMap( b -> programIndicatorGroup.getProgramIndicators().get().stream()
-                    .map( pi -> new Dimensions( pe, String.join( ";", b ), pi ) ) ) )
+        return IntStream.iterate( 0, i -> i < items.size(), i -> i + batchSize )
+            .mapToObj( i -> items.subList( i, Math.min( i + batchSize, items.size() ) ) )
             .collect( Collectors.toList() );
+    }
+
+    private static class DimensionsIterator implements Iterator<Dimensions>
+    {
+        private final List<String> periods;
+
+        private final List<String> organisationUnits;
+
+        private final List<List<ProgramIndicatorMapping>> programIndicatorBatches;
+
+        private final OrgUnitBatchSizer orgUnitBatchSizer;
+
+        private final CheckpointJournal checkpointJournal;
+
+        private int periodIndex;
+
+        private int orgUnitOffset;
+
+        private int nextOrgUnitOffset;
+
+        private List<String> orgUnitBatch;
+
+        private int programIndicatorBatchIndex;
+
+        private Dimensions nextDimensions;
+
+        DimensionsIterator( List<String> periods, List<String> organisationUnits,
+            List<List<ProgramIndicatorMapping>> programIndicatorBatches, OrgUnitBatchSizer orgUnitBatchSizer,
+            CheckpointJournal checkpointJournal )
+        {
+            this.periods = periods;
+            this.organisationUnits = organisationUnits;
+            this.programIndicatorBatches = programIndicatorBatches;
+            this.orgUnitBatchSizer = orgUnitBatchSizer;
+            this.checkpointJournal = checkpointJournal;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            if ( nextDimensions == null )
+            {
+                nextDimensions = computeNext();
+            }
+
+            return nextDimensions != null;
+        }
 
-        return dimensions;
+        @Override
+        public Dimensions next()
+        {
+            if ( !hasNext() )
+            {
+                throw new NoSuchElementException();
+            }
+
+            Dimensions dimensions = nextDimensions;
+            nextDimensions = null;
+
+            return dimensions;
+        }
+
+        private Dimensions computeNext()
+        {
+            while ( periodIndex < periods.size() && !organisationUnits.isEmpty()
+                && !programIndicatorBatches.isEmpty() )
+            {
+                if ( orgUnitBatch == null )
+                {
+                    nextOrgUnitOffset = (int) Math.min( (long) orgUnitOffset + orgUnitBatchSizer.getBatchSize(),
+                        organisationUnits.size() );
+                    orgUnitBatch = organisationUnits.subList( orgUnitOffset, nextOrgUnitOffset );
+                }
+
+                String period = periods.get( periodIndex );
+                List<ProgramIndicatorMapping> programIndicatorBatch = programIndicatorBatches
+                    .get( programIndicatorBatchIndex );
+                List<String> pendingOrgUnits = getPendingOrgUnits( period, programIndicatorBatch );
+                advance();
+
+                if ( !pendingOrgUnits.isEmpty() )
+                {
+                    return new Dimensions( period, String.join( ";", pendingOrgUnits ), programIndicatorBatch );
+                }
+            }
+
+            return null;
+        }
+
+        // leaves out the organisation units completed by an interrupted run
+        private List<String> getPendingOrgUnits( String period, List<ProgramIndicatorMapping> programIndicatorBatch )
+        {
+            Set<String> completedOrgUnits = checkpointJournal.getCompletedOrgUnits( period,
+                programIndicatorBatch.stream().map( ProgramIndicatorMapping::getProgramIndicatorId )
+                    .collect( Collectors.joining( ";" ) ) );
+            if ( completedOrgUnits.isEmpty() )
+            {
+                return orgUnitBatch;
+            }
+
+            return orgUnitBatch.stream().filter( ou -> !completedOrgUnits.contains( ou ) )
+                .collect( Collectors.toList() );
+        }
+
+        private void advance()
+        {
+            programIndicatorBatchIndex++;
+            if ( programIndicatorBatchIndex == programIndicatorBatches.size() )
+            {
+                programIndicatorBatchIndex = 0;
+                orgUnitBatch = null;
+                orgUnitOffset = nextOrgUnitOffset;
+                if ( orgUnitOffset == organisationUnits.size() )
+                {
+                    orgUnitOffset = 0;
+                    periodIndex++;
+                }
+            }
+        }
     }
 
     public int getOrgUnitBatchSize()
@@ -92,6 +245,36 @@ public class DimensionSplitter
         this.orgUnitBatchSize = orgUnitBatchSize;
     }
 
+    public int getProgramIndicatorBatchSize()
+    {
+        return programIndicatorBatchSize;
+    }
+
+    public void setProgramIndicatorBatchSize( int programIndicatorBatchSize )
+    {
+        this.programIndicatorBatchSize = programIndicatorBatchSize;
+    }
+
+    public OrgUnitBatchSizer getOrgUnitBatchSizer()
+    {
+        return orgUnitBatchSizer;
+    }
+
+    public void setOrgUnitBatchSizer( OrgUnitBatchSizer orgUnitBatchSizer )
+    {
+        this.orgUnitBatchSizer = orgUnitBatchSizer;
+    }
+
+    public CheckpointJournal getCheckpointJournal()
+    {
+        return checkpointJournal;
+    }
+
+    public void setCheckpointJournal( CheckpointJournal checkpointJournal )
+    {
+        this.checkpointJournal = checkpointJournal;
+    }
+
     public boolean isSplitPeriods()
     {
         return splitPeriods;
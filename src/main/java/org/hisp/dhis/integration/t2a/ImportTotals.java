@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Sums up the import summaries of the data value sets imported in a run and
+ * keeps track of the periods of the imports which created, updated or
+ * deleted data values. Since an import summary does not say which of its
+ * data values changed, every period of such an import counts as changed. An
+ * import summary which cannot be read is taken to have changed data values.
+ */
+@Component
+public class ImportTotals
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( ImportTotals.class );
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private int imports;
+
+    private long imported;
+
+    private long updated;
+
+    private long deleted;
+
+    private long ignored;
+
+    private long conflicts;
+
+    private final Set<String> changedPeriods = new TreeSet<>();
+
+    public synchronized void reset()
+    {
+        imports = 0;
+        imported = 0;
+        updated = 0;
+        deleted = 0;
+        ignored = 0;
+        conflicts = 0;
+        changedPeriods.clear();
+    }
+
+    /**
+     * Adds the import summary of the given data values to the totals.
+     *
+     * @return whether DHIS2 imported every data value, that is, the import
+     *         summary is readable and has no conflicts nor ignored data values
+     */
+    public boolean add( EncodedDataValues dataValues, String importSummary )
+    {
+        Set<String> periods = new TreeSet<>();
+        for ( Dimensions source : dataValues.getSources() )
+        {
+            periods.addAll( Arrays.asList( source.getPeriods().split( ";" ) ) );
+        }
+        return add( periods, importSummary );
+    }
+
+    synchronized boolean add( Collection<String> periods, String importSummary )
+    {
+        imports++;
+        JsonNode importCount;
+        int importConflicts = 0;
+        try
+        {
+            JsonNode root = OBJECT_MAPPER.readTree( importSummary );
+            JsonNode summary = root.has( "response" ) ? root.get( "response" ) : root;
+            importConflicts = summary.path( "conflicts" ).size();
+            importCount = summary.get( "importCount" );
+        }
+        catch ( IOException e )
+        {
+            importCount = null;
+        }
+        conflicts += importConflicts;
+
+        if ( importCount == null )
+        {
+            LOGGER.warn( "Cannot read the import count of data value set import summary {}", importSummary );
+            changedPeriods.addAll( periods );
+            return false;
+        }
+
+        long importedCount = importCount.path( "imported" ).asLong();
+        long updatedCount = importCount.path( "updated" ).asLong();
+        long deletedCount = importCount.path( "deleted" ).asLong();
+        imported += importedCount;
+        updated += updatedCount;
+        deleted += deletedCount;
+        long ignoredCount = importCount.path( "ignored" ).asLong();
+        ignored += ignoredCount;
+        if ( importedCount + updatedCount + deletedCount > 0 )
+        {
+            changedPeriods.addAll( periods );
+        }
+
+        return importConflicts == 0 && ignoredCount == 0;
+    }
+
+    /**
+     * Adds the totals of imports made elsewhere, such as by another node of
+     * the cluster.
+     */
+    public synchronized void merge( int imports, long imported, long updated, long deleted, long ignored,
+        long conflicts, Collection<String> changedPeriods )
+    {
+        this.imports += imports;
+        this.imported += imported;
+        this.updated += updated;
+        this.deleted += deleted;
+        this.ignored += ignored;
+        this.conflicts += conflicts;
+        this.changedPeriods.addAll( changedPeriods );
+    }
+
+    /**
+     * Whether any import in the run may have created, updated or deleted data
+     * values.
+     */
+    public synchronized boolean hasChanges()
+    {
+        return !changedPeriods.isEmpty();
+    }
+
+    /**
+     * The periods, as queried from analytics, of the imports which created,
+     * updated or deleted data values.
+     */
+    public synchronized Set<String> getChangedPeriods()
+    {
+        return new TreeSet<>( changedPeriods );
+    }
+
+    public synchronized int getImports()
+    {
+        return imports;
+    }
+
+    public synchronized long getImported()
+    {
+        return imported;
+    }
+
+    public synchronized long getUpdated()
+    {
+        return updated;
+    }
+
+    public synchronized long getDeleted()
+    {
+        return deleted;
+    }
+
+    public synchronized long getIgnored()
+    {
+        return ignored;
+    }
+
+    public synchronized long getConflicts()
+    {
+        return conflicts;
+    }
+
+    @Override
+    public synchronized String toString()
+    {
+        return String.format( "%s import/s: %s imported, %s updated, %s deleted, %s ignored, %s conflict/s", imports,
+            imported, updated, deleted, ignored, conflicts );
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps count of the data value sets handed over to the import stage so that
+ * the push can wait for all of them to be imported before committing the run.
+ * The first failed import is kept and rethrown to the fetch stage, which stops
+ * queueing further imports.
+ */
+@Component
+public class ImportTracker
+{
+    private int outstanding;
+
+    private Exception failure;
+
+    public synchronized void reset()
+    {
+        outstanding = 0;
+        failure = null;
+    }
+
+    public synchronized void submitted()
+    {
+        checkFailure();
+        outstanding++;
+    }
+
+    public synchronized void completed()
+    {
+        outstanding--;
+        notifyAll();
+    }
+
+    public synchronized void failed( Exception e )
+    {
+        if ( failure == null )
+        {
+            failure = e;
+        }
+        outstanding--;
+        notifyAll();
+    }
+
+    public synchronized void checkFailure()
+    {
+        if ( failure != null )
+        {
+            throw new T2AException( "Data value set import failed", failure );
+        }
+    }
+
+    /**
+     * Blocks until every submitted data value set is imported or has failed.
+     *
+     * @throws T2AException if any of the imports failed
+     */
+    public synchronized void awaitCompletion()
+        throws InterruptedException
+    {
+        while ( outstanding > 0 )
+        {
+            wait();
+        }
+        checkFailure();
+    }
+
+    public synchronized int getOutstanding()
+    {
+        return outstanding;
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.util.Arrays;
+
+/**
+ * Maps <code>long</code> keys to <code>long</code> values with open
+ * addressing in two arrays, which takes 16 to 32 bytes per entry where a map
+ * of boxed longs takes around 80. Not thread-safe.
+ */
+final class LongLongHashMap
+{
+    private static final int MIN_CAPACITY = 16;
+
+    // key 0 marks a free slot so the entry with key 0, if any, is kept apart
+    private long[] keys;
+
+    private long[] values;
+
+    private int size;
+
+    private boolean hasZeroKey;
+
+    private long zeroKeyValue;
+
+    LongLongHashMap()
+    {
+        this( MIN_CAPACITY );
+    }
+
+    LongLongHashMap( int expectedSize )
+    {
+        int capacity = MIN_CAPACITY;
+        while ( capacity * 3 / 4 < expectedSize )
+        {
+            capacity *= 2;
+        }
+        keys = new long[capacity];
+        values = new long[capacity];
+    }
+
+    int size()
+    {
+        return hasZeroKey ? size + 1 : size;
+    }
+
+    boolean containsKey( long key )
+    {
+        return key == 0 ? hasZeroKey : keys[indexOf( keys, key )] == key;
+    }
+
+    /**
+     * The value of the given key, or <code>defaultValue</code> if there is
+     * none.
+     */
+    long get( long key, long defaultValue )
+    {
+        if ( key == 0 )
+        {
+            return hasZeroKey ? zeroKeyValue : defaultValue;
+        }
+
+        int index = indexOf( keys, key );
+        return keys[index] == key ? values[index] : defaultValue;
+    }
+
+    void put( long key, long value )
+    {
+        if ( key == 0 )
+        {
+            hasZeroKey = true;
+            zeroKeyValue = value;
+            return;
+        }
+
+        int index = indexOf( keys, key );
+        if ( keys[index] != key )
+        {
+            if ( (size + 1) > keys.length * 3 / 4 )
+            {
+                resize( keys.length * 2 );
+                index = indexOf( keys, key );
+            }
+            keys[index] = key;
+            size++;
+        }
+        values[index] = value;
+    }
+
+    void putAll( LongLongHashMap map )
+    {
+        map.forEach( this::put );
+    }
+
+    void clear()
+    {
+        Arrays.fill( keys, 0 );
+        size = 0;
+        hasZeroKey = false;
+    }
+
+    void forEach( EntryConsumer consumer )
+    {
+        if ( hasZeroKey )
+        {
+            consumer.accept( 0, zeroKeyValue );
+        }
+        for ( int i = 0; i < keys.length; i++ )
+        {
+            if ( keys[i] != 0 )
+            {
+                consumer.accept( keys[i], values[i] );
+            }
+        }
+    }
+
+    private void resize( int capacity )
+    {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[capacity];
+        values = new long[capacity];
+        for ( int i = 0; i < oldKeys.length; i++ )
+        {
+            if ( oldKeys[i] != 0 )
+            {
+                int index = indexOf( keys, oldKeys[i] );
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * The slot holding the given key or, if the key is absent, the free slot
+     * where it would go.
+     */
+    private static int indexOf( long[] keys, long key )
+    {
+        int mask = keys.length - 1;
+        int index = (int) mix( key ) & mask;
+        while ( keys[index] != 0 && keys[index] != key )
+        {
+            index = (index + 1) & mask;
+        }
+
+        return index;
+    }
+
+    private static long mix( long key )
+    {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return hash ^ (hash >>> 32);
+    }
+
+    @FunctionalInterface
+    interface EntryConsumer
+    {
+        void accept( long key, long value );
+    }
+}
@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+import lombok.Data;
+
+import org.hisp.dhis.api.model.v2_37_7.ProgramIndicatorGroup;
+import org.hisp.dhis.integration.sdk.api.Dhis2Client;
+import org.hisp.dhis.integration.t2a.model.OrganisationUnitIds;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Keeps the organisation units and program indicators from one run to the
+ * next in a local file and only re-fetches what changed in DHIS2 since:
+ * organisation units updated after the last check, and program indicators
+ * whose <code>lastUpdated</code> differs from the cached one. Organisation
+ * units are fetched in full again whenever the cached count no longer matches
+ * the count in DHIS2, which is how deleted or moved organisation units are
+ * noticed. The file is only rewritten when something changed. The cached
+ * metadata is kept in a {@link MetadataCacheStore}, which is shared by the
+ * jobs of a process hosting several of them.
+ */
+@Component
+public class MetadataCache
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( MetadataCache.class );
+
+    private static final int FORMAT_VERSION = 1;
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+        .configure( DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false );
+
+    private static final String PROGRAM_INDICATOR_FIELDS = "id,name,lastUpdated,aggregateExportCategoryOptionCombo,aggregateExportAttributeOptionCombo,attributeValues";
+
+    // keeps the program indicator filter well within URL length limits
+    private static final int ID_FILTER_BATCH_SIZE = 50;
+
+    @Value( "${metadata.cache:false}" )
+    private boolean enabled;
+
+    @Value( "${metadata.cache.path:t2a-metadata-cache.json}" )
+    private String cachePath;
+
+    @Value( "${org.unit.page.size:5000}" )
+    private int pageSize;
+
+    @Autowired
+    private Dhis2Client dhis2Client;
+
+    @Autowired( required = false )
+    private MetadataCacheStore metadataCacheStore = new MetadataCacheStore();
+
+    private CachedMetadata metadata;
+
+    public OrganisationUnitIds getOrganisationUnitIds( int level,
+        Callable<OrganisationUnitIds> fetchAll )
+        throws Exception
+    {
+        synchronized ( metadataCacheStore.getLock( cachePath ) )
+        {
+            load();
+            String serverDate = getServerDate();
+            CachedOrganisationUnits cachedOrganisationUnits = metadata.getOrganisationUnits()
+                .get( String.valueOf( level ) );
+
+            if ( cachedOrganisationUnits != null )
+            {
+                List<String> changedIds = getChangedOrganisationUnitIds( level, cachedOrganisationUnits.getSince() );
+                TreeSet<String> ids = new TreeSet<>( cachedOrganisationUnits.getIds() );
+                ids.addAll( changedIds );
+
+                int total = getOrganisationUnitCount( level );
+                if ( ids.size() == total )
+                {
+                    LOGGER.info( "Using {} cached organisation unit/s at level {} of which {} changed", ids.size(),
+                        level, changedIds.size() );
+                    // left as it is when nothing changed since the next run can look for changes from the same date
+                    if ( !changedIds.isEmpty() )
+                    {
+                        cachedOrganisationUnits.setIds( new ArrayList<>( ids ) );
+                        cachedOrganisationUnits.setSince( serverDate );
+                        save();
+                    }
+
+                    return toOrganisationUnitIds( cachedOrganisationUnits.getIds() );
+                }
+
+                LOGGER.info(
+                    "Re-fetching organisation units at level {} because DHIS2 has {} organisation unit/s while the cache would have {}",
+                    level, total, ids.size() );
+            }
+
+            cachedOrganisationUnits = new CachedOrganisationUnits();
+            cachedOrganisationUnits.setIds( new ArrayList<>( new TreeSet<>( fetchAll.call() ) ) );
+            cachedOrganisationUnits.setSince( serverDate );
+            metadata.getOrganisationUnits().put( String.valueOf( level ), cachedOrganisationUnits );
+            save();
+
+            return toOrganisationUnitIds( cachedOrganisationUnits.getIds() );
+        }
+    }
+
+    public ProgramIndicatorGroup getProgramIndicatorGroup( String programIndicatorGroupId )
+        throws IOException
+    {
+        synchronized ( metadataCacheStore.getLock( cachePath ) )
+        {
+            load();
+            CachedProgramIndicatorGroup cachedProgramIndicatorGroup = metadata.getProgramIndicatorGroups()
+                .computeIfAbsent( programIndicatorGroupId, id -> new CachedProgramIndicatorGroup() );
+
+            Map<String, Object> programIndicatorGroup = get( "programIndicatorGroups/" + programIndicatorGroupId,
+                Map.of( "fields", "programIndicators[id,lastUpdated]" ) );
+            Map<String, String> lastUpdated = new LinkedHashMap<>();
+            for ( Map<String, Object> programIndicator : getList( programIndicatorGroup, "programIndicators" ) )
+            {
+                lastUpdated.put( (String) programIndicator.get( "id" ),
+                    (String) programIndicator.get( "lastUpdated" ) );
+            }
+
+            List<String> changedIds = getChangedProgramIndicatorIds( lastUpdated,
+                cachedProgramIndicatorGroup.getProgramIndicators() );
+            Map<String, Map<String, Object>> programIndicators = new HashMap<>();
+            for ( String id : lastUpdated.keySet() )
+            {
+                if ( !changedIds.contains( id ) )
+                {
+                    programIndicators.put( id, cachedProgramIndicatorGroup.getProgramIndicators().get( id ) );
+                }
+            }
+            for ( int i = 0; i < changedIds.size(); i += ID_FILTER_BATCH_SIZE )
+            {
+                String filter = String.join( ",",
+                    changedIds.subList( i, Math.min( i + ID_FILTER_BATCH_SIZE, changedIds.size() ) ) );
+                getList( get( "programIndicators", Map.of( "filter", "id:in:[" + filter + "]", "fields",
+                    PROGRAM_INDICATOR_FIELDS, "paging", "false" ) ), "programIndicators" )
+                        .forEach( programIndicator -> programIndicators.put( (String) programIndicator.get( "id" ),
+                            programIndicator ) );
+            }
+
+            LOGGER.info( "Using {} program indicator/s of which {} changed", lastUpdated.size(), changedIds.size() );
+            List<String> programIndicatorIds = new ArrayList<>( lastUpdated.keySet() );
+            if ( !changedIds.isEmpty()
+                || !programIndicatorIds.equals( cachedProgramIndicatorGroup.getProgramIndicatorIds() ) )
+            {
+                cachedProgramIndicatorGroup.setProgramIndicators( programIndicators );
+                cachedProgramIndicatorGroup.setProgramIndicatorIds( programIndicatorIds );
+                save();
+            }
+
+            return OBJECT_MAPPER.convertValue( Map.of( "programIndicators",
+                cachedProgramIndicatorGroup.getProgramIndicatorIds().stream().map( programIndicators::get )
+                    .filter( Objects::nonNull ).collect( Collectors.toList() ) ),
+                ProgramIndicatorGroup.class );
+        }
+    }
+
+    static List<String> getChangedProgramIndicatorIds( Map<String, String> lastUpdated,
+        Map<String, Map<String, Object>> cachedProgramIndicators )
+    {
+        return lastUpdated.entrySet().stream().filter( e -> {
+            Map<String, Object> cachedProgramIndicator = cachedProgramIndicators.get( e.getKey() );
+            return cachedProgramIndicator == null
+                || !Objects.equals( e.getValue(), cachedProgramIndicator.get( "lastUpdated" ) );
+        } ).map( Map.Entry::getKey ).collect( Collectors.toList() );
+    }
+
+    private List<String> getChangedOrganisationUnitIds( int level, String since )
+        throws IOException
+    {
+        if ( pageSize < 1 )
+        {
+            throw new T2AException( "Bad configuration: org.unit.page.size must be greater than 0" );
+        }
+
+        // DHIS2 leaves out the other levels; paged since a bulk metadata import may have changed them all
+        List<String> ids = new ArrayList<>();
+        int pageCount = 1;
+        for ( int page = 1; page <= pageCount; page++ )
+        {
+            Map<String, Object> organisationUnits = get( "organisationUnits", Map.of( "fields", "id", "level",
+                String.valueOf( level ), "filter", "lastUpdated:gt:" + since, "order", "id:asc", "page",
+                String.valueOf( page ), "pageSize", String.valueOf( pageSize ) ) );
+            getList( organisationUnits, "organisationUnits" ).forEach( ou -> ids.add( (String) ou.get( "id" ) ) );
+
+            Map<String, Object> pager = (Map<String, Object>) organisationUnits.get( "pager" );
+            if ( pager != null && pager.get( "pageCount" ) instanceof Number )
+            {
+                pageCount = ((Number) pager.get( "pageCount" )).intValue();
+            }
+        }
+
+        return ids;
+    }
+
+    private int getOrganisationUnitCount( int level )
+        throws IOException
+    {
+        Map<String, Object> pager = (Map<String, Object>) get( "organisationUnits",
+            Map.of( "fields", "id", "filter", "level:eq:" + level, "pageSize", "1" ) ).get( "pager" );
+
+        return ((Number) pager.get( "total" )).intValue();
+    }
+
+    private String getServerDate()
+        throws IOException
+    {
+        return (String) get( "system/info", Map.of( "fields", "serverDate" ) ).get( "serverDate" );
+    }
+
+    Map<String, Object> get( String path, Map<String, String> parameters )
+        throws IOException
+    {
+        var operation = dhis2Client.get( path );
+        parameters.forEach( operation::withParameter );
+
+        return operation.transfer().returnAs( Map.class );
+    }
+
+    private static List<Map<String, Object>> getList( Map<String, Object> resource, String name )
+    {
+        return (List<Map<String, Object>>) resource.getOrDefault( name, List.of() );
+    }
+
+    private static OrganisationUnitIds toOrganisationUnitIds( List<String> ids )
+    {
+        OrganisationUnitIds.Builder builder = OrganisationUnitIds.builder();
+        ids.forEach( builder::add );
+
+        return builder.build();
+    }
+
+    private void load()
+        throws IOException
+    {
+        metadata = metadataCacheStore.get( cachePath );
+        if ( metadata != null )
+        {
+            return;
+        }
+
+        Path path = Paths.get( cachePath );
+        if ( Files.exists( path ) )
+        {
+            metadata = OBJECT_MAPPER.readValue( path.toFile(), CachedMetadata.class );
+            if ( metadata.getVersion() != FORMAT_VERSION )
+            {
+                LOGGER.warn( "Ignoring metadata cache in '{}' written in an unknown format", cachePath );
+                metadata = new CachedMetadata();
+            }
+        }
+        else
+        {
+            metadata = new CachedMetadata();
+        }
+        metadataCacheStore.put( cachePath, metadata );
+    }
+
+    private void save()
+        throws IOException
+    {
+        Path path = Paths.get( cachePath ).toAbsolutePath();
+        Path tempPath = path.resolveSibling( path.getFileName() + ".tmp" );
+        OBJECT_MAPPER.writeValue( tempPath.toFile(), metadata );
+        Files.move( tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    @Data
+    public static class CachedMetadata
+    {
+        private int version = FORMAT_VERSION;
+
+        private Map<String, CachedOrganisationUnits> organisationUnits = new HashMap<>();
+
+        private Map<String, CachedProgramIndicatorGroup> programIndicatorGroups = new HashMap<>();
+    }
+
+    @Data
+    public static class CachedOrganisationUnits
+    {
+        private String since;
+
+        private List<String> ids = new ArrayList<>();
+    }
+
+    @Data
+    public static class CachedProgramIndicatorGroup
+    {
+        private List<String> programIndicatorIds = new ArrayList<>();
+
+        private Map<String, Map<String, Object>> programIndicators = new HashMap<>();
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+    public String getCachePath()
+    {
+        return cachePath;
+    }
+
+    public void setCachePath( String cachePath )
+    {
+        this.cachePath = cachePath;
+    }
+
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    public void setPageSize( int pageSize )
+    {
+        this.pageSize = pageSize;
+    }
+
+    public Dhis2Client getDhis2Client()
+    {
+        return dhis2Client;
+    }
+
+    public void setDhis2Client( Dhis2Client dhis2Client )
+    {
+        this.dhis2Client = dhis2Client;
+    }
+
+    public MetadataCacheStore getMetadataCacheStore()
+    {
+        return metadataCacheStore;
+    }
+
+    public void setMetadataCacheStore( MetadataCacheStore metadataCacheStore )
+    {
+        this.metadataCacheStore = metadataCacheStore;
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Works out how many organisation units to put in the next analytics query.
+ * In adaptive mode, the batch size is steered towards a target latency from
+ * the observed time it takes the DHIS2 server to answer for each organisation
+ * unit. Growth is capped at doubling per observation while shrinking is
+ * immediate so that the server is relieved as soon as latency spikes.
+ */
+@Component
+public class OrgUnitBatchSizer
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( OrgUnitBatchSizer.class );
+
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    @Value( "${org.unit.batch.adaptive:false}" )
+    private boolean adaptive;
+
+    @Value( "${org.unit.batch.target.latency:5000}" )
+    private long targetLatency;
+
+    @Value( "${org.unit.batch.min.size:1}" )
+    private int minBatchSize = 1;
+
+    @Value( "${org.unit.batch.max.size:500}" )
+    private int maxBatchSize = 500;
+
+    private int batchSize;
+
+    private double latencyPerOrgUnit;
+
+    public synchronized void reset( int initialBatchSize )
+    {
+        if ( adaptive && (minBatchSize < 1 || maxBatchSize < minBatchSize) )
+        {
+            throw new T2AException(
+                "Bad configuration: org.unit.batch.min.size must be greater than 0 and not exceed org.unit.batch.max.size" );
+        }
+
+        batchSize = adaptive ? clamp( initialBatchSize ) : initialBatchSize;
+        latencyPerOrgUnit = 0;
+    }
+
+    public synchronized int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    public synchronized void record( int orgUnitCount, long latency, int rowCount )
+    {
+        if ( !adaptive || orgUnitCount < 1 )
+        {
+            return;
+        }
+
+        double sample = (double) Math.max( latency, 1 ) / orgUnitCount;
+        latencyPerOrgUnit = latencyPerOrgUnit == 0 ? sample
+            : (SMOOTHING_FACTOR * sample) + ((1 - SMOOTHING_FACTOR) * latencyPerOrgUnit);
+
+        long idealBatchSize = (long) (targetLatency / latencyPerOrgUnit);
+        int newBatchSize = clamp( idealBatchSize > batchSize ? Math.min( idealBatchSize, batchSize * 2L )
+            : idealBatchSize );
+
+        if ( newBatchSize != batchSize )
+        {
+            LOGGER.info(
+                "Changing organisation unit batch size from {} to {} after analytics took {} ms for {} organisation unit/s and {} row/s (target latency {} ms)",
+                batchSize, newBatchSize, latency, orgUnitCount, rowCount, targetLatency );
+            batchSize = newBatchSize;
+        }
+        else
+        {
+            LOGGER.debug(
+                "Keeping organisation unit batch size at {} after analytics took {} ms for {} organisation unit/s and {} row/s (target latency {} ms)",
+                batchSize, latency, orgUnitCount, rowCount, targetLatency );
+        }
+    }
+
+    private int clamp( long size )
+    {
+        return (int) Math.max( minBatchSize, Math.min( maxBatchSize, size ) );
+    }
+
+    public boolean isAdaptive()
+    {
+        return adaptive;
+    }
+
+    public void setAdaptive( boolean adaptive )
+    {
+        this.adaptive = adaptive;
+    }
+
+    public long getTargetLatency()
+    {
+        return targetLatency;
+    }
+
+    public void setTargetLatency( long targetLatency )
+    {
+        this.targetLatency = targetLatency;
+    }
+
+    public int getMinBatchSize()
+    {
+        return minBatchSize;
+    }
+
+    public void setMinBatchSize( int minBatchSize )
+    {
+        this.minBatchSize = minBatchSize;
+    }
+
+    public int getMaxBatchSize()
+    {
+        return maxBatchSize;
+    }
+
+    public void setMaxBatchSize( int maxBatchSize )
+    {
+        this.maxBatchSize = maxBatchSize;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+
+/**
+ * Tells when every data value of a dimensions item is imported. Since data
+ * value sets are re-batched, the data values of an item can be spread over
+ * several imports: an item is complete once its data values are all handed
+ * out by the batcher and every data value set holding any of them is
+ * imported. Not thread-safe.
+ */
+public class OutstandingDimensions
+{
+    // no. of reasons left before a dimensions item is complete: its data values still being re-batched, plus
+    // each data value set holding any of its data values that is yet to be imported
+    private final Map<Dimensions, Integer> outstanding = new HashMap<>();
+
+    /**
+     * Starts tracking a dimensions item once its data values are transformed.
+     * An item without data values is complete straight away.
+     */
+    public void register( Dimensions dimensions, boolean hasDataValues, Consumer<Dimensions> completed )
+    {
+        if ( hasDataValues )
+        {
+            outstanding.put( dimensions, 1 );
+        }
+        else
+        {
+            completed.accept( dimensions );
+        }
+    }
+
+    public void submitted( EncodedDataValues dataValueSet, Consumer<Dimensions> completed )
+    {
+        dataValueSet.getSources().forEach( source -> outstanding.merge( source, 1, Integer::sum ) );
+        dataValueSet.getCompletedSources().forEach( source -> release( source, completed ) );
+    }
+
+    public void imported( EncodedDataValues dataValueSet, Consumer<Dimensions> completed )
+    {
+        dataValueSet.getSources().forEach( source -> release( source, completed ) );
+    }
+
+    public void clear()
+    {
+        outstanding.clear();
+    }
+
+    private void release( Dimensions dimensions, Consumer<Dimensions> completed )
+    {
+        Integer remaining = outstanding.get( dimensions );
+        if ( remaining == null )
+        {
+            return;
+        }
+
+        if ( remaining == 1 )
+        {
+            outstanding.remove( dimensions );
+            completed.accept( dimensions );
+        }
+        else
+        {
+            outstanding.put( dimensions, remaining - 1 );
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the periods whose data values changed since aggregate analytics
+ * tables were last generated in a file, so that a run which imported changes
+ * but failed to generate the tables leaves them to the next run instead of
+ * losing track of them. The periods are only forgotten once a generation
+ * covering them succeeds. A run whose changes cannot be pinned down to
+ * periods, such as a resumed run, marks every period of <code>periods</code>
+ * as pending.
+ */
+@Component
+public class PendingAggregateAnalytics
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( PendingAggregateAnalytics.class );
+
+    private static final String ALL_PERIODS = "*";
+
+    @Value( "${run.aggregate.analytics.pending.path:t2a-pending-aggregate-analytics.txt}" )
+    private String pendingPath;
+
+    /**
+     * Adds the given periods to those pending aggregate analytics table
+     * generation.
+     */
+    public synchronized void add( Collection<String> periods )
+        throws IOException
+    {
+        if ( periods.isEmpty() )
+        {
+            return;
+        }
+
+        Set<String> pendingPeriods = load();
+        if ( pendingPeriods.addAll( periods ) )
+        {
+            save( pendingPeriods );
+        }
+    }
+
+    /**
+     * Marks every period as pending aggregate analytics table generation.
+     */
+    public synchronized void addAll()
+        throws IOException
+    {
+        save( Set.of( ALL_PERIODS ) );
+    }
+
+    public synchronized boolean isPending()
+        throws IOException
+    {
+        return !load().isEmpty();
+    }
+
+    /**
+     * @return the periods pending aggregate analytics table generation, or
+     *         <code>null</code> when every period is pending
+     */
+    public synchronized List<String> getPeriods()
+        throws IOException
+    {
+        Set<String> pendingPeriods = load();
+
+        return pendingPeriods.contains( ALL_PERIODS ) ? null : List.copyOf( pendingPeriods );
+    }
+
+    /**
+     * Forgets the pending periods once aggregate analytics tables covering
+     * them were generated.
+     */
+    public synchronized void clear()
+        throws IOException
+    {
+        if ( Files.deleteIfExists( Paths.get( pendingPath ) ) )
+        {
+            LOGGER.info( "Cleared the periods pending aggregate analytics table generation in '{}'", pendingPath );
+        }
+    }
+
+    private Set<String> load()
+        throws IOException
+    {
+        Path path = Paths.get( pendingPath );
+        Set<String> pendingPeriods = new TreeSet<>();
+        if ( Files.exists( path ) )
+        {
+            for ( String line : Files.readAllLines( path, StandardCharsets.UTF_8 ) )
+            {
+                if ( !line.isBlank() )
+                {
+                    pendingPeriods.add( line.trim() );
+                }
+            }
+        }
+
+        return pendingPeriods;
+    }
+
+    private void save( Set<String> pendingPeriods )
+        throws IOException
+    {
+        Path path = Paths.get( pendingPath ).toAbsolutePath();
+        Path tempPath = path.resolveSibling( path.getFileName() + ".tmp" );
+        Files.write( tempPath, pendingPeriods.contains( ALL_PERIODS ) ? List.of( ALL_PERIODS ) : pendingPeriods,
+            StandardCharsets.UTF_8 );
+        Files.move( tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    public String getPendingPath()
+    {
+        return pendingPath;
+    }
+
+    public void setPendingPath( String pendingPath )
+    {
+        this.pendingPath = pendingPath;
+    }
+}
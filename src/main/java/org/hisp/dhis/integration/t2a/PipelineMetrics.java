@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hisp.dhis.integration.t2a.concurrent.AdaptiveConcurrencyLimiter;
+import org.hisp.dhis.integration.t2a.concurrent.PermitLimitedExecutorService;
+import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import okhttp3.ConnectionPool;
+
+/**
+ * Micrometer meters for each stage of a run, scraped in the Prometheus text
+ * format from <code>metrics.endpoint.uri</code>. Analytics queries and data
+ * value set imports are tagged with their program indicator and period so
+ * that slow ones stand out. A query or import spanning several program
+ * indicators or periods is tagged <code>multiple</code> instead, which keeps
+ * the no. of time series bounded; the program indicator and org unit batch
+ * sizes decide how many queries can be told apart. Imports are re-batched
+ * across program indicators and periods so most of them are tagged
+ * <code>multiple</code>, which is why the rows and data values read from an
+ * analytics grid are counted per program indicator of the grid.
+ */
+@Component
+public class PipelineMetrics
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String PROGRAM_INDICATOR_TAG = "programIndicator";
+
+    private static final String PERIOD_TAG = "period";
+
+    private static final String MULTIPLE_TAG_VALUE = "multiple";
+
+    // bounds the histogram buckets to the latencies of an HTTP request to DHIS2
+    private static final Duration MIN_EXPECTED_LATENCY = Duration.ofMillis( 10 );
+
+    private static final Duration MAX_EXPECTED_LATENCY = Duration.ofMinutes( 10 );
+
+    private final PrometheusMeterRegistry registry = new PrometheusMeterRegistry( PrometheusConfig.DEFAULT );
+
+    private final Map<String, AtomicReference<Double>> analyticsTableProgress = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicReference<Double>> runCompression = new ConcurrentHashMap<>();
+
+    public PrometheusMeterRegistry getRegistry()
+    {
+        return registry;
+    }
+
+    public String scrape()
+    {
+        return registry.scrape();
+    }
+
+    public void monitor( ExecutorService programIndicatorPool )
+    {
+        if ( programIndicatorPool instanceof ThreadPoolExecutor )
+        {
+            ThreadPoolExecutor threadPoolExecutor = (ThreadPoolExecutor) programIndicatorPool;
+            Gauge.builder( "t2a.program.indicator.pool.queue.depth", threadPoolExecutor, e -> e.getQueue().size() )
+                .register( registry );
+            Gauge.builder( "t2a.program.indicator.pool.active.threads", threadPoolExecutor,
+                ThreadPoolExecutor::getActiveCount ).register( registry );
+        }
+        else if ( programIndicatorPool instanceof PermitLimitedExecutorService )
+        {
+            PermitLimitedExecutorService permitLimitedExecutorService =
+                (PermitLimitedExecutorService) programIndicatorPool;
+            Gauge.builder( "t2a.program.indicator.pool.queue.depth", permitLimitedExecutorService,
+                PermitLimitedExecutorService::getQueueLength ).register( registry );
+            Gauge.builder( "t2a.program.indicator.pool.active.threads", permitLimitedExecutorService,
+                PermitLimitedExecutorService::getActiveCount ).register( registry );
+        }
+    }
+
+    public void monitor( ConnectionPool connectionPool )
+    {
+        Gauge.builder( "t2a.http.pool.connections", connectionPool, ConnectionPool::connectionCount )
+            .register( registry );
+        Gauge.builder( "t2a.http.pool.idle.connections", connectionPool, ConnectionPool::idleConnectionCount )
+            .register( registry );
+    }
+
+    public void monitor( AdaptiveConcurrencyLimiter analyticsConcurrencyLimiter )
+    {
+        Gauge.builder( "t2a.analytics.concurrency.limit", analyticsConcurrencyLimiter,
+            AdaptiveConcurrencyLimiter::getLimit ).register( registry );
+        Gauge.builder( "t2a.analytics.concurrency.in.flight", analyticsConcurrencyLimiter,
+            AdaptiveConcurrencyLimiter::getInFlight ).register( registry );
+    }
+
+    public void recordAnalytics( Dimensions dimensions, long latency, boolean success )
+    {
+        Timer.builder( "t2a.analytics.requests" ).description( "Analytics GET latency" )
+            .tags( tags( dimensions ) ).tag( "outcome", success ? "success" : "failure" )
+            .publishPercentileHistogram().minimumExpectedValue( MIN_EXPECTED_LATENCY )
+            .maximumExpectedValue( MAX_EXPECTED_LATENCY ).register( registry )
+            .record( latency, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Counts, for each program indicator of the given dimensions, the rows of
+     * the analytics grid holding a value for it and the data values pushed
+     * for it.
+     */
+    public void recordAnalyticsResult( Dimensions dimensions, int[] rowCounts, int[] dataValueCounts )
+    {
+        String period = tagValue( new TreeSet<>( Arrays.asList( dimensions.getPeriods().split( ";" ) ) ) );
+        List<ProgramIndicatorMapping> mappings = dimensions.getProgramIndicatorMappings();
+        for ( int i = 0; i < mappings.size(); i++ )
+        {
+            Tags tags = Tags.of( PROGRAM_INDICATOR_TAG, mappings.get( i ).getProgramIndicatorId(), PERIOD_TAG,
+                period );
+            Counter.builder( "t2a.analytics.rows" ).tags( tags ).register( registry ).increment( rowCounts[i] );
+            Counter.builder( "t2a.data.values" ).tags( tags ).register( registry ).increment( dataValueCounts[i] );
+        }
+    }
+
+    public void recordImport( EncodedDataValues dataValues, long latency, String importSummary )
+    {
+        Tags tags = tags( dataValues.getSources() );
+        Timer.builder( "t2a.data.value.set.imports" ).description( "Data value set POST latency" ).tags( tags )
+            .tag( "outcome", importSummary == null ? "failure" : "success" ).publishPercentileHistogram()
+            .minimumExpectedValue( MIN_EXPECTED_LATENCY ).maximumExpectedValue( MAX_EXPECTED_LATENCY )
+            .register( registry ).record( latency, TimeUnit.MILLISECONDS );
+        Counter.builder( "t2a.data.value.set.bytes" ).baseUnit( "bytes" ).tags( tags ).register( registry )
+            .increment( dataValues.length() );
+        if ( importSummary != null )
+        {
+            Counter.builder( "t2a.import.conflicts" ).tags( tags ).register( registry )
+                .increment( countConflicts( importSummary ) );
+        }
+    }
+
+    public void recordAnalyticsTableGeneration( String tables, long latency )
+    {
+        Timer.builder( "t2a.analytics.table.generation" ).tag( "tables", tables ).publishPercentileHistogram()
+            .register( registry ).record( latency, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Publishes the estimated progress, between 0 and 1, of the analytics
+     * table generation task for the given tables. <code>NaN</code> means
+     * that the progress is unknown.
+     */
+    public void setAnalyticsTableProgress( String tables, double progress )
+    {
+        analyticsTableProgress.computeIfAbsent( tables, key -> {
+            AtomicReference<Double> value = new AtomicReference<>( Double.NaN );
+            Gauge.builder( "t2a.analytics.table.progress", value, AtomicReference::get ).tag( "tables", key )
+                .register( registry );
+            return value;
+        } ).set( progress );
+    }
+
+    /**
+     * Counts the bytes of an analytics response received or of a data value
+     * set request sent, both on the wire and decompressed.
+     */
+    public void recordTransfer( String direction, long wireBytes, long bytes )
+    {
+        Counter.builder( "t2a.http.wire.bytes" ).baseUnit( "bytes" ).tag( "direction", direction )
+            .register( registry ).increment( wireBytes );
+        Counter.builder( "t2a.http.content.bytes" ).baseUnit( "bytes" ).tag( "direction", direction )
+            .register( registry ).increment( bytes );
+    }
+
+    /**
+     * Publishes the compression ratio and the bytes saved by compressing the
+     * transfers of the last run.
+     */
+    public void setRunCompression( CompressionTotals compressionTotals )
+    {
+        for ( String direction : List.of( CompressionTotals.RECEIVED, CompressionTotals.SENT ) )
+        {
+            runCompression.computeIfAbsent( "ratio;" + direction, key -> newGauge( "t2a.run.compression.ratio",
+                direction ) ).set( compressionTotals.getRatio( direction ) );
+            runCompression.computeIfAbsent( "saved;" + direction, key -> newGauge( "t2a.run.bytes.saved",
+                direction ) ).set( (double) compressionTotals.getBytesSaved( direction ) );
+        }
+    }
+
+    private AtomicReference<Double> newGauge( String name, String direction )
+    {
+        AtomicReference<Double> value = new AtomicReference<>( Double.NaN );
+        Gauge.builder( name, value, AtomicReference::get ).tag( "direction", direction ).register( registry );
+
+        return value;
+    }
+
+    public void recordMetadataFetch( String resource, long latency )
+    {
+        Timer.builder( "t2a.metadata.fetches" ).tag( "resource", resource ).publishPercentileHistogram()
+            .register( registry ).record( latency, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Counts the conflicts in an import summary, whether or not DHIS2 wraps
+     * it in a web message.
+     */
+    static int countConflicts( String importSummary )
+    {
+        try
+        {
+            JsonNode root = OBJECT_MAPPER.readTree( importSummary );
+            JsonNode summary = root.has( "response" ) ? root.get( "response" ) : root;
+
+            return summary.path( "conflicts" ).size();
+        }
+        catch ( IOException e )
+        {
+            return 0;
+        }
+    }
+
+    private static Tags tags( Dimensions dimensions )
+    {
+        return tags( Set.of( dimensions ) );
+    }
+
+    private static Tags tags( Set<Dimensions> sources )
+    {
+        Set<String> programIndicatorIds = new TreeSet<>();
+        Set<String> periods = new TreeSet<>();
+        for ( Dimensions source : sources )
+        {
+            source.getProgramIndicatorMappings().stream().map( ProgramIndicatorMapping::getProgramIndicatorId )
+                .forEach( programIndicatorIds::add );
+            periods.addAll( Arrays.asList( source.getPeriods().split( ";" ) ) );
+        }
+
+        return Tags.of( PROGRAM_INDICATOR_TAG, tagValue( programIndicatorIds ), PERIOD_TAG, tagValue( periods ) );
+    }
+
+    // a value per combination of IDs would make the no. of time series unbounded
+    private static String tagValue( Set<String> ids )
+    {
+        return ids.size() == 1 ? ids.iterator().next() : MULTIPLE_TAG_VALUE;
+    }
+}
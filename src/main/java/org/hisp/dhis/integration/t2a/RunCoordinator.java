@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import java.util.UUID;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Lets one run execute at a time. A trigger arriving while a run is in
+ * progress does not queue a run of its own: it attaches to the follow-up run,
+ * of which there is at most one, started once the current run finishes. The
+ * follow-up run is a full push if any of the triggers attached to it asked
+ * for one.
+ */
+@Component
+public class RunCoordinator
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( RunCoordinator.class );
+
+    private String currentRunId;
+
+    private String nextRunId;
+
+    private boolean nextRunFullPush;
+
+    /**
+     * Registers a trigger and returns the run it attached to. The run is to
+     * be started by the caller if it is new and nothing else is running.
+     */
+    public synchronized Run trigger( boolean fullPush )
+    {
+        if ( currentRunId == null )
+        {
+            currentRunId = newRunId();
+            LOGGER.info( "Starting run '{}'", currentRunId );
+            return new Run( currentRunId, fullPush, true );
+        }
+
+        if ( nextRunId == null )
+        {
+            nextRunId = newRunId();
+            nextRunFullPush = false;
+            LOGGER.info( "Run '{}' is in progress: queueing follow-up run '{}'", currentRunId, nextRunId );
+        }
+        else
+        {
+            LOGGER.info( "Run '{}' is in progress: attaching trigger to follow-up run '{}'", currentRunId,
+                nextRunId );
+        }
+        nextRunFullPush |= fullPush;
+
+        return new Run( nextRunId, nextRunFullPush, false );
+    }
+
+    /**
+     * Marks the given run as finished, whether or not it succeeded, and
+     * returns the follow-up run to start, if any. Runs which were not started
+     * through {@link #trigger(boolean)} are ignored.
+     */
+    public synchronized Run finish( String runId )
+    {
+        if ( runId == null || !runId.equals( currentRunId ) )
+        {
+            return null;
+        }
+
+        LOGGER.info( "Run '{}' finished", runId );
+        if ( nextRunId == null )
+        {
+            currentRunId = null;
+            return null;
+        }
+
+        currentRunId = nextRunId;
+        nextRunId = null;
+        LOGGER.info( "Starting follow-up run '{}'", currentRunId );
+
+        return new Run( currentRunId, nextRunFullPush, true );
+    }
+
+    public synchronized String getCurrentRunId()
+    {
+        return currentRunId;
+    }
+
+    private static String newRunId()
+    {
+        return UUID.randomUUID().toString();
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Run
+    {
+        private final String id;
+
+        private final boolean fullPush;
+
+        private final boolean start;
+    }
+}
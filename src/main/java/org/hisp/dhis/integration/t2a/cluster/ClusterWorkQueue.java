@@ -0,0 +1,961 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.cluster;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.camel.Exchange;
+import org.hisp.dhis.integration.t2a.ImportTotals;
+import org.hisp.dhis.integration.t2a.OutstandingDimensions;
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+import org.hisp.dhis.integration.t2a.route.T2ARouteBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Work queue shared by the nodes of a cluster through a directory, typically
+ * on a network file system, at <code>cluster.queue.path</code>. The
+ * coordinator node publishes the dimensions of a run as one file per work
+ * item, keeping no more than <code>cluster.publish.window</code> items pending
+ * so that the items are split as late as possible. Every node, the coordinator
+ * included, claims items by atomically moving them into the
+ * <code>claimed</code> directory under its node ID and holds a lease on them
+ * by writing a lease deadline into the claimed files. A claim whose deadline
+ * has passed by more than <code>cluster.clock.skew</code>, because its node
+ * failed, is moved back for another node to claim. An item is moved to
+ * <code>done</code> as soon as its data values are imported, so the
+ * coordinator finishes the run once no item is left pending or claimed by
+ * another node.
+ */
+@Component
+public class ClusterWorkQueue
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( ClusterWorkQueue.class );
+
+    public static final String CLUSTER_RUN_PROPERTY = "clusterRun";
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private static final String PENDING = "pending";
+
+    private static final String CLAIMED = "claimed";
+
+    private static final String DONE = "done";
+
+    private static final String REPORTS = "reports";
+
+    private static final String PUBLISHED_MARKER = "published";
+
+    private static final String CLOSED_MARKER = "closed";
+
+    private static final String CLAIM_SEPARATOR = "@";
+
+    private static final String LEASE_DEADLINE = "leaseDeadline";
+
+    @Value( "${cluster.mode:none}" )
+    private String mode;
+
+    @Value( "${cluster.queue.path:t2a-queue}" )
+    private String queuePath;
+
+    @Value( "${cluster.node.id:#{null}}" )
+    private String nodeId;
+
+    @Value( "${cluster.lease.duration:60000}" )
+    private long leaseDuration;
+
+    @Value( "${cluster.poll.interval:5000}" )
+    private long pollInterval;
+
+    @Value( "${cluster.clock.skew:5000}" )
+    private long clockSkew;
+
+    @Value( "${cluster.publish.window:100}" )
+    private int publishWindow;
+
+    @Value( "${delta.push:false}" )
+    private boolean deltaPush;
+
+    @Value( "${checkpoint.journal:false}" )
+    private boolean checkpointJournal;
+
+    private final Map<Path, Dimensions> claims = new ConcurrentHashMap<>();
+
+    private final OutstandingDimensions outstanding = new OutstandingDimensions();
+
+    // the run being published by the coordinator along with its dimensions left to publish
+    private Path publishingRunDir;
+
+    private Iterator<Dimensions> unpublished;
+
+    private int published;
+
+    private ScheduledExecutorService heartbeat;
+
+    @PostConstruct
+    public void startHeartbeat()
+    {
+        if ( !mode.equals( "none" ) && !mode.equals( "coordinator" ) && !mode.equals( "worker" ) )
+        {
+            throw new T2AException( "Bad configuration: cluster.mode must be 'none', 'coordinator' or 'worker'" );
+        }
+        if ( !isEnabled() )
+        {
+            return;
+        }
+        if ( deltaPush )
+        {
+            // fingerprints are local to a node while work items move between nodes
+            throw new T2AException( "Bad configuration: delta.push cannot be used together with cluster.mode" );
+        }
+        if ( isWorker() && checkpointJournal )
+        {
+            // a run is resumed from the journal of the coordinator which republishes whatever it did not import
+            throw new T2AException( "Bad configuration: checkpoint.journal cannot be enabled on a cluster worker" );
+        }
+        if ( leaseDuration < 3 || pollInterval < 1 )
+        {
+            throw new T2AException(
+                "Bad configuration: cluster.lease.duration and cluster.poll.interval must be greater than 0" );
+        }
+        if ( clockSkew < 0 )
+        {
+            throw new T2AException( "Bad configuration: cluster.clock.skew must not be negative" );
+        }
+        if ( publishWindow < 1 )
+        {
+            throw new T2AException( "Bad configuration: cluster.publish.window must be greater than 0" );
+        }
+        if ( nodeId == null )
+        {
+            nodeId = ManagementFactory.getRuntimeMXBean().getName();
+        }
+        nodeId = nodeId.replaceAll( "[^A-Za-z0-9._-]", "_" );
+
+        heartbeat = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "t2a-cluster-heartbeat" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        heartbeat.scheduleWithFixedDelay( this::renewLeases, leaseDuration / 3, leaseDuration / 3,
+            TimeUnit.MILLISECONDS );
+        if ( isCoordinator() )
+        {
+            // tops up the pending items while the coordinator is busy with its own
+            heartbeat.scheduleWithFixedDelay( this::publishPendingQuietly, pollInterval, pollInterval,
+                TimeUnit.MILLISECONDS );
+        }
+        LOGGER.info( "Joining cluster as {} '{}' with work queue '{}'", mode, nodeId,
+            Paths.get( queuePath ).toAbsolutePath() );
+    }
+
+    @PreDestroy
+    public void stopHeartbeat()
+    {
+        if ( heartbeat != null )
+        {
+            heartbeat.shutdownNow();
+            releaseClaims();
+        }
+    }
+
+    public boolean isEnabled()
+    {
+        return !mode.equals( "none" );
+    }
+
+    public boolean isCoordinator()
+    {
+        return mode.equals( "coordinator" );
+    }
+
+    public boolean isWorker()
+    {
+        return mode.equals( "worker" );
+    }
+
+    /**
+     * Starts publishing the dimensions of the run as work items for the
+     * cluster to claim, after dropping the runs left behind by earlier
+     * coordinator runs. The dimensions are pulled from the given iterator as
+     * the pending items are claimed. The run is identified by the ID of the
+     * exchange's run, if any.
+     */
+    public synchronized void publish( Exchange exchange, Iterator<Dimensions> dimensions )
+        throws IOException
+    {
+        String runId = exchange.getProperty( T2ARouteBuilder.RUN_ID_PROPERTY, UUID.randomUUID().toString(),
+            String.class );
+        Path queueDir = Files.createDirectories( Paths.get( queuePath ) );
+        try ( Stream<Path> runDirs = Files.list( queueDir ) )
+        {
+            for ( Path runDir : runDirs.filter( Files::isDirectory ).collect( Collectors.toList() ) )
+            {
+                LOGGER.info( "Dropping work queue of earlier run '{}'", runDir.getFileName() );
+                Files.writeString( runDir.resolve( CLOSED_MARKER ), nodeId );
+                delete( runDir );
+            }
+        }
+
+        Path runDir = queueDir.resolve( runId );
+        for ( String dir : List.of( PENDING, CLAIMED, DONE, REPORTS ) )
+        {
+            Files.createDirectories( runDir.resolve( dir ) );
+        }
+        publishingRunDir = runDir;
+        unpublished = dimensions;
+        published = 0;
+        publishPending();
+        exchange.setProperty( CLUSTER_RUN_PROPERTY, runId );
+    }
+
+    /**
+     * Publishes the next work items of the run being published until
+     * <code>cluster.publish.window</code> items are pending, and marks the run
+     * as published once every item is.
+     */
+    synchronized void publishPending()
+        throws IOException
+    {
+        if ( unpublished == null )
+        {
+            return;
+        }
+        if ( isClosed( publishingRunDir ) )
+        {
+            unpublished = null;
+            return;
+        }
+
+        long pending = countFiles( publishingRunDir.resolve( PENDING ) );
+        while ( pending < publishWindow && unpublished.hasNext() )
+        {
+            // written aside and moved in so that no node ever claims a half-written item
+            Path tempPath = publishingRunDir.resolve( String.format( "%08d.json.tmp", published ) );
+            Files.write( tempPath, OBJECT_MAPPER.writeValueAsBytes( toJson( unpublished.next() ) ) );
+            Files.move( tempPath,
+                publishingRunDir.resolve( PENDING ).resolve( String.format( "%08d.json", published ) ),
+                StandardCopyOption.ATOMIC_MOVE );
+            published++;
+            pending++;
+        }
+        if ( !unpublished.hasNext() )
+        {
+            Files.writeString( publishingRunDir.resolve( PUBLISHED_MARKER ), String.valueOf( published ) );
+            unpublished = null;
+
+            LOGGER.info( "Published {} work item/s for run '{}'", published, publishingRunDir.getFileName() );
+        }
+    }
+
+    private void publishPendingQuietly()
+    {
+        try
+        {
+            publishPending();
+        }
+        catch ( Exception e )
+        {
+            // the coordinator fails the run when it next tops up the pending items itself
+            LOGGER.warn( "Failed to publish work items", e );
+        }
+    }
+
+    /**
+     * Finds an open run which has work items pending.
+     */
+    public String findOpenRun()
+        throws IOException
+    {
+        Path queueDir = Paths.get( queuePath );
+        if ( !Files.isDirectory( queueDir ) )
+        {
+            return null;
+        }
+
+        try ( Stream<Path> runDirs = Files.list( queueDir ) )
+        {
+            for ( Path runDir : runDirs.filter( Files::isDirectory ).collect( Collectors.toList() ) )
+            {
+                if ( !isClosed( runDir ) && hasFiles( runDir.resolve( PENDING ) ) )
+                {
+                    return runDir.getFileName().toString();
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Claims the work items of the exchange's run one at a time. For the
+     * coordinator, the claiming publishes further items as it goes and
+     * carries on until every item is either done or claimed by the
+     * coordinator itself, taking over the items of failed nodes as they come
+     * back. For a worker, it stops as soon as no item is
+     * pending.
+     */
+    public Iterator<Dimensions> claim( Exchange exchange )
+    {
+        return new ClaimIterator( Paths.get( queuePath ).resolve( exchange.getProperty( CLUSTER_RUN_PROPERTY,
+            String.class ) ), isCoordinator() );
+    }
+
+    /**
+     * Starts tracking the imports of a claimed item once its data values are
+     * transformed.
+     */
+    public void register( Dimensions dimensions, boolean hasDataValues )
+    {
+        if ( !isEnabled() )
+        {
+            return;
+        }
+
+        synchronized ( outstanding )
+        {
+            outstanding.register( dimensions, hasDataValues, this::completeItem );
+        }
+    }
+
+    public void submitted( EncodedDataValues dataValueSet )
+    {
+        if ( !isEnabled() )
+        {
+            return;
+        }
+
+        synchronized ( outstanding )
+        {
+            outstanding.submitted( dataValueSet, this::completeItem );
+        }
+    }
+
+    /**
+     * Marks the claimed items whose data values are now all imported as done.
+     */
+    public void imported( EncodedDataValues dataValueSet )
+    {
+        if ( !isEnabled() )
+        {
+            return;
+        }
+
+        synchronized ( outstanding )
+        {
+            outstanding.imported( dataValueSet, this::completeItem );
+        }
+    }
+
+    /**
+     * Marks the items still claimed by this node as done. To be called only
+     * once their data values are imported.
+     */
+    public void completeClaims()
+    {
+        List.copyOf( claims.keySet() ).forEach( this::complete );
+        synchronized ( outstanding )
+        {
+            outstanding.clear();
+        }
+    }
+
+    /**
+     * Hands the items claimed by this node back to the cluster, for instance
+     * after failing to process them.
+     */
+    public void releaseClaims()
+    {
+        for ( Path claim : List.copyOf( claims.keySet() ) )
+        {
+            requeue( claim );
+            claims.remove( claim );
+        }
+        synchronized ( outstanding )
+        {
+            outstanding.clear();
+        }
+    }
+
+    /**
+     * Leaves the import totals of this node's share of the run for the
+     * coordinator to sum up.
+     */
+    public void report( Exchange exchange, ImportTotals importTotals )
+        throws IOException
+    {
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put( "node", nodeId );
+        report.put( "imports", importTotals.getImports() );
+        report.put( "imported", importTotals.getImported() );
+        report.put( "updated", importTotals.getUpdated() );
+        report.put( "deleted", importTotals.getDeleted() );
+        report.put( "ignored", importTotals.getIgnored() );
+        report.put( "conflicts", importTotals.getConflicts() );
+        report.put( "changedPeriods", importTotals.getChangedPeriods() );
+
+        Path reportsDir = Paths.get( queuePath ).resolve( exchange.getProperty( CLUSTER_RUN_PROPERTY, String.class ) )
+            .resolve( REPORTS );
+        Path tempPath = reportsDir.resolveSibling( nodeId + "-" + UUID.randomUUID() + ".json.tmp" );
+        Files.write( tempPath, OBJECT_MAPPER.writeValueAsBytes( report ) );
+        Files.move( tempPath, reportsDir.resolve( tempPath.getFileName().toString().replace( ".tmp", "" ) ),
+            StandardCopyOption.ATOMIC_MOVE );
+    }
+
+    /**
+     * Finishes the run on the coordinator once the cluster is done with it:
+     * marks the coordinator's remaining items as done, adds the import totals
+     * reported by the workers, and closes the run.
+     */
+    public void finishRun( Exchange exchange, ImportTotals importTotals )
+        throws IOException
+    {
+        String runId = exchange.getProperty( CLUSTER_RUN_PROPERTY, String.class );
+        completeClaims();
+
+        Path runDir = Paths.get( queuePath ).resolve( runId );
+        try ( DirectoryStream<Path> reports = Files.newDirectoryStream( runDir.resolve( REPORTS ), "*.json" ) )
+        {
+            for ( Path report : reports )
+            {
+                JsonNode node = OBJECT_MAPPER.readTree( report.toFile() );
+                List<String> changedPeriods = new ArrayList<>();
+                node.path( "changedPeriods" ).forEach( period -> changedPeriods.add( period.asText() ) );
+                importTotals.merge( node.path( "imports" ).asInt(), node.path( "imported" ).asLong(),
+                    node.path( "updated" ).asLong(), node.path( "deleted" ).asLong(),
+                    node.path( "ignored" ).asLong(), node.path( "conflicts" ).asLong(), changedPeriods );
+            }
+        }
+        close( runId );
+
+        LOGGER.info( "Cluster finished run '{}'", runId );
+    }
+
+    /**
+     * Closes the run so that the workers stop claiming its items. Closing a
+     * closed or unknown run does nothing.
+     */
+    public void close( String runId )
+    {
+        if ( runId == null )
+        {
+            return;
+        }
+
+        Path runDir = Paths.get( queuePath ).resolve( runId );
+        try
+        {
+            if ( Files.isDirectory( runDir ) && !isClosed( runDir ) )
+            {
+                Files.writeString( runDir.resolve( CLOSED_MARKER ), nodeId );
+            }
+        }
+        catch ( IOException e )
+        {
+            LOGGER.warn( "Failed to close run '{}' in the work queue", runId, e );
+        }
+        claims.keySet().removeIf( claim -> claim.startsWith( runDir ) );
+        synchronized ( this )
+        {
+            if ( runDir.equals( publishingRunDir ) )
+            {
+                unpublished = null;
+            }
+        }
+    }
+
+    private void completeItem( Dimensions dimensions )
+    {
+        claims.entrySet().stream().filter( claim -> claim.getValue().equals( dimensions ) ).map( Map.Entry::getKey )
+            .findFirst().ifPresent( this::complete );
+    }
+
+    private void complete( Path claim )
+    {
+        try
+        {
+            Files.move( claim, claim.getParent().resolveSibling( DONE ).resolve( getItemName( claim ) ),
+                StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( NoSuchFileException e )
+        {
+            LOGGER.warn( "Lost the lease on work item '{}' which is processed again by another node", claim );
+        }
+        catch ( IOException e )
+        {
+            throw new UncheckedIOException( e );
+        }
+        claims.remove( claim );
+    }
+
+    private void renewLeases()
+    {
+        for ( Map.Entry<Path, Dimensions> claim : claims.entrySet() )
+        {
+            try
+            {
+                writeLease( claim.getKey(), claim.getValue() );
+            }
+            catch ( NoSuchFileException e )
+            {
+                LOGGER.warn( "Lost the lease on work item '{}' which is processed again by another node",
+                    claim.getKey() );
+                claims.remove( claim.getKey() );
+            }
+            catch ( IOException e )
+            {
+                LOGGER.warn( "Failed to renew the lease on work item '{}'", claim.getKey(), e );
+            }
+        }
+    }
+
+    /**
+     * Rewrites the claimed item with a lease deadline by the clock of this
+     * node. The file is written in place, never created, so that a claim
+     * taken over by another node in the meantime is not brought back.
+     */
+    private void writeLease( Path claim, Dimensions dimensions )
+        throws IOException
+    {
+        Map<String, Object> json = toJson( dimensions );
+        json.put( LEASE_DEADLINE, System.currentTimeMillis() + leaseDuration );
+        Files.write( claim, OBJECT_MAPPER.writeValueAsBytes( json ), StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING );
+    }
+
+    /**
+     * @return the lease deadline of the claim, or <code>null</code> when the
+     *         claim has none yet or is being rewritten
+     */
+    private static Long readLeaseDeadline( Path claim )
+        throws NoSuchFileException
+    {
+        try
+        {
+            JsonNode deadline = OBJECT_MAPPER.readTree( Files.readAllBytes( claim ) ).path( LEASE_DEADLINE );
+            return deadline.isNumber() ? deadline.asLong() : null;
+        }
+        catch ( NoSuchFileException e )
+        {
+            throw e;
+        }
+        catch ( IOException e )
+        {
+            return null;
+        }
+    }
+
+    private void requeue( Path claim )
+    {
+        try
+        {
+            Files.move( claim, claim.getParent().resolveSibling( PENDING ).resolve( getItemName( claim ) ),
+                StandardCopyOption.ATOMIC_MOVE );
+        }
+        catch ( NoSuchFileException | FileAlreadyExistsException e )
+        {
+            // another node got there first
+        }
+        catch ( IOException e )
+        {
+            LOGGER.warn( "Failed to requeue work item '{}'", claim, e );
+        }
+    }
+
+    static String getItemName( Path claim )
+    {
+        String fileName = claim.getFileName().toString();
+        int separator = fileName.indexOf( CLAIM_SEPARATOR );
+
+        return separator == -1 ? fileName : fileName.substring( 0, separator );
+    }
+
+    static Map<String, Object> toJson( Dimensions dimensions )
+    {
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put( "periods", dimensions.getPeriods() );
+        json.put( "organisationUnitIds", dimensions.getOrganisationUnitIds() );
+        json.put( "programIndicatorMappings", dimensions.getProgramIndicatorMappings().stream().map( mapping -> {
+            Map<String, Object> mappingJson = new LinkedHashMap<>();
+            mappingJson.put( "programIndicatorId", mapping.getProgramIndicatorId() );
+            mappingJson.put( "dataElement", mapping.getDataElement() );
+            mappingJson.put( "categoryOptionCombo", mapping.getCategoryOptionCombo() );
+            mappingJson.put( "attributeOptionCombo", mapping.getAttributeOptionCombo() );
+            return mappingJson;
+        } ).collect( Collectors.toList() ) );
+
+        return json;
+    }
+
+    static Dimensions fromJson( JsonNode json )
+    {
+        List<ProgramIndicatorMapping> mappings = new ArrayList<>();
+        for ( JsonNode mapping : json.path( "programIndicatorMappings" ) )
+        {
+            mappings.add( new ProgramIndicatorMapping( mapping.path( "programIndicatorId" ).textValue(),
+                mapping.path( "dataElement" ).textValue(), mapping.path( "categoryOptionCombo" ).textValue(),
+                mapping.path( "attributeOptionCombo" ).textValue() ) );
+        }
+
+        return new Dimensions( json.path( "periods" ).textValue(), json.path( "organisationUnitIds" ).textValue(),
+            mappings );
+    }
+
+    private static boolean isClosed( Path runDir )
+    {
+        return Files.exists( runDir.resolve( CLOSED_MARKER ) );
+    }
+
+    private static boolean hasFiles( Path dir )
+        throws IOException
+    {
+        if ( !Files.isDirectory( dir ) )
+        {
+            return false;
+        }
+
+        try ( Stream<Path> files = Files.list( dir ) )
+        {
+            return files.findAny().isPresent();
+        }
+    }
+
+    private static long countFiles( Path dir )
+        throws IOException
+    {
+        try ( Stream<Path> files = Files.list( dir ) )
+        {
+            return files.count();
+        }
+    }
+
+    private static void delete( Path dir )
+        throws IOException
+    {
+        try ( Stream<Path> paths = Files.walk( dir ) )
+        {
+            for ( Path path : paths.sorted( Comparator.reverseOrder() ).collect( Collectors.toList() ) )
+            {
+                Files.deleteIfExists( path );
+            }
+        }
+    }
+
+    private class ClaimIterator implements Iterator<Dimensions>
+    {
+        private final Path runDir;
+
+        private final boolean awaitOthers;
+
+        private final Deque<Path> candidates = new ArrayDeque<>();
+
+        // when this node first saw the claims of other nodes which had no lease deadline to read
+        private final Map<Path, Long> claimsWithoutDeadline = new HashMap<>();
+
+        private Dimensions nextDimensions;
+
+        ClaimIterator( Path runDir, boolean awaitOthers )
+        {
+            this.runDir = runDir;
+            this.awaitOthers = awaitOthers;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            try
+            {
+                while ( nextDimensions == null )
+                {
+                    nextDimensions = claimNext();
+                    if ( nextDimensions == null )
+                    {
+                        if ( !awaitOthers || isClosed( runDir ) || isEveryItemTaken() )
+                        {
+                            return false;
+                        }
+                        Thread.sleep( pollInterval );
+                    }
+                }
+
+                return true;
+            }
+            catch ( IOException e )
+            {
+                throw new UncheckedIOException( e );
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+                throw new T2AException( "Interrupted while waiting for work items", e );
+            }
+        }
+
+        @Override
+        public Dimensions next()
+        {
+            if ( !hasNext() )
+            {
+                throw new NoSuchElementException();
+            }
+
+            Dimensions dimensions = nextDimensions;
+            nextDimensions = null;
+
+            return dimensions;
+        }
+
+        private Dimensions claimNext()
+            throws IOException
+        {
+            if ( isClosed( runDir ) )
+            {
+                return null;
+            }
+            if ( candidates.isEmpty() )
+            {
+                if ( awaitOthers )
+                {
+                    publishPending();
+                }
+                requeueExpiredClaims();
+                try ( Stream<Path> pending = Files.list( runDir.resolve( PENDING ) ) )
+                {
+                    pending.sorted().forEach( candidates::add );
+                }
+            }
+
+            while ( !candidates.isEmpty() )
+            {
+                Path candidate = candidates.poll();
+                Path claim = runDir.resolve( CLAIMED ).resolve( candidate.getFileName() + CLAIM_SEPARATOR + nodeId );
+                try
+                {
+                    Files.move( candidate, claim, StandardCopyOption.ATOMIC_MOVE );
+                }
+                catch ( NoSuchFileException e )
+                {
+                    // claimed by another node in the meantime
+                    continue;
+                }
+                Dimensions dimensions = fromJson( OBJECT_MAPPER.readTree( claim.toFile() ) );
+                writeLease( claim, dimensions );
+                claims.put( claim, dimensions );
+
+                return dimensions;
+            }
+
+            return null;
+        }
+
+        /**
+         * Whether every item is published and either done or claimed by this
+         * node. Listing <code>pending</code> and <code>claimed</code> one
+         * after the other can miss an item released by another node in
+         * between, whereas an item never leaves <code>done</code>, so
+         * counting against the published total cannot.
+         */
+        private boolean isEveryItemTaken()
+            throws IOException
+        {
+            Path publishedMarker = runDir.resolve( PUBLISHED_MARKER );
+            if ( !Files.exists( publishedMarker ) )
+            {
+                return false;
+            }
+
+            long published = Long.parseLong( Files.readString( publishedMarker ).trim() );
+            long taken;
+            try ( Stream<Path> done = Files.list( runDir.resolve( DONE ) ) )
+            {
+                taken = done.count();
+            }
+            try ( Stream<Path> claimed = Files.list( runDir.resolve( CLAIMED ) ) )
+            {
+                taken += claimed.filter( claims::containsKey ).count();
+            }
+
+            return taken >= published;
+        }
+
+        /**
+         * Requeues the claims of other nodes whose lease deadline, by the
+         * clock of the claiming node, has passed by more than the allowed
+         * clock skew. A claim without a readable deadline, such as one whose
+         * node failed right after claiming it, expires after the lease
+         * duration counted from when this node first saw it.
+         */
+        private void requeueExpiredClaims()
+            throws IOException
+        {
+            long now = System.currentTimeMillis();
+            List<Path> otherClaims;
+            try ( Stream<Path> claimed = Files.list( runDir.resolve( CLAIMED ) ) )
+            {
+                otherClaims = claimed.filter( claim -> !claims.containsKey( claim ) ).collect( Collectors.toList() );
+            }
+            claimsWithoutDeadline.keySet().retainAll( otherClaims );
+
+            for ( Path claim : otherClaims )
+            {
+                try
+                {
+                    Long leaseDeadline = readLeaseDeadline( claim );
+                    boolean expired;
+                    if ( leaseDeadline == null )
+                    {
+                        expired = claimsWithoutDeadline.computeIfAbsent( claim, c -> now ) + leaseDuration < now;
+                    }
+                    else
+                    {
+                        claimsWithoutDeadline.remove( claim );
+                        expired = leaseDeadline + clockSkew < now;
+                    }
+                    if ( expired )
+                    {
+                        LOGGER.warn( "Requeueing work item '{}' whose lease expired", claim.getFileName() );
+                        requeue( claim );
+                        claimsWithoutDeadline.remove( claim );
+                    }
+                }
+                catch ( NoSuchFileException e )
+                {
+                    // completed or requeued in the meantime
+                }
+            }
+        }
+    }
+
+    public String getMode()
+    {
+        return mode;
+    }
+
+    public void setMode( String mode )
+    {
+        this.mode = mode;
+    }
+
+    public String getQueuePath()
+    {
+        return queuePath;
+    }
+
+    public void setQueuePath( String queuePath )
+    {
+        this.queuePath = queuePath;
+    }
+
+    public String getNodeId()
+    {
+        return nodeId;
+    }
+
+    public void setNodeId( String nodeId )
+    {
+        this.nodeId = nodeId;
+    }
+
+    public long getLeaseDuration()
+    {
+        return leaseDuration;
+    }
+
+    public void setLeaseDuration( long leaseDuration )
+    {
+        this.leaseDuration = leaseDuration;
+    }
+
+    public long getPollInterval()
+    {
+        return pollInterval;
+    }
+
+    public void setPollInterval( long pollInterval )
+    {
+        this.pollInterval = pollInterval;
+    }
+
+    public long getClockSkew()
+    {
+        return clockSkew;
+    }
+
+    public void setClockSkew( long clockSkew )
+    {
+        this.clockSkew = clockSkew;
+    }
+
+    public int getPublishWindow()
+    {
+        return publishWindow;
+    }
+
+    public void setPublishWindow( int publishWindow )
+    {
+        this.publishWindow = publishWindow;
+    }
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.concurrent;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits the no. of analytics queries in flight with an AIMD (additive
+ * increase, multiplicative decrease) algorithm, starting from
+ * <code>analytics.concurrency.initial</code>. The limit grows by one for
+ * every window of successful queries answered within
+ * <code>latencyTolerance</code> times the baseline latency. Latencies are
+ * compared per organisation unit of the query so that a query over a larger
+ * organisation unit batch is not taken for a latency spike. It is cut by 20%
+ * when latency spikes beyond that and halved when a query fails, be it from a
+ * server error or a timeout, so that an overloaded DHIS2 database is relieved
+ * quickly. The current limit is logged whenever it changes and published as
+ * a JMX MBean.
+ */
+@Component
+public class AdaptiveConcurrencyLimiter implements AdaptiveConcurrencyLimiterMBean
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( AdaptiveConcurrencyLimiter.class );
+
+    private static final String OBJECT_NAME = "org.hisp.dhis.integration.t2a:type=AdaptiveConcurrencyLimiter,name=analytics";
+
+    private static final double LATENCY_SPIKE_BACKOFF = 0.8;
+
+    private static final double FAILURE_BACKOFF = 0.5;
+
+    // how fast the baseline follows latencies above it, so that a one-off fast query does not pin it
+    private static final double BASELINE_DRIFT = 0.01;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition belowLimit = lock.newCondition();
+
+    @Value( "${analytics.concurrency.adaptive:false}" )
+    private boolean enabled;
+
+    @Value( "${analytics.concurrency.min:1}" )
+    private int minLimit = 1;
+
+    @Value( "${analytics.concurrency.max:20}" )
+    private int maxLimit = 20;
+
+    @Value( "${analytics.concurrency.initial:#{null}}" )
+    private Integer initialLimit;
+
+    @Value( "${analytics.concurrency.latency.tolerance:2.0}" )
+    private double latencyTolerance = 2.0;
+
+    @Value( "${job.name:#{null}}" )
+    private String jobName;
+
+    private double limit;
+
+    private int inFlight;
+
+    // in milliseconds per organisation unit
+    private double baselineLatency;
+
+    @PostConstruct
+    public void init()
+    {
+        if ( minLimit < 1 || maxLimit < minLimit )
+        {
+            throw new T2AException(
+                "Bad configuration: analytics.concurrency.min must be greater than 0 and not exceed analytics.concurrency.max" );
+        }
+
+        if ( initialLimit != null && (initialLimit < minLimit || initialLimit > maxLimit) )
+        {
+            throw new T2AException(
+                "Bad configuration: analytics.concurrency.initial must be between analytics.concurrency.min and analytics.concurrency.max" );
+        }
+
+        limit = initialLimit != null ? initialLimit : minLimit;
+        if ( enabled )
+        {
+            registerMBean();
+        }
+    }
+
+    @PreDestroy
+    public void destroy()
+    {
+        if ( enabled )
+        {
+            unregisterMBean();
+        }
+    }
+
+    public void acquire()
+        throws InterruptedException
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        lock.lockInterruptibly();
+        try
+        {
+            while ( inFlight >= (int) limit )
+            {
+                belowLimit.await();
+            }
+            inFlight++;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the slot of a query which was never sent, leaving the limit
+     * as it is.
+     */
+    public void cancel()
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        lock.lock();
+        try
+        {
+            inFlight--;
+            belowLimit.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the slot of a query which was sent, adapting the limit to
+     * how the query went.
+     *
+     * @param latency the time in milliseconds the query took
+     * @param orgUnitCount the no. of organisation units the query covered
+     * @param success whether the query succeeded
+     */
+    public void release( long latency, int orgUnitCount, boolean success )
+    {
+        if ( !enabled )
+        {
+            return;
+        }
+
+        lock.lock();
+        try
+        {
+            int inFlightBeforeRelease = inFlight--;
+            int previousLimit = (int) limit;
+
+            if ( !success )
+            {
+                limit = Math.max( minLimit, limit * FAILURE_BACKOFF );
+            }
+            else
+            {
+                double orgUnitLatency = (double) latency / Math.max( 1, orgUnitCount );
+                baselineLatency = baselineLatency == 0 || orgUnitLatency < baselineLatency ? orgUnitLatency
+                    : baselineLatency + ((orgUnitLatency - baselineLatency) * BASELINE_DRIFT);
+
+                if ( orgUnitLatency > baselineLatency * latencyTolerance )
+                {
+                    limit = Math.max( minLimit, limit * LATENCY_SPIKE_BACKOFF );
+                }
+                else if ( inFlightBeforeRelease >= previousLimit )
+                {
+                    // only grow when the limit is what is holding queries back
+                    limit = Math.min( maxLimit, limit + (1 / limit) );
+                }
+            }
+
+            if ( (int) limit != previousLimit )
+            {
+                LOGGER.info(
+                    "Changing analytics concurrency limit from {} to {} after {} analytics query over {} organisation unit/s took {} ms (baseline {} ms per organisation unit)",
+                    previousLimit, (int) limit, success ? "successful" : "failed", orgUnitCount, latency,
+                    String.format( "%.1f", baselineLatency ) );
+            }
+            belowLimit.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    private ObjectName getObjectName()
+        throws MalformedObjectNameException
+    {
+        // jobs hosted by the same process each have a limiter of their own
+        return new ObjectName( jobName == null ? OBJECT_NAME : OBJECT_NAME + ",job=" + ObjectName.quote( jobName ) );
+    }
+
+    private void registerMBean()
+    {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        try
+        {
+            ObjectName objectName = getObjectName();
+            if ( mBeanServer.isRegistered( objectName ) )
+            {
+                mBeanServer.unregisterMBean( objectName );
+            }
+            mBeanServer.registerMBean( this, objectName );
+        }
+        catch ( JMException e )
+        {
+            LOGGER.warn( "Failed to register analytics concurrency limiter MBean", e );
+        }
+    }
+
+    private void unregisterMBean()
+    {
+        try
+        {
+            ObjectName objectName = getObjectName();
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            if ( mBeanServer.isRegistered( objectName ) )
+            {
+                mBeanServer.unregisterMBean( objectName );
+            }
+        }
+        catch ( JMException e )
+        {
+            LOGGER.warn( "Failed to unregister analytics concurrency limiter MBean", e );
+        }
+    }
+
+    @Override
+    public int getLimit()
+    {
+        lock.lock();
+        try
+        {
+            return (int) limit;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int getInFlight()
+    {
+        lock.lock();
+        try
+        {
+            return inFlight;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public double getBaselineLatency()
+    {
+        lock.lock();
+        try
+        {
+            return baselineLatency;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    public void setEnabled( boolean enabled )
+    {
+        this.enabled = enabled;
+    }
+
+    public int getMinLimit()
+    {
+        return minLimit;
+    }
+
+    public void setMinLimit( int minLimit )
+    {
+        this.minLimit = minLimit;
+    }
+
+    public Integer getInitialLimit()
+    {
+        return initialLimit;
+    }
+
+    public void setInitialLimit( Integer initialLimit )
+    {
+        this.initialLimit = initialLimit;
+    }
+
+    public int getMaxLimit()
+    {
+        return maxLimit;
+    }
+
+    public void setMaxLimit( int maxLimit )
+    {
+        this.maxLimit = maxLimit;
+    }
+
+    public double getLatencyTolerance()
+    {
+        return latencyTolerance;
+    }
+
+    public void setLatencyTolerance( double latencyTolerance )
+    {
+        this.latencyTolerance = latencyTolerance;
+    }
+
+    public String getJobName()
+    {
+        return jobName;
+    }
+
+    public void setJobName( String jobName )
+    {
+        this.jobName = jobName;
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.concurrent;
+
+import java.util.concurrent.Semaphore;
+
+import org.hisp.dhis.integration.t2a.T2AException;
+
+/**
+ * Caps the number of analytics requests in flight across every job hosted by
+ * the process. Permits are handed out in arrival order so that a busy job
+ * cannot starve the others.
+ */
+public class ConcurrencyBudget
+{
+    private final Semaphore permits;
+
+    private final int maxPermits;
+
+    public ConcurrencyBudget( int maxPermits )
+    {
+        if ( maxPermits < 1 )
+        {
+            throw new T2AException( "Bad configuration: jobs.concurrency must be greater than 0" );
+        }
+
+        this.permits = new Semaphore( maxPermits, true );
+        this.maxPermits = maxPermits;
+    }
+
+    /**
+     * A budget for a process hosting a single job, which is bounded by its
+     * own thread pool alone.
+     */
+    public static ConcurrencyBudget unlimited()
+    {
+        return new ConcurrencyBudget( Integer.MAX_VALUE );
+    }
+
+    public void acquire()
+        throws InterruptedException
+    {
+        permits.acquire();
+    }
+
+    public void release()
+    {
+        permits.release();
+    }
+
+    public int getMaxPermits()
+    {
+        return maxPermits;
+    }
+
+    public int getAvailablePermits()
+    {
+        return permits.availablePermits();
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.concurrent;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.hisp.dhis.integration.t2a.T2AException;
+
+/**
+ * Caps the number of tasks running at once on an unbounded executor such as
+ * one that starts a virtual thread per task. Submitting a task blocks the
+ * caller until a permit is free, which throttles whoever is producing the
+ * tasks instead of queueing them without limit.
+ */
+public class PermitLimitedExecutorService extends AbstractExecutorService
+{
+    private final ExecutorService delegate;
+
+    private final Semaphore permits;
+
+    private final int maxPermits;
+
+    public PermitLimitedExecutorService( ExecutorService delegate, int maxPermits )
+    {
+        if ( maxPermits < 1 )
+        {
+            throw new T2AException( "Bad configuration: permit count must be greater than 0" );
+        }
+
+        this.delegate = delegate;
+        this.maxPermits = maxPermits;
+        this.permits = new Semaphore( maxPermits, true );
+    }
+
+    @Override
+    public void execute( Runnable command )
+    {
+        try
+        {
+            permits.acquire();
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException( e );
+        }
+
+        try
+        {
+            delegate.execute( () -> {
+                try
+                {
+                    command.run();
+                }
+                finally
+                {
+                    permits.release();
+                }
+            } );
+        }
+        catch ( RuntimeException e )
+        {
+            permits.release();
+            throw e;
+        }
+    }
+
+    public int getActiveCount()
+    {
+        return maxPermits - permits.availablePermits();
+    }
+
+    /**
+     * The number of callers waiting for a permit to submit a task.
+     */
+    public int getQueueLength()
+    {
+        return permits.getQueueLength();
+    }
+
+    public int getMaxPermits()
+    {
+        return maxPermits;
+    }
+
+    @Override
+    public void shutdown()
+    {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow()
+    {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown()
+    {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated()
+    {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination( long timeout, TimeUnit unit )
+        throws InterruptedException
+    {
+        return delegate.awaitTermination( timeout, unit );
+    }
+}
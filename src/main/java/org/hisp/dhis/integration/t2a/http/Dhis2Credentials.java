@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.http;
+
+import javax.annotation.PostConstruct;
+
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import okhttp3.Credentials;
+
+/**
+ * The DHIS2 address and authentication details shared by the DHIS2 SDK
+ * client and {@link Dhis2HttpClient}, checked once at startup: either a
+ * personal access token or a username and password must be configured, but
+ * not both.
+ */
+@Component
+public class Dhis2Credentials
+{
+    @Value( "${dhis2.api.url}" )
+    private String baseApiUrl;
+
+    @Value( "${dhis2.api.username:#{null}}" )
+    private String username;
+
+    @Value( "${dhis2.api.password:#{null}}" )
+    private String password;
+
+    @Value( "${dhis2.api.pat:#{null}}" )
+    private String pat;
+
+    @PostConstruct
+    public void validate()
+    {
+        if ( pat != null && (username != null || password != null) )
+        {
+            throw new T2AException(
+                "Bad configuration: PAT authentication and basic authentication are mutually exclusive" );
+        }
+        if ( pat == null && (username == null || password == null) )
+        {
+            throw new T2AException( "Bad configuration: missing authentication details" );
+        }
+    }
+
+    public boolean isPat()
+    {
+        return pat != null;
+    }
+
+    /**
+     * @return the value of the <code>Authorization</code> header of a request
+     *         to DHIS2
+     */
+    public String getAuthorization()
+    {
+        return pat != null ? "ApiToken " + pat : Credentials.basic( username, password );
+    }
+
+    public String getBaseApiUrl()
+    {
+        return baseApiUrl;
+    }
+
+    public void setBaseApiUrl( String baseApiUrl )
+    {
+        this.baseApiUrl = baseApiUrl;
+    }
+
+    public String getUsername()
+    {
+        return username;
+    }
+
+    public void setUsername( String username )
+    {
+        this.username = username;
+    }
+
+    public String getPassword()
+    {
+        return password;
+    }
+
+    public void setPassword( String password )
+    {
+        this.password = password;
+    }
+
+    public String getPat()
+    {
+        return pat;
+    }
+
+    public void setPat( String pat )
+    {
+        this.pat = pat;
+    }
+}
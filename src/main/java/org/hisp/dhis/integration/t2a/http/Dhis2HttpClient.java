@@ -0,0 +1,506 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.hisp.dhis.integration.t2a.CompressionTotals;
+import org.hisp.dhis.integration.t2a.PipelineMetrics;
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.EventListener;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+/**
+ * HTTP client for the DHIS2 calls made for every dimensions item, that is,
+ * the analytics queries and the data value set imports. Unlike the
+ * <code>dhis2</code> Camel component, it controls the compression of the
+ * transfers: analytics responses are gzip-encoded on request when
+ * <code>http.gzip.responses</code> is <code>true</code> and data value sets
+ * are sent gzip-encoded when <code>http.gzip.requests</code> is
+ * <code>true</code>. The bytes transferred are counted both on the wire and
+ * decompressed.
+ * <p>
+ * The client keeps a connection pool of its own, sized by default to the
+ * no. of analytics queries and imports that can be in flight at once, and
+ * warms it up at the start of each run so that the handshakes are out of
+ * the way of the hot path. Analytics queries (GET) and imports (POST) have
+ * separate read timeouts.
+ */
+@Component
+public class Dhis2HttpClient
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( Dhis2HttpClient.class );
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    // header carrying the query parameters of a request made with this client rather than the Camel DHIS2 component
+    public static final String QUERY_PARAMS_HEADER = "queryParams";
+
+    private static final MediaType JSON = MediaType.get( "application/json; charset=utf-8" );
+
+    @Value( "${http.gzip.responses:true}" )
+    private boolean gzipResponses;
+
+    @Value( "${http.gzip.requests:false}" )
+    private boolean gzipRequests;
+
+    @Value( "${http.pool.size:#{null}}" )
+    private Integer poolSize;
+
+    @Value( "${http.pool.keep.alive:300000}" )
+    private long keepAlive;
+
+    @Value( "${http.pool.warm.up:true}" )
+    private boolean warmUp;
+
+    @Value( "${http.connect.timeout:10000}" )
+    private long connectTimeout;
+
+    @Value( "${http.write.timeout:60000}" )
+    private long writeTimeout;
+
+    @Value( "${http.analytics.read.timeout:300000}" )
+    private long analyticsReadTimeout;
+
+    @Value( "${http.import.read.timeout:300000}" )
+    private long importReadTimeout;
+
+    @Value( "${http.http2:false}" )
+    private boolean http2;
+
+    @Value( "${thread.pool.size:1}" )
+    private int threadPoolSize;
+
+    @Value( "${thread.virtual:false}" )
+    private boolean virtualThreads;
+
+    @Value( "${thread.virtual.permits:100}" )
+    private int virtualThreadPermits;
+
+    @Value( "${import.concurrent.consumers:1}" )
+    private int importConcurrentConsumers;
+
+    @Autowired
+    private Dhis2Credentials dhis2Credentials;
+
+    @Autowired
+    private CompressionTotals compressionTotals;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final AtomicLong connectionsOpened = new AtomicLong();
+
+    private ConnectionPool connectionPool;
+
+    private OkHttpClient analyticsClient;
+
+    private OkHttpClient importClient;
+
+    @PostConstruct
+    public void createHttpClients()
+    {
+        if ( poolSize == null )
+        {
+            poolSize = (virtualThreads ? virtualThreadPermits : threadPoolSize) + importConcurrentConsumers;
+        }
+        if ( poolSize < 1 )
+        {
+            throw new T2AException( "Bad configuration: http.pool.size must be greater than 0" );
+        }
+
+        connectionPool = new ConnectionPool( poolSize, keepAlive, TimeUnit.MILLISECONDS );
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests( poolSize );
+        dispatcher.setMaxRequestsPerHost( poolSize );
+        OkHttpClient httpClient = new OkHttpClient.Builder().connectionPool( connectionPool )
+            .dispatcher( dispatcher )
+            .protocols( http2 ? List.of( Protocol.HTTP_2, Protocol.HTTP_1_1 ) : List.of( Protocol.HTTP_1_1 ) )
+            .connectTimeout( Duration.ofMillis( connectTimeout ) )
+            .writeTimeout( Duration.ofMillis( writeTimeout ) )
+            .eventListener( new EventListener()
+            {
+                @Override
+                public void callStart( Call call )
+                {
+                    calls.incrementAndGet();
+                }
+
+                @Override
+                public void connectEnd( Call call, InetSocketAddress inetSocketAddress, Proxy proxy,
+                    Protocol protocol )
+                {
+                    connectionsOpened.incrementAndGet();
+                }
+            } ).build();
+
+        // the clients derived from the same client share its connection pool
+        analyticsClient = httpClient.newBuilder().readTimeout( Duration.ofMillis( analyticsReadTimeout ) ).build();
+        importClient = httpClient.newBuilder().readTimeout( Duration.ofMillis( importReadTimeout ) ).build();
+        pipelineMetrics.monitor( connectionPool );
+
+        LOGGER.info( "Pooling up to {} idle connection/s to DHIS2 over {}", poolSize,
+            http2 ? "HTTP/2 where supported" : "HTTP/1.1" );
+    }
+
+    @PreDestroy
+    public void closeHttpClients()
+    {
+        if ( analyticsClient != null )
+        {
+            analyticsClient.dispatcher().executorService().shutdown();
+            connectionPool.evictAll();
+        }
+    }
+
+    /**
+     * Opens the connections of the pool ahead of the analytics queries and
+     * imports by sending concurrent pings to DHIS2. A single connection is
+     * enough with HTTP/2 since requests are multiplexed over it.
+     */
+    public void warmUp()
+    {
+        if ( !warmUp )
+        {
+            return;
+        }
+
+        int connections = http2 ? 1 : poolSize;
+        if ( connectionPool.connectionCount() >= connections )
+        {
+            return;
+        }
+
+        CountDownLatch latch = new CountDownLatch( connections );
+        Callback callback = new Callback()
+        {
+            @Override
+            public void onResponse( Call call, Response response )
+            {
+                response.close();
+                latch.countDown();
+            }
+
+            @Override
+            public void onFailure( Call call, IOException e )
+            {
+                LOGGER.debug( "Failed to open HTTP connection to DHIS2 while warming up the pool", e );
+                latch.countDown();
+            }
+        };
+        for ( int i = 0; i < connections; i++ )
+        {
+            analyticsClient.newCall( newRequest( "system/ping", null ).get().build() ).enqueue( callback );
+        }
+
+        try
+        {
+            latch.await( connectTimeout, TimeUnit.MILLISECONDS );
+        }
+        catch ( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        LOGGER.info( "Warmed up HTTP connection pool: {} connection/s open", connectionPool.connectionCount() );
+    }
+
+    /**
+     * Logs the state of the connection pool together with the no. of
+     * connections opened since the statistics were last logged.
+     */
+    public void logPoolStatistics()
+    {
+        long opened = connectionsOpened.getAndSet( 0 );
+        long callCount = calls.getAndSet( 0 );
+        LOGGER.info( "HTTP connection pool: {} connection/s open ({} idle), {} connection/s opened for {} call/s",
+            connectionPool.connectionCount(), connectionPool.idleConnectionCount(), opened, callCount );
+    }
+
+    /**
+     * Sends a GET request and returns the response body, decompressed. The
+     * caller must close the returned stream.
+     */
+    public InputStream get( String path, Map<String, ?> queryParams )
+        throws IOException
+    {
+        // setting Accept-Encoding keeps OkHttp from decompressing transparently so that the wire bytes can be counted
+        Request request = newRequest( path, queryParams ).get()
+            .header( "Accept-Encoding", gzipResponses ? "gzip" : "identity" ).build();
+
+        Response response = analyticsClient.newCall( request ).execute();
+        try
+        {
+            checkResponse( request, response );
+            CountingInputStream wireStream = new CountingInputStream( response.body().byteStream() );
+            InputStream contentStream = "gzip".equalsIgnoreCase( response.header( "Content-Encoding" ) )
+                ? new GZIPInputStream( wireStream ) : wireStream;
+
+            return new CountingInputStream( contentStream )
+            {
+                private boolean closed;
+
+                @Override
+                public void close()
+                    throws IOException
+                {
+                    if ( !closed )
+                    {
+                        closed = true;
+                        recordTransfer( CompressionTotals.RECEIVED, wireStream.getCount(), getCount() );
+                        try
+                        {
+                            super.close();
+                        }
+                        finally
+                        {
+                            response.close();
+                        }
+                    }
+                }
+            };
+        }
+        catch ( IOException | RuntimeException e )
+        {
+            response.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the resource, serialised to JSON, in a POST request and returns
+     * the response body.
+     */
+    public String post( String path, Map<String, ?> queryParams, Object resource )
+        throws IOException
+    {
+        byte[] content = OBJECT_MAPPER.writeValueAsBytes( resource );
+        byte[] wireContent = gzipRequests ? gzip( content ) : content;
+        Request.Builder requestBuilder = newRequest( path, queryParams )
+            .post( RequestBody.create( wireContent, JSON ) );
+        if ( gzipRequests )
+        {
+            requestBuilder.header( "Content-Encoding", "gzip" );
+        }
+        Request request = requestBuilder.build();
+
+        try ( Response response = importClient.newCall( request ).execute() )
+        {
+            checkResponse( request, response );
+            recordTransfer( CompressionTotals.SENT, wireContent.length, content.length );
+
+            return response.body().string();
+        }
+    }
+
+    private Request.Builder newRequest( String path, Map<String, ?> queryParams )
+    {
+        HttpUrl.Builder url = HttpUrl.get( dhis2Credentials.getBaseApiUrl() ).newBuilder().addPathSegments( path );
+        if ( queryParams != null )
+        {
+            for ( Map.Entry<String, ?> queryParam : queryParams.entrySet() )
+            {
+                if ( queryParam.getValue() instanceof Collection )
+                {
+                    for ( Object value : (Collection<?>) queryParam.getValue() )
+                    {
+                        url.addQueryParameter( queryParam.getKey(), String.valueOf( value ) );
+                    }
+                }
+                else
+                {
+                    url.addQueryParameter( queryParam.getKey(), String.valueOf( queryParam.getValue() ) );
+                }
+            }
+        }
+
+        return new Request.Builder().url( url.build() ).header( "Authorization",
+            dhis2Credentials.getAuthorization() );
+    }
+
+    private void recordTransfer( String direction, long wireBytes, long bytes )
+    {
+        compressionTotals.add( direction, wireBytes, bytes );
+        pipelineMetrics.recordTransfer( direction, wireBytes, bytes );
+    }
+
+    private static void checkResponse( Request request, Response response )
+        throws IOException
+    {
+        if ( !response.isSuccessful() )
+        {
+            throw new T2AException( String.format( "HTTP %s %s failed with status %s: %s", request.method(),
+                request.url().encodedPath(), response.code(), response.body().string() ) );
+        }
+    }
+
+    static byte[] gzip( byte[] content )
+        throws IOException
+    {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream( content.length / 4 + 64 );
+        try ( GZIPOutputStream gzipOutputStream = new GZIPOutputStream( outputStream ) )
+        {
+            gzipOutputStream.write( content );
+        }
+
+        return outputStream.toByteArray();
+    }
+
+    static class CountingInputStream extends FilterInputStream
+    {
+        private long count;
+
+        CountingInputStream( InputStream inputStream )
+        {
+            super( inputStream );
+        }
+
+        @Override
+        public int read()
+            throws IOException
+        {
+            int b = super.read();
+            if ( b != -1 )
+            {
+                count++;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read( byte[] b, int off, int len )
+            throws IOException
+        {
+            int n = super.read( b, off, len );
+            if ( n > 0 )
+            {
+                count += n;
+            }
+
+            return n;
+        }
+
+        @Override
+        public long skip( long n )
+            throws IOException
+        {
+            long skipped = super.skip( n );
+            count += skipped;
+
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported()
+        {
+            return false;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+    }
+
+    public boolean isGzipResponses()
+    {
+        return gzipResponses;
+    }
+
+    public void setGzipResponses( boolean gzipResponses )
+    {
+        this.gzipResponses = gzipResponses;
+    }
+
+    public boolean isGzipRequests()
+    {
+        return gzipRequests;
+    }
+
+    public void setGzipRequests( boolean gzipRequests )
+    {
+        this.gzipRequests = gzipRequests;
+    }
+
+    public Integer getPoolSize()
+    {
+        return poolSize;
+    }
+
+    public void setPoolSize( Integer poolSize )
+    {
+        this.poolSize = poolSize;
+    }
+
+    public boolean isHttp2()
+    {
+        return http2;
+    }
+
+    public void setHttp2( boolean http2 )
+    {
+        this.http2 = http2;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.job;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.hisp.dhis.integration.t2a.Application;
+import org.hisp.dhis.integration.t2a.MetadataCacheStore;
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.hisp.dhis.integration.t2a.concurrent.ConcurrencyBudget;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.config.ConfigDataEnvironmentPostProcessor;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.ConfigurableEnvironment;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.PropertyResolver;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+/**
+ * Hosts the jobs listed in <code>jobs</code> in a single process. Each job
+ * runs in an application context of its own, configured by the top-level
+ * config properties overridden by its <code>jobs.&lt;name&gt;.*</code>
+ * properties, so it has its own DHIS2 client, organisation unit level,
+ * periods and program indicator group. The job contexts share a parent
+ * context holding a budget of <code>jobs.concurrency</code> analytics requests
+ * in flight, split between the jobs by their weight to size their thread
+ * pools, together with the in-memory metadata caches.
+ * <p>
+ * This class is deliberately not a Spring component so that the job contexts
+ * do not pick it up.
+ */
+public class JobLauncher
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( JobLauncher.class );
+
+    public static final String JOBS_PROPERTY = "jobs";
+
+    public static final String JOB_NAME_PROPERTY = "job.name";
+
+    private static final String CONCURRENCY_PROPERTY = "jobs.concurrency";
+
+    private static final String WEIGHT_PROPERTY = "weight";
+
+    private static final Pattern JOB_NAME_PATTERN = Pattern.compile( "^[a-z0-9-]+$" );
+
+    @Bean
+    public ConcurrencyBudget concurrencyBudget( Environment environment )
+    {
+        return new ConcurrencyBudget( getConcurrencyBudget( environment, getJobDefinitions( environment ) ) );
+    }
+
+    @Bean
+    public MetadataCacheStore metadataCacheStore()
+    {
+        return new MetadataCacheStore();
+    }
+
+    /**
+     * Starts a context per job under a shared parent context. Returns
+     * <code>false</code>, without starting any context, when no jobs are
+     * configured so that the application runs in a single context.
+     */
+    public static boolean launch( String[] args )
+    {
+        if ( getJobDefinitions( loadEnvironment( args ) ).isEmpty() )
+        {
+            return false;
+        }
+
+        ConfigurableApplicationContext parentContext = new SpringApplicationBuilder( JobLauncher.class )
+            .web( WebApplicationType.NONE ).bannerMode( Banner.Mode.OFF ).logStartupInfo( false ).run( args );
+        ConfigurableEnvironment environment = parentContext.getEnvironment();
+        List<JobDefinition> jobDefinitions = getJobDefinitions( environment );
+        int concurrencyBudget = getConcurrencyBudget( environment, jobDefinitions );
+        double totalWeight = jobDefinitions.stream().mapToDouble( JobDefinition::getWeight ).sum();
+        for ( JobDefinition jobDefinition : jobDefinitions )
+        {
+            Map<String, Object> properties = new LinkedHashMap<>(
+                getJobProperties( jobDefinition, concurrencyBudget, totalWeight, environment ) );
+            LOGGER.info( "Starting job '{}' with {} thread/s out of a concurrency budget of {}",
+                jobDefinition.getName(), properties.get( "thread.pool.size" ), concurrencyBudget );
+            new SpringApplicationBuilder( Application.class ).parent( parentContext ).bannerMode( Banner.Mode.OFF )
+                .initializers( context -> context.getEnvironment().getPropertySources()
+                    .addFirst( new MapPropertySource( "job:" + jobDefinition.getName(), properties ) ) )
+                .run( args );
+        }
+
+        return true;
+    }
+
+    /**
+     * Loads the config properties the way Spring Boot does, from the command
+     * line, the system properties, the environment variables and the config
+     * files, without starting a context.
+     */
+    static ConfigurableEnvironment loadEnvironment( String[] args )
+    {
+        StandardEnvironment environment = new StandardEnvironment();
+        environment.getPropertySources().addFirst( new SimpleCommandLinePropertySource( args ) );
+        ConfigDataEnvironmentPostProcessor.applyTo( environment );
+
+        return environment;
+    }
+
+    static List<JobDefinition> getJobDefinitions( Environment environment )
+    {
+        List<JobDefinition> jobDefinitions = new ArrayList<>();
+        Binder binder = Binder.get( environment );
+        for ( String name : environment.getProperty( JOBS_PROPERTY, "" ).split( "," ) )
+        {
+            name = name.trim();
+            if ( name.isEmpty() )
+            {
+                continue;
+            }
+            if ( !JOB_NAME_PATTERN.matcher( name ).matches() || name.equals( "concurrency" ) )
+            {
+                throw new T2AException( String.format(
+                    "Bad configuration: job name '%s' must be made up of lowercase letters, digits and '-' and cannot be 'concurrency'",
+                    name ) );
+            }
+
+            Map<String, String> properties = new LinkedHashMap<>(
+                binder.bind( JOBS_PROPERTY + "." + name, Bindable.mapOf( String.class, String.class ) )
+                    .orElse( Map.of() ) );
+            double weight = Double.parseDouble( properties.getOrDefault( WEIGHT_PROPERTY, "1" ) );
+            if ( !(weight > 0) )
+            {
+                throw new T2AException(
+                    String.format( "Bad configuration: jobs.%s.weight must be greater than 0", name ) );
+            }
+            properties.remove( WEIGHT_PROPERTY );
+            jobDefinitions.add( new JobDefinition( name, weight, properties ) );
+        }
+
+        return jobDefinitions;
+    }
+
+    /**
+     * The budget defaults to a thread per job, which is what the jobs would
+     * get running in processes of their own.
+     */
+    static int getConcurrencyBudget( PropertyResolver propertyResolver, List<JobDefinition> jobDefinitions )
+    {
+        return propertyResolver.getProperty( CONCURRENCY_PROPERTY, Integer.class,
+            Math.max( 1, jobDefinitions.size() ) );
+    }
+
+    /**
+     * Works out the config properties of a job: its own properties, its share
+     * of the concurrency budget as its thread pool size, and endpoints and
+     * files which do not clash with those of the other jobs. Jobs pointing at
+     * the same DHIS2 server share a metadata cache file.
+     */
+    static Map<String, String> getJobProperties( JobDefinition jobDefinition, int concurrencyBudget,
+        double totalWeight, PropertyResolver topLevel )
+    {
+        String name = jobDefinition.getName();
+        Map<String, String> properties = new LinkedHashMap<>( jobDefinition.getProperties() );
+        properties.put( JOB_NAME_PROPERTY, name );
+        properties.putIfAbsent( "camel.springboot.name", "t2a-" + name );
+        long threadPoolSize = Math.round( concurrencyBudget * jobDefinition.getWeight() / totalWeight );
+        properties.putIfAbsent( "thread.pool.size", String.valueOf( Math.max( 1, threadPoolSize ) ) );
+        properties.putIfAbsent( "http.endpoint.uri",
+            topLevel.getProperty( "http.endpoint.uri", "http://localhost:8081/dhis2/t2a" ) + "/" + name );
+        properties.putIfAbsent( "metrics.endpoint.uri",
+            topLevel.getProperty( "metrics.endpoint.uri", "http://localhost:8081/dhis2/t2a/metrics" ) + "/" + name );
+        properties.putIfAbsent( "checkpoint.journal.path",
+            prefixFileName( topLevel.getProperty( "checkpoint.journal.path", "t2a-checkpoint.journal" ), name ) );
+        properties.putIfAbsent( "delta.push.store.path",
+            prefixFileName( topLevel.getProperty( "delta.push.store.path", "t2a-fingerprints.bin" ), name ) );
+        properties.putIfAbsent( "run.aggregate.analytics.pending.path", prefixFileName(
+            topLevel.getProperty( "run.aggregate.analytics.pending.path", "t2a-pending-aggregate-analytics.txt" ),
+            name ) );
+        properties.putIfAbsent( "cluster.queue.path",
+            prefixFileName( topLevel.getProperty( "cluster.queue.path", "t2a-queue" ), name ) );
+
+        String serverUrl = properties.getOrDefault( "dhis2.api.url", topLevel.getProperty( "dhis2.api.url", "" ) );
+        properties.putIfAbsent( "metadata.cache.path",
+            prefixFileName( topLevel.getProperty( "metadata.cache.path", "t2a-metadata-cache.json" ),
+                serverUrl.replaceFirst( "^[a-zA-Z]+://", "" ).replaceAll( "[^A-Za-z0-9.]+", "_" ) ) );
+
+        return properties;
+    }
+
+    private static String prefixFileName( String path, String prefix )
+    {
+        Path filePath = Paths.get( path );
+
+        return filePath.resolveSibling( prefix + "-" + filePath.getFileName() ).toString();
+    }
+}
@@ -27,9 +27,11 @@
  */
 package org.hisp.dhis.integration.t2a.model;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 import lombok.AllArgsConstructor;
 import lombok.Data;
-import org.hisp.dhis.api.model.v2_37_7.ProgramIndicator;
 
 @Data
 @AllArgsConstructor
@@ -39,5 +41,16 @@ public class Dimensions
 
     private final String organisationUnitIds;
 
-    private final ProgramIndicator programIndicator;
+    private final List<ProgramIndicatorMapping> programIndicatorMappings;
+
+    public int getOrganisationUnitCount()
+    {
+        return organisationUnitIds.split( ";" ).length;
+    }
+
+    public String getProgramIndicatorIds()
+    {
+        return programIndicatorMappings.stream().map( ProgramIndicatorMapping::getProgramIndicatorId )
+            .collect( Collectors.joining( ";" ) );
+    }
 }
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.model;
+
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonSerializable;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.jsontype.TypeSerializer;
+
+/**
+ * Data values encoded as JSON objects, back to back, in a single character
+ * buffer. Serialising it with Jackson writes a data value set without
+ * materialising a POJO per data value.
+ */
+public class EncodedDataValues extends JsonSerializable.Base
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final char[] buffer;
+
+    private final int[] ends;
+
+    private final int size;
+
+    private final Set<Dimensions> sources;
+
+    private final Set<Dimensions> completedSources;
+
+    private EncodedDataValues( char[] buffer, int[] ends, int size, Set<Dimensions> sources,
+        Set<Dimensions> completedSources )
+    {
+        this.buffer = buffer;
+        this.ends = ends;
+        this.size = size;
+        this.sources = sources;
+        this.completedSources = completedSources;
+    }
+
+    public static Builder builder()
+        throws IOException
+    {
+        return new Builder();
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * The number of characters taken up by the encoded data values.
+     */
+    public int length()
+    {
+        return size == 0 ? 0 : ends[size - 1];
+    }
+
+    /**
+     * The dimensions whose data values are encoded, in whole or in part, in
+     * here.
+     */
+    public Set<Dimensions> getSources()
+    {
+        return sources;
+    }
+
+    /**
+     * The dimensions whose remaining data values are all encoded in here, that
+     * is, none of their data values are left to be encoded elsewhere.
+     */
+    public Set<Dimensions> getCompletedSources()
+    {
+        return completedSources;
+    }
+
+    /**
+     * Decodes the data values one by one, in order.
+     */
+    public void forEach( DataValueConsumer consumer )
+        throws IOException
+    {
+        for ( int i = 0; i < size; i++ )
+        {
+            int start = i == 0 ? 0 : ends[i - 1];
+            String dataElement = null;
+            String period = null;
+            String orgUnit = null;
+            String categoryOptionCombo = null;
+            String attributeOptionCombo = null;
+            String value = null;
+            try ( JsonParser parser = JSON_FACTORY.createParser( buffer, start, ends[i] - start ) )
+            {
+                parser.nextToken();
+                while ( parser.nextToken() == JsonToken.FIELD_NAME )
+                {
+                    String fieldName = parser.getCurrentName();
+                    parser.nextToken();
+                    switch ( fieldName )
+                    {
+                    case "dataElement":
+                        dataElement = parser.getText();
+                        break;
+                    case "period":
+                        period = parser.getText();
+                        break;
+                    case "orgUnit":
+                        orgUnit = parser.getText();
+                        break;
+                    case "categoryOptionCombo":
+                        categoryOptionCombo = parser.getText();
+                        break;
+                    case "attributeOptionCombo":
+                        attributeOptionCombo = parser.getText();
+                        break;
+                    case "value":
+                        value = parser.getText();
+                        break;
+                    default:
+                        parser.skipChildren();
+                    }
+                }
+            }
+            consumer.accept( dataElement, period, orgUnit, categoryOptionCombo, attributeOptionCombo, value );
+        }
+    }
+
+    @Override
+    public void serialize( JsonGenerator gen, SerializerProvider serializers )
+        throws IOException
+    {
+        gen.writeStartObject();
+        gen.writeFieldName( "dataValues" );
+        gen.writeStartArray();
+        for ( int i = 0; i < size; i++ )
+        {
+            int start = i == 0 ? 0 : ends[i - 1];
+            gen.writeRawValue( buffer, start, ends[i] - start );
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+    }
+
+    @Override
+    public void serializeWithType( JsonGenerator gen, SerializerProvider serializers, TypeSerializer typeSer )
+        throws IOException
+    {
+        serialize( gen, serializers );
+    }
+
+    @FunctionalInterface
+    public interface DataValueConsumer
+    {
+        void accept( String dataElement, String period, String orgUnit, String categoryOptionCombo,
+            String attributeOptionCombo, String value );
+    }
+
+    public static class Builder
+    {
+        private final CharArrayWriter writer = new CharArrayWriter();
+
+        private final JsonGenerator generator;
+
+        private int[] ends = new int[16];
+
+        private int size;
+
+        private final Set<Dimensions> sources = new LinkedHashSet<>();
+
+        private Builder()
+            throws IOException
+        {
+            generator = JSON_FACTORY.createGenerator( writer );
+            generator.setRootValueSeparator( null );
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        public Builder source( Dimensions dimensions )
+        {
+            sources.add( dimensions );
+            return this;
+        }
+
+        public Builder add( String dataElement, String period, String orgUnit, String categoryOptionCombo,
+            String attributeOptionCombo, String value )
+            throws IOException
+        {
+            generator.writeStartObject();
+            generator.writeStringField( "dataElement", dataElement );
+            generator.writeStringField( "period", period );
+            generator.writeStringField( "orgUnit", orgUnit );
+            if ( categoryOptionCombo != null )
+            {
+                generator.writeStringField( "categoryOptionCombo", categoryOptionCombo );
+            }
+            if ( attributeOptionCombo != null )
+            {
+                generator.writeStringField( "attributeOptionCombo", attributeOptionCombo );
+            }
+            generator.writeStringField( "value", value );
+            generator.writeEndObject();
+            generator.flush();
+            markEnd();
+
+            return this;
+        }
+
+        /**
+         * Copies the encoded data values from <code>from</code> (inclusive) to
+         * <code>to</code> (exclusive) of the given source.
+         */
+        public Builder append( EncodedDataValues source, int from, int to )
+        {
+            if ( from < to )
+            {
+                sources.addAll( source.sources );
+            }
+            for ( int i = from; i < to; i++ )
+            {
+                int start = i == 0 ? 0 : source.ends[i - 1];
+                writer.write( source.buffer, start, source.ends[i] - start );
+                markEnd();
+            }
+
+            return this;
+        }
+
+        private void markEnd()
+        {
+            if ( size == ends.length )
+            {
+                ends = Arrays.copyOf( ends, size * 2 );
+            }
+            ends[size++] = writer.size();
+        }
+
+        public EncodedDataValues build()
+            throws IOException
+        {
+            return build( Set.of() );
+        }
+
+        /**
+         * Builds the data values, marking every source as completed except for
+         * the given sources which still have data values to be encoded.
+         */
+        public EncodedDataValues build( Set<Dimensions> unfinishedSources )
+            throws IOException
+        {
+            generator.close();
+
+            Set<Dimensions> completedSources = new LinkedHashSet<>( sources );
+            completedSources.removeAll( unfinishedSources );
+
+            return new EncodedDataValues( writer.toCharArray(), Arrays.copyOf( ends, size ), size,
+                Collections.unmodifiableSet( new LinkedHashSet<>( sources ) ),
+                Collections.unmodifiableSet( completedSources ) );
+        }
+    }
+}
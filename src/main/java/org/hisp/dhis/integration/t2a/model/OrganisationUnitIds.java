@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.model;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of organisation unit IDs packed back to back in a single
+ * character array. Compared to a list of strings, it saves the object header,
+ * hash and array header of each ID, which adds up at facility level in large
+ * hierarchies.
+ */
+public final class OrganisationUnitIds extends AbstractList<String> implements RandomAccess
+{
+    private final char[] chars;
+
+    private final int[] ends;
+
+    private final int size;
+
+    private OrganisationUnitIds( char[] chars, int[] ends, int size )
+    {
+        this.chars = chars;
+        this.ends = ends;
+        this.size = size;
+    }
+
+    public static Builder builder()
+    {
+        return new Builder();
+    }
+
+    @Override
+    public String get( int index )
+    {
+        if ( index < 0 || index >= size )
+        {
+            throw new IndexOutOfBoundsException( "Index: " + index + ", Size: " + size );
+        }
+
+        int start = index == 0 ? 0 : ends[index - 1];
+        return new String( chars, start, ends[index] - start );
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    public static class Builder
+    {
+        private char[] chars = new char[16 * 11];
+
+        private int length;
+
+        private int[] ends = new int[16];
+
+        private int size;
+
+        private Builder()
+        {
+        }
+
+        public Builder add( String id )
+        {
+            ensureCapacity( id.length(), 1 );
+            id.getChars( 0, id.length(), chars, length );
+            length += id.length();
+            ends[size++] = length;
+
+            return this;
+        }
+
+        public Builder addAll( OrganisationUnitIds ids )
+        {
+            int idsLength = ids.size == 0 ? 0 : ids.ends[ids.size - 1];
+            ensureCapacity( idsLength, ids.size );
+            System.arraycopy( ids.chars, 0, chars, length, idsLength );
+            for ( int i = 0; i < ids.size; i++ )
+            {
+                ends[size++] = length + ids.ends[i];
+            }
+            length += idsLength;
+
+            return this;
+        }
+
+        private void ensureCapacity( int extraChars, int extraIds )
+        {
+            if ( length + extraChars > chars.length )
+            {
+                chars = Arrays.copyOf( chars, Math.max( chars.length * 2, length + extraChars ) );
+            }
+            if ( size + extraIds > ends.length )
+            {
+                ends = Arrays.copyOf( ends, Math.max( ends.length * 2, size + extraIds ) );
+            }
+        }
+
+        public int size()
+        {
+            return size;
+        }
+
+        public OrganisationUnitIds build()
+        {
+            return new OrganisationUnitIds( Arrays.copyOf( chars, length ), Arrays.copyOf( ends, size ), size );
+        }
+    }
+}
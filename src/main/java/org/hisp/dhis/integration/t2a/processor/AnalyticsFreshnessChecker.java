@@ -0,0 +1,362 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.processor;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.hisp.dhis.integration.sdk.api.Dhis2Client;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Works out whether the event analytics tables are fresh enough to skip
+ * generating them, that is, whether no tracker data of the programs behind the
+ * program indicators changed since the tables were last generated, give or take
+ * <code>run.event.analytics.staleness.tolerance</code> milliseconds.
+ * <p>
+ * Tracker data changed while the tables were being generated is missing from
+ * them, so the tables count as generated at the start of their generation.
+ * The start of the last completed generation of event tables, whether by T2A
+ * or not, is read from the notifications DHIS2 keeps of its analytics table
+ * tasks: the earliest notification of a task marks its start and a task
+ * generates event tables unless none of its notifications mention events.
+ * DHIS2 only keeps these notifications in memory, so once they are gone, for
+ * instance after a restart of DHIS2, T2A falls back on the generations it
+ * started itself. Those only count when the last generation reported by DHIS2
+ * is one of them, be it the last event table generation itself or an
+ * aggregate-only one after it. Otherwise, the tables are generated since when
+ * they were snapshotted cannot be told.
+ */
+@Component
+public class AnalyticsFreshnessChecker implements Processor
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( AnalyticsFreshnessChecker.class );
+
+    public static final String EVENT_ANALYTICS_FRESH_PROPERTY = "eventAnalyticsFresh";
+
+    @Value( "${run.event.analytics.skip.fresh:true}" )
+    private boolean skipFresh;
+
+    @Value( "${run.event.analytics.staleness.tolerance:0}" )
+    private long stalenessTolerance;
+
+    @Value( "${pi.group.id}" )
+    private String programIndicatorGroupId;
+
+    @Autowired
+    private Dhis2Client dhis2Client;
+
+    private boolean generated;
+
+    private LocalDateTime pendingEventTablesGenerationStart;
+
+    private LocalDateTime eventTablesGenerationStart;
+
+    private LocalDateTime eventTablesGenerationEnd;
+
+    private LocalDateTime aggregateTablesGenerationStart;
+
+    private LocalDateTime aggregateTablesGenerationEnd;
+
+    @Override
+    public void process( Exchange exchange )
+        throws Exception
+    {
+        exchange.setProperty( EVENT_ANALYTICS_FRESH_PROPERTY, skipFresh && isEventAnalyticsFresh() );
+    }
+
+    public synchronized boolean isEventAnalyticsFresh()
+        throws IOException
+    {
+        LocalDateTime freshSince = getLastEventTablesGenerationStart( getAnalyticsTableTasks() );
+        if ( freshSince == null )
+        {
+            LocalDateTime lastGeneration = getLastAnalyticsTableGeneration();
+            freshSince = getEventTablesGeneration( lastGeneration );
+            if ( freshSince == null )
+            {
+                LOGGER.info( "Generating event analytics: cannot tell when event analytics tables were last "
+                    + "generated (last analytics table generation: {})", lastGeneration );
+                return false;
+            }
+        }
+
+        String changedSince = freshSince.plusNanos( stalenessTolerance * 1_000_000 ).toString();
+        for ( Map.Entry<String, Boolean> program : getPrograms().entrySet() )
+        {
+            String changedResource = getChangedResource( program.getKey(), program.getValue(), changedSince );
+            if ( changedResource != null )
+            {
+                LOGGER.info(
+                    "Generating event analytics: {} of program '{}' changed after {} (event analytics tables generated at {}, tolerance {} ms)",
+                    changedResource, program.getKey(), changedSince, freshSince, stalenessTolerance );
+                return false;
+            }
+        }
+
+        LOGGER.info(
+            "Skipping event analytics: no tracker data changed after {} (event analytics tables generated at {}, tolerance {} ms)",
+            changedSince, freshSince, stalenessTolerance );
+        return true;
+    }
+
+    /**
+     * Records the start of an analytics table generation by T2A, in server
+     * time. An aggregate-only generation counts from its start since DHIS2
+     * might complete it even if T2A does not see it through.
+     */
+    public synchronized void generationStarted( boolean events, String serverDate )
+    {
+        LocalDateTime start = parseDateTime( serverDate );
+        if ( events )
+        {
+            pendingEventTablesGenerationStart = start;
+        }
+        else
+        {
+            generated = true;
+            aggregateTablesGenerationStart = start;
+            aggregateTablesGenerationEnd = null;
+        }
+    }
+
+    public synchronized void generationCompleted( boolean events, String serverDate )
+    {
+        generated = true;
+        if ( events )
+        {
+            eventTablesGenerationStart = pendingEventTablesGenerationStart;
+            eventTablesGenerationEnd = parseDateTime( serverDate );
+        }
+        else
+        {
+            aggregateTablesGenerationEnd = parseDateTime( serverDate );
+            if ( aggregateTablesGenerationEnd == null )
+            {
+                // with no end, any later generation would pass for this one
+                aggregateTablesGenerationStart = null;
+            }
+        }
+    }
+
+    synchronized LocalDateTime getEventTablesGeneration( LocalDateTime lastGeneration )
+    {
+        if ( lastGeneration == null || !generated )
+        {
+            return null;
+        }
+
+        boolean lastGenerationIsAggregateOnly = aggregateTablesGenerationStart != null
+            && !lastGeneration.isBefore( aggregateTablesGenerationStart )
+            && (aggregateTablesGenerationEnd == null || !lastGeneration.isAfter( aggregateTablesGenerationEnd ));
+        boolean lastGenerationIsEvents = eventTablesGenerationStart != null && eventTablesGenerationEnd != null
+            && !lastGeneration.isBefore( eventTablesGenerationStart )
+            && !lastGeneration.isAfter( eventTablesGenerationEnd );
+
+        return lastGenerationIsAggregateOnly || lastGenerationIsEvents ? eventTablesGenerationStart : null;
+    }
+
+    /**
+     * Finds the start of the last completed analytics table task which
+     * generated event tables among the notifications of the given tasks.
+     *
+     * @return the start of the task, in server time, or <code>null</code> if
+     *         there is none
+     */
+    static LocalDateTime getLastEventTablesGenerationStart( Map<String, List<Map<String, Object>>> tasks )
+    {
+        LocalDateTime lastStart = null;
+        for ( List<Map<String, Object>> notifications : tasks.values() )
+        {
+            LocalDateTime start = null;
+            boolean completed = false;
+            boolean failed = false;
+            boolean events = false;
+            for ( Map<String, Object> notification : notifications )
+            {
+                LocalDateTime time = parseDateTime( (String) notification.get( "time" ) );
+                if ( time != null && (start == null || time.isBefore( start )) )
+                {
+                    start = time;
+                }
+                completed |= Boolean.TRUE.equals( notification.get( "completed" ) );
+                failed |= "ERROR".equals( notification.get( "level" ) );
+                events |= String.valueOf( notification.get( "message" ) ).toLowerCase().contains( "event" );
+            }
+            if ( completed && !failed && events && start != null
+                && (lastStart == null || start.isAfter( lastStart )) )
+            {
+                lastStart = start;
+            }
+        }
+
+        return lastStart;
+    }
+
+    Map<String, List<Map<String, Object>>> getAnalyticsTableTasks()
+        throws IOException
+    {
+        return dhis2Client.get( "system/tasks/ANALYTICS_TABLE" ).transfer().returnAs( Map.class );
+    }
+
+    LocalDateTime getLastAnalyticsTableGeneration()
+        throws IOException
+    {
+        Map<String, Object> systemInfo = dhis2Client.get( "system/info" )
+            .withParameter( "fields", "lastAnalyticsTableGeneration" ).transfer().returnAs( Map.class );
+
+        return parseDateTime( (String) systemInfo.get( "lastAnalyticsTableGeneration" ) );
+    }
+
+    /**
+     * The programs behind the program indicators, mapped to whether any of
+     * their program indicators is of the enrollment analytics type.
+     */
+    private Map<String, Boolean> getPrograms()
+        throws IOException
+    {
+        Map<String, Object> programIndicatorGroup = dhis2Client
+            .get( "programIndicatorGroups/" + programIndicatorGroupId )
+            .withParameter( "fields", "programIndicators[analyticsType,program[id]]" ).transfer()
+            .returnAs( Map.class );
+
+        Map<String, Boolean> programs = new LinkedHashMap<>();
+        for ( Map<String, Object> programIndicator : (List<Map<String, Object>>) programIndicatorGroup
+            .getOrDefault( "programIndicators", List.of() ) )
+        {
+            Map<String, Object> program = (Map<String, Object>) programIndicator.get( "program" );
+            if ( program != null )
+            {
+                programs.merge( (String) program.get( "id" ),
+                    "ENROLLMENT".equals( programIndicator.get( "analyticsType" ) ), Boolean::logicalOr );
+            }
+        }
+
+        return programs;
+    }
+
+    private String getChangedResource( String program, boolean enrollments, String changedSince )
+        throws IOException
+    {
+        if ( hasChanges( "events", "event", program, changedSince ) )
+        {
+            return "events";
+        }
+        else if ( enrollments && hasChanges( "enrollments", "enrollment", program, changedSince ) )
+        {
+            return "enrollments";
+        }
+        else if ( enrollments && hasChanges( "trackedEntityInstances", "trackedEntityInstance", program,
+            changedSince ) )
+        {
+            return "tracked entity instances";
+        }
+
+        return null;
+    }
+
+    private boolean hasChanges( String resource, String idField, String program, String changedSince )
+        throws IOException
+    {
+        Map<String, Object> page = dhis2Client.get( resource ).withParameter( "program", program )
+            .withParameter( "ouMode", "ACCESSIBLE" ).withParameter( "lastUpdatedStartDate", changedSince )
+            .withParameter( "includeDeleted", "true" ).withParameter( "fields", idField )
+            .withParameter( "pageSize", "1" ).withParameter( "totalPages", "false" ).transfer()
+            .returnAs( Map.class );
+
+        return !((List<?>) page.getOrDefault( resource, List.of() )).isEmpty();
+    }
+
+    private static LocalDateTime parseDateTime( String dateTime )
+    {
+        if ( dateTime == null )
+        {
+            return null;
+        }
+
+        try
+        {
+            return LocalDateTime.parse( dateTime );
+        }
+        catch ( DateTimeParseException e )
+        {
+            LOGGER.warn( "Ignoring unexpected server date '{}'", dateTime );
+            return null;
+        }
+    }
+
+    public boolean isSkipFresh()
+    {
+        return skipFresh;
+    }
+
+    public void setSkipFresh( boolean skipFresh )
+    {
+        this.skipFresh = skipFresh;
+    }
+
+    public long getStalenessTolerance()
+    {
+        return stalenessTolerance;
+    }
+
+    public void setStalenessTolerance( long stalenessTolerance )
+    {
+        this.stalenessTolerance = stalenessTolerance;
+    }
+
+    public String getProgramIndicatorGroupId()
+    {
+        return programIndicatorGroupId;
+    }
+
+    public void setProgramIndicatorGroupId( String programIndicatorGroupId )
+    {
+        this.programIndicatorGroupId = programIndicatorGroupId;
+    }
+
+    public Dhis2Client getDhis2Client()
+    {
+        return dhis2Client;
+    }
+
+    public void setDhis2Client( Dhis2Client dhis2Client )
+    {
+        this.dhis2Client = dhis2Client;
+    }
+}
@@ -32,6 +32,7 @@ import java.util.Map;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
+import org.hisp.dhis.integration.t2a.http.Dhis2HttpClient;
 import org.hisp.dhis.integration.t2a.model.Dimensions;
 import org.hisp.dhis.integration.t2a.route.T2ARouteBuilder;
 import org.springframework.stereotype.Component;
@@ -44,14 +45,13 @@ public class AnalyticsGridQueryBuilder implements Processor
         Dimensions dimensions = exchange.getMessage().getBody( Dimensions.class );
 
         Map<String, Object> query = Map.of( "dimension",
-            List.of( "dx:" + dimensions.getProgramIndicator().getId().get(),
+            List.of( "dx:" + dimensions.getProgramIndicatorIds(),
                 "ou:" + dimensions.getOrganisationUnitIds(), "pe:" + dimensions.getPeriods() ),
             "rows",
             "ou;pe",
             "columns", "dx", "skipMeta", "true" );
 
         exchange.setProperty( T2ARouteBuilder.DIMENSIONS_PROPERTY, dimensions );
-        exchange.getMessage()
-            .setHeader( "CamelDhis2.queryParams", query );
+        exchange.getMessage().setHeader( Dhis2HttpClient.QUERY_PARAMS_HEADER, query );
     }
 }
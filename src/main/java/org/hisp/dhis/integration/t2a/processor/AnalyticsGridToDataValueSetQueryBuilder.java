@@ -27,79 +27,264 @@
  */
 package org.hisp.dhis.integration.t2a.processor;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Processor;
-import org.hisp.dhis.api.model.v2_37_7.AttributeValue;
-import org.hisp.dhis.api.model.v2_37_7.DataValueSet;
-import org.hisp.dhis.api.model.v2_37_7.DataValue__1;
-import org.hisp.dhis.api.model.v2_37_7.ListGrid;
+import org.hisp.dhis.integration.t2a.DataValueFingerprintStore;
+import org.hisp.dhis.integration.t2a.T2AException;
 import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
 import org.hisp.dhis.integration.t2a.route.T2ARouteBuilder;
-import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Transforms the analytics grid into a data value set while reading it token
+ * by token. Neither the grid nor the data values are bound to POJOs: each row
+ * is read into a reusable cell buffer and written straight out as JSON. Data
+ * values left unchanged since the last successful push are dropped when delta
+ * push is enabled.
+ */
 @Component
 public class AnalyticsGridToDataValueSetQueryBuilder implements Processor
 {
-    @Value( "${aggr.data.export.attr.id:vudyDP7jUy5}" )
-    private String aggrDataExportAttrId;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final Set<String> ORG_UNIT_HEADERS = Set.of( "ou", "organisationunitid" );
+
+    private static final Set<String> PERIOD_HEADERS = Set.of( "pe", "periodid" );
+
+    // positions of the ou and pe ids in the table layout when the headers are unavailable
+    private static final int DEFAULT_ORG_UNIT_INDEX = 0;
+
+    private static final int DEFAULT_PERIOD_INDEX = 4;
+
+    @Autowired
+    private DataValueFingerprintStore dataValueFingerprintStore;
 
     public void process( Exchange exchange )
+        throws IOException
     {
-        DataValueSet dataValueSet = new DataValueSet();
-        dataValueSet.setDataValues( new ArrayList<>() );
-
-        ListGrid listGrid = exchange.getMessage().getBody( ListGrid.class );
         Dimensions dimensions = exchange.getProperty( T2ARouteBuilder.DIMENSIONS_PROPERTY,
             Dimensions.class );
 
-        exchange.getMessage().setHeader( "CamelDhis2.queryParams",
-            Map.of( "dataElementIdScheme", List.of( "CODE" ), "categoryOptionComboIdScheme", List.of( "CODE" ),
-                "importStrategy", List.of( "CREATE_AND_UPDATE" ), "dryRun", List.of( "false" ) ) );
+        List<ProgramIndicatorMapping> mappings = dimensions.getProgramIndicatorMappings();
 
-        Optional<AttributeValue> aggregateDataExportAttrOptional = dimensions.getProgramIndicator()
-            .getAttributeValues().get().stream()
-            .filter( av -> av.getAttribute().get().getId().get().equals( aggrDataExportAttrId ) )
-            .findFirst();
+        EncodedDataValues.Builder dataValues = EncodedDataValues.builder().source( dimensions );
+        // per program indicator, the rows holding a value for it and the data values kept for it
+        int[] rowCounts = new int[mappings.size()];
+        int[] dataValueCounts = new int[mappings.size()];
+        int rowCount;
+        try ( InputStream inputStream = exchange.getMessage().getBody( InputStream.class );
+            JsonParser parser = JSON_FACTORY.createParser( inputStream ) )
+        {
+            rowCount = readGrid( parser, mappings, dataValues, rowCounts, dataValueCounts );
+        }
+
+        exchange.setProperty( T2ARouteBuilder.ANALYTICS_ROW_COUNT_PROPERTY, rowCount );
+        exchange.setProperty( T2ARouteBuilder.PROGRAM_INDICATOR_ROW_COUNTS_PROPERTY, rowCounts );
+        exchange.setProperty( T2ARouteBuilder.PROGRAM_INDICATOR_DATA_VALUE_COUNTS_PROPERTY, dataValueCounts );
+        exchange.getMessage().setBody( dataValues.build() );
+    }
+
+    private int readGrid( JsonParser parser, List<ProgramIndicatorMapping> mappings,
+        EncodedDataValues.Builder dataValues, int[] rowCounts, int[] dataValueCounts )
+        throws IOException
+    {
+        if ( parser.nextToken() != JsonToken.START_OBJECT )
+        {
+            throw new T2AException( "Unexpected analytics response: grid is not a JSON object" );
+        }
 
-        if ( aggregateDataExportAttrOptional.isPresent() )
+        int orgUnitIndex = DEFAULT_ORG_UNIT_INDEX;
+        int periodIndex = DEFAULT_PERIOD_INDEX;
+        int[] valueIndexes = null;
+        int headerCount = -1;
+        int rowCount = 0;
+        while ( parser.nextToken() == JsonToken.FIELD_NAME )
         {
-            for ( List<Object> row : listGrid.getRows().get() )
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ( fieldName.equals( "headers" ) && token == JsonToken.START_ARRAY )
             {
-                String ou = (String) row.get( 0 );
-                String pe = (String) row.get( 4 );
-                String value = (String) row.get( 8 );
-
-                DataValue__1 dv = new DataValue__1();
-                dv.setValue( StringUtils.hasText( value ) ? value : "0" );
-                dv.setOrgUnit( ou );
-                dv.setPeriod( pe );
-                dv.setDataElement( aggregateDataExportAttrOptional.get().getValue().get() );
-                dv.setCategoryOptionCombo(
-                    dimensions.getProgramIndicator().getAggregateExportCategoryOptionCombo().orElse( null ) );
-                dv.setAttributeOptionCombo(
-                    dimensions.getProgramIndicator().getAggregateExportAttributeOptionCombo().orElse( null ) );
-
-                dataValueSet.getDataValues().get().add( dv );
+                List<String[]> headers = readHeaders( parser );
+                orgUnitIndex = indexOf( headers, ORG_UNIT_HEADERS, orgUnitIndex );
+                periodIndex = indexOf( headers, PERIOD_HEADERS, periodIndex );
+                valueIndexes = getValueIndexes( headers, mappings );
+                headerCount = headers.size();
+            }
+            else if ( fieldName.equals( "rows" ) && token == JsonToken.START_ARRAY )
+            {
+                rowCount += readRows( parser, orgUnitIndex, periodIndex, valueIndexes, headerCount, mappings,
+                    dataValues, rowCounts, dataValueCounts );
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+
+        return rowCount;
+    }
+
+    /**
+     * @return for each header, its name followed by its column
+     */
+    private List<String[]> readHeaders( JsonParser parser )
+        throws IOException
+    {
+        List<String[]> headers = new ArrayList<>();
+        while ( parser.nextToken() == JsonToken.START_OBJECT )
+        {
+            String name = null;
+            String column = null;
+            while ( parser.nextToken() == JsonToken.FIELD_NAME )
+            {
+                String fieldName = parser.getCurrentName();
+                parser.nextToken();
+                if ( fieldName.equals( "name" ) )
+                {
+                    name = parser.getValueAsString();
+                }
+                else if ( fieldName.equals( "column" ) )
+                {
+                    column = parser.getValueAsString();
+                }
+                else
+                {
+                    parser.skipChildren();
+                }
+            }
+            headers.add( new String[] { name, column } );
+        }
+
+        return headers;
+    }
+
+    private int indexOf( List<String[]> headers, Set<String> candidates, int defaultIndex )
+    {
+        for ( int i = 0; i < headers.size(); i++ )
+        {
+            for ( String label : headers.get( i ) )
+            {
+                if ( StringUtils.hasText( label ) && candidates.contains( label.toLowerCase() ) )
+                {
+                    return i;
+                }
+            }
+        }
+
+        return defaultIndex;
+    }
+
+    /**
+     * Finds the value column of each program indicator from the header named
+     * after its ID. A program indicator without a value column fails the
+     * grid rather than having its data values pushed as zeros.
+     */
+    private int[] getValueIndexes( List<String[]> headers, List<ProgramIndicatorMapping> mappings )
+    {
+        int[] valueIndexes = new int[mappings.size()];
+        for ( int i = 0; i < mappings.size(); i++ )
+        {
+            String programIndicatorId = mappings.get( i ).getProgramIndicatorId();
+            valueIndexes[i] = -1;
+            for ( int j = 0; j < headers.size(); j++ )
+            {
+                if ( programIndicatorId.equals( headers.get( j )[0] ) )
+                {
+                    valueIndexes[i] = j;
+                    break;
+                }
+            }
+            if ( valueIndexes[i] == -1 )
+            {
+                throw new T2AException( String.format(
+                    "Unexpected analytics response: grid has no column for program indicator '%s'",
+                    programIndicatorId ) );
+            }
+        }
+
+        return valueIndexes;
+    }
+
+    private int readRows( JsonParser parser, int orgUnitIndex, int periodIndex, int[] valueIndexes,
+        int headerCount, List<ProgramIndicatorMapping> mappings, EncodedDataValues.Builder dataValues, int[] rowCounts,
+        int[] dataValueCounts )
+        throws IOException
+    {
+        String[] cells = new String[16];
+        int rowCount = 0;
+        while ( parser.nextToken() == JsonToken.START_ARRAY )
+        {
+            int cellCount = 0;
+            while ( parser.nextToken() != JsonToken.END_ARRAY )
+            {
+                if ( cellCount == cells.length )
+                {
+                    cells = Arrays.copyOf( cells, cellCount * 2 );
+                }
+                cells[cellCount++] = parser.getValueAsString();
+                parser.skipChildren();
+            }
+            rowCount++;
+
+            // without headers, the value columns are the last ones, in the order of the dx dimension
+            int valueColumnOffset = cellCount - mappings.size();
+            if ( (headerCount != -1 && cellCount != headerCount) || orgUnitIndex >= cellCount
+                || periodIndex >= cellCount || valueColumnOffset < 0 )
+            {
+                throw new T2AException( String.format(
+                    "Unexpected analytics response: row %s has %s cell/s while the grid has %s column/s", rowCount,
+                    cellCount, headerCount != -1 ? headerCount : "at least " + (mappings.size() + 1) ) );
+            }
+
+            for ( int i = 0; i < mappings.size(); i++ )
+            {
+                ProgramIndicatorMapping mapping = mappings.get( i );
+                String dataElement = mapping.getDataElement();
+                String categoryOptionCombo = mapping.getCategoryOptionCombo();
+                String attributeOptionCombo = mapping.getAttributeOptionCombo();
+                int valueIndex = valueIndexes != null ? valueIndexes[i] : valueColumnOffset + i;
+                String value = "0";
+                if ( StringUtils.hasText( cells[valueIndex] ) )
+                {
+                    value = cells[valueIndex];
+                    rowCounts[i]++;
+                }
+
+                if ( !dataValueFingerprintStore.isUnchanged( dataElement, cells[periodIndex], cells[orgUnitIndex],
+                    categoryOptionCombo, attributeOptionCombo, value ) )
+                {
+                    dataValues.add( dataElement, cells[periodIndex], cells[orgUnitIndex], categoryOptionCombo,
+                        attributeOptionCombo, value );
+                    dataValueCounts[i]++;
+                }
             }
         }
 
-        exchange.getMessage().setBody( dataValueSet );
+        return rowCount;
     }
 
-    public String getAggrDataExportAttrId()
+    public DataValueFingerprintStore getDataValueFingerprintStore()
     {
-        return aggrDataExportAttrId;
+        return dataValueFingerprintStore;
     }
 
-    public void setAggrDataExportAttrId( String aggrDataExportAttrId )
+    public void setDataValueFingerprintStore( DataValueFingerprintStore dataValueFingerprintStore )
     {
-        this.aggrDataExportAttrId = aggrDataExportAttrId;
+        this.dataValueFingerprintStore = dataValueFingerprintStore;
     }
 }
@@ -0,0 +1,379 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.processor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.camel.AsyncCallback;
+import org.apache.camel.Exchange;
+import org.apache.camel.support.AsyncProcessorSupport;
+import org.hisp.dhis.integration.sdk.api.Dhis2Client;
+import org.hisp.dhis.integration.t2a.PipelineMetrics;
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.hisp.dhis.integration.t2a.model.AnalyticsTableTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Waits for the analytics table generation task submitted by
+ * {@link AnalyticsTableGenerator} without holding on to a thread. The task is
+ * polled from a scheduler, backing off from <code>analytics.poll.interval</code>
+ * up to <code>analytics.poll.max.interval</code>, and the route resumes once
+ * DHIS2 reports the task as completed. A task which fails, or which is still
+ * running after <code>analytics.timeout</code>, fails the exchange. DHIS2 does
+ * not report how far along a task is so progress is estimated from how long
+ * the previous generation of the same tables took.
+ */
+@Component
+public class AnalyticsTableAwaiter extends AsyncProcessorSupport
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( AnalyticsTableAwaiter.class );
+
+    private static final int MAX_POLL_FAILURES = 5;
+
+    private static final double MAX_ESTIMATED_PROGRESS = 0.99;
+
+    @Value( "${analytics.poll.interval:5000}" )
+    private long pollInterval;
+
+    @Value( "${analytics.poll.max.interval:60000}" )
+    private long maxPollInterval;
+
+    @Value( "${analytics.timeout:14400000}" )
+    private long timeout;
+
+    @Autowired
+    private Dhis2Client dhis2Client;
+
+    @Autowired
+    private AnalyticsFreshnessChecker analyticsFreshnessChecker;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    private final Map<String, Long> previousDurations = new ConcurrentHashMap<>();
+
+    private ScheduledExecutorService scheduler;
+
+    private ExecutorService continuationExecutor;
+
+    @PostConstruct
+    public void startScheduler()
+    {
+        if ( pollInterval < 1 || maxPollInterval < pollInterval )
+        {
+            throw new T2AException(
+                "Bad configuration: analytics.poll.interval must be greater than 0 and not exceed analytics.poll.max.interval" );
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor( runnable -> {
+            Thread thread = new Thread( runnable, "t2a-analytics-monitor" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        // the rest of the route runs on this executor so that it never holds up the polling of other tasks
+        continuationExecutor = Executors.newCachedThreadPool( runnable -> {
+            Thread thread = new Thread( runnable, "t2a-analytics-continuation" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    @PreDestroy
+    public void stopScheduler()
+    {
+        scheduler.shutdownNow();
+        continuationExecutor.shutdown();
+    }
+
+    @Override
+    public boolean process( Exchange exchange, AsyncCallback callback )
+    {
+        AnalyticsTableTask task = exchange.getProperty( AnalyticsTableGenerator.ANALYTICS_TABLE_TASK_PROPERTY,
+            AnalyticsTableTask.class );
+        if ( task == null )
+        {
+            callback.done( true );
+            return true;
+        }
+
+        exchange.removeProperty( AnalyticsTableGenerator.ANALYTICS_TABLE_TASK_PROPERTY );
+        LOGGER.info( "Waiting for analytics table generation task '{}' to complete...", task.getId() );
+        scheduler.schedule( new Poll( exchange, callback, task ), pollInterval, TimeUnit.MILLISECONDS );
+
+        return false;
+    }
+
+    /**
+     * Doubles the poll interval, capped at the given maximum.
+     */
+    static long nextPollInterval( long pollInterval, long maxPollInterval )
+    {
+        return Math.min( pollInterval * 2, maxPollInterval );
+    }
+
+    /**
+     * Estimates how far along a task is from how long it has been running and
+     * how long the previous task generating the same tables took. The
+     * estimate stays short of completion until DHIS2 says otherwise and is
+     * <code>NaN</code> when there is no previous task to go by.
+     */
+    static double estimateProgress( long elapsed, Long previousDuration )
+    {
+        if ( previousDuration == null || previousDuration <= 0 )
+        {
+            return Double.NaN;
+        }
+
+        return Math.min( (double) elapsed / previousDuration, MAX_ESTIMATED_PROGRESS );
+    }
+
+    private class Poll implements Runnable
+    {
+        private final Exchange exchange;
+
+        private final AsyncCallback callback;
+
+        private final AnalyticsTableTask task;
+
+        private long interval = pollInterval;
+
+        private int failures;
+
+        private String lastMessage;
+
+        Poll( Exchange exchange, AsyncCallback callback, AnalyticsTableTask task )
+        {
+            this.exchange = exchange;
+            this.callback = callback;
+            this.task = task;
+        }
+
+        @Override
+        public void run()
+        {
+            boolean completed = false;
+            try
+            {
+                completed = poll();
+                failures = 0;
+            }
+            catch ( T2AException e )
+            {
+                fail( e );
+                return;
+            }
+            catch ( Exception e )
+            {
+                if ( ++failures >= MAX_POLL_FAILURES )
+                {
+                    fail( new T2AException( String.format(
+                        "Gave up polling analytics table generation task '%s' after %s consecutive failures",
+                        task.getId(), failures ), e ) );
+                    return;
+                }
+                LOGGER.warn( "Failed to poll analytics table generation task '{}': {}", task.getId(),
+                    e.getMessage() );
+            }
+
+            if ( completed )
+            {
+                complete();
+                return;
+            }
+
+            long elapsed = System.currentTimeMillis() - task.getSubmitTime();
+            if ( elapsed >= timeout )
+            {
+                fail( new T2AException( String.format(
+                    "Analytics table generation task '%s' did not complete within %s ms. Last status: %s",
+                    task.getId(), timeout, lastMessage ) ) );
+                return;
+            }
+
+            double progress = estimateProgress( elapsed, previousDurations.get( task.getTables() ) );
+            pipelineMetrics.setAnalyticsTableProgress( task.getTables(), progress );
+            if ( Double.isNaN( progress ) )
+            {
+                LOGGER.info( "Analytics table generation task '{}' running for {} s: {}", task.getId(),
+                    elapsed / 1000, lastMessage );
+            }
+            else
+            {
+                LOGGER.info( "Analytics table generation task '{}' running for {} s (about {}% done): {}",
+                    task.getId(), elapsed / 1000, Math.round( progress * 100 ), lastMessage );
+            }
+
+            interval = nextPollInterval( interval, maxPollInterval );
+            scheduler.schedule( this, interval, TimeUnit.MILLISECONDS );
+        }
+
+        private boolean poll()
+            throws IOException
+        {
+            List<Map<String, Object>> notifications = getNotifications( task.getId() );
+            if ( !notifications.isEmpty() )
+            {
+                // DHIS2 lists the latest notification first
+                lastMessage = (String) notifications.get( 0 ).get( "message" );
+            }
+            for ( Map<String, Object> notification : notifications )
+            {
+                if ( "ERROR".equals( notification.get( "level" ) ) )
+                {
+                    throw new T2AException( String.format( "Analytics table generation task '%s' failed: %s",
+                        task.getId(), notification.get( "message" ) ) );
+                }
+                else if ( Boolean.TRUE.equals( notification.get( "completed" ) ) )
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+
+        private void complete()
+        {
+            long duration = System.currentTimeMillis() - task.getSubmitTime();
+            // the tables are generated whether or not the server date can be had
+            String serverDate = null;
+            try
+            {
+                serverDate = getServerDate();
+            }
+            catch ( Exception e )
+            {
+                LOGGER.warn( "Failed to get the server date on completing analytics table generation task '{}' "
+                    + "so event analytics will not be taken as fresh after it: {}", task.getId(), e.getMessage() );
+            }
+            previousDurations.put( task.getTables(), duration );
+            pipelineMetrics.recordAnalyticsTableGeneration( task.getTables(), duration );
+            pipelineMetrics.setAnalyticsTableProgress( task.getTables(), 1 );
+            analyticsFreshnessChecker.generationCompleted( task.isEvents(), serverDate );
+            if ( task.isResourceTables() )
+            {
+                exchange.setProperty( AnalyticsTableGenerator.RESOURCE_TABLES_GENERATED_PROPERTY, true );
+            }
+            LOGGER.info( "Analytics table generation task '{}' completed in {} s", task.getId(), duration / 1000 );
+            continuationExecutor.execute( () -> callback.done( false ) );
+        }
+
+        private void fail( Exception e )
+        {
+            exchange.setException( e );
+            continuationExecutor.execute( () -> callback.done( false ) );
+        }
+    }
+
+    List<Map<String, Object>> getNotifications( String taskId )
+        throws IOException
+    {
+        return dhis2Client.get( "system/tasks/ANALYTICS_TABLE/" + taskId ).transfer().returnAs( List.class );
+    }
+
+    String getServerDate()
+        throws IOException
+    {
+        return (String) dhis2Client.get( "system/info" ).withParameter( "fields", "serverDate" ).transfer()
+            .returnAs( Map.class ).get( "serverDate" );
+    }
+
+    public long getPollInterval()
+    {
+        return pollInterval;
+    }
+
+    public void setPollInterval( long pollInterval )
+    {
+        this.pollInterval = pollInterval;
+    }
+
+    public long getMaxPollInterval()
+    {
+        return maxPollInterval;
+    }
+
+    public void setMaxPollInterval( long maxPollInterval )
+    {
+        this.maxPollInterval = maxPollInterval;
+    }
+
+    public long getTimeout()
+    {
+        return timeout;
+    }
+
+    public void setTimeout( long timeout )
+    {
+        this.timeout = timeout;
+    }
+
+    public Dhis2Client getDhis2Client()
+    {
+        return dhis2Client;
+    }
+
+    public void setDhis2Client( Dhis2Client dhis2Client )
+    {
+        this.dhis2Client = dhis2Client;
+    }
+
+    public AnalyticsFreshnessChecker getAnalyticsFreshnessChecker()
+    {
+        return analyticsFreshnessChecker;
+    }
+
+    public void setAnalyticsFreshnessChecker( AnalyticsFreshnessChecker analyticsFreshnessChecker )
+    {
+        this.analyticsFreshnessChecker = analyticsFreshnessChecker;
+    }
+
+    public PipelineMetrics getPipelineMetrics()
+    {
+        return pipelineMetrics;
+    }
+
+    public void setPipelineMetrics( PipelineMetrics pipelineMetrics )
+    {
+        this.pipelineMetrics = pipelineMetrics;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.processor;
+
+import java.io.IOException;
+import java.time.Year;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.hisp.dhis.integration.sdk.api.Dhis2Client;
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.hisp.dhis.integration.t2a.model.AnalyticsTableTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Generates the analytics tables needed by the run and no more: the years
+ * covered by <code>periods</code>, event tables only before collecting,
+ * enrollment tables only when a program indicator is of the enrollment
+ * analytics type, aggregate tables only after pushing, and resource tables
+ * at most once per run. The tables to skip come from the
+ * <code>skipEvents</code> and <code>skipAggregate</code> headers. The
+ * <code>analyticsPeriods</code> exchange property, when set, narrows the
+ * years down to those covered by its periods instead of <code>periods</code>. The
+ * generation is only submitted here: the task is left in the
+ * <code>analyticsTableTask</code> exchange property for
+ * {@link AnalyticsTableAwaiter} to wait on.
+ */
+@Component
+public class AnalyticsTableGenerator implements Processor
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( AnalyticsTableGenerator.class );
+
+    public static final String RESOURCE_TABLES_GENERATED_PROPERTY = "resourceTablesGenerated";
+
+    public static final String ANALYTICS_TABLE_TASK_PROPERTY = "analyticsTableTask";
+
+    public static final String ANALYTICS_PERIODS_PROPERTY = "analyticsPeriods";
+
+    private static final Pattern ISO_PERIOD_PATTERN = Pattern.compile( "^(\\d{4})(.*)$" );
+
+    private static final Pattern WEEK_PATTERN = Pattern.compile( "^[A-Za-z]*W(\\d+)$" );
+
+    private static final Pattern LAST_YEARS_PATTERN = Pattern.compile( "^LAST_(\\d+)_(FINANCIAL_)?YEARS$" );
+
+    @Value( "${analytics.last.years:#{null}}" )
+    private Integer lastYears;
+
+    @Value( "${periods}" )
+    private String periods;
+
+    @Value( "${pi.group.id}" )
+    private String programIndicatorGroupId;
+
+    @Value( "${analytics.skip.resource.tables:false}" )
+    private boolean skipResourceTables;
+
+    @Autowired
+    private Dhis2Client dhis2Client;
+
+    @Autowired
+    private AnalyticsFreshnessChecker analyticsFreshnessChecker;
+
+    @Override
+    public void process( Exchange exchange )
+        throws Exception
+    {
+        boolean events = !"true".equals( exchange.getMessage().getHeader( "skipEvents", String.class ) );
+        boolean aggregate = !"true".equals( exchange.getMessage().getHeader( "skipAggregate", String.class ) );
+        boolean resourceTablesGenerated = exchange.getProperty( RESOURCE_TABLES_GENERATED_PROPERTY, false,
+            Boolean.class );
+
+        List<String> analyticsPeriods = exchange.getProperty( ANALYTICS_PERIODS_PROPERTY, List.class );
+
+        Map<String, String> parameters = new LinkedHashMap<>();
+        parameters.put( "lastYears", String.valueOf( lastYears != null ? lastYears
+            : getLastYears( analyticsPeriods != null ? analyticsPeriods : Arrays.asList( periods.split( "," ) ),
+                Year.now().getValue() ) ) );
+        parameters.put( "skipResourceTables", String.valueOf( skipResourceTables || resourceTablesGenerated ) );
+        parameters.put( "skipEvents", String.valueOf( !events ) );
+        parameters.put( "skipEnrollment", String.valueOf( !events || !hasEnrollmentProgramIndicators() ) );
+        parameters.put( "skipAggregate", String.valueOf( !aggregate ) );
+
+        LOGGER.info( "Generating analytics tables with {}", parameters );
+        analyticsFreshnessChecker.generationStarted( events, getServerDate() );
+        long submitTime = System.currentTimeMillis();
+        String taskId = submit( parameters );
+        LOGGER.info( "Submitted analytics table generation task '{}'", taskId );
+
+        exchange.setProperty( ANALYTICS_TABLE_TASK_PROPERTY, new AnalyticsTableTask( taskId,
+            events ? "events" : "aggregate", events, !skipResourceTables && !resourceTablesGenerated, submitTime ) );
+    }
+
+    /**
+     * Works out how many years of analytics, counting back from and including
+     * the current year, cover the given fixed or relative periods.
+     */
+    static int getLastYears( List<String> periods, int currentYear )
+    {
+        int earliestYear = currentYear;
+        for ( String period : periods )
+        {
+            earliestYear = Math.min( earliestYear, getEarliestYear( period.trim(), currentYear ) );
+        }
+
+        return currentYear - earliestYear + 1;
+    }
+
+    private static int getEarliestYear( String period, int currentYear )
+    {
+        Matcher isoPeriod = ISO_PERIOD_PATTERN.matcher( period );
+        if ( isoPeriod.matches() )
+        {
+            int year = Integer.parseInt( isoPeriod.group( 1 ) );
+            Matcher week = WEEK_PATTERN.matcher( isoPeriod.group( 2 ) );
+
+            // the first week of a year can start in the previous year
+            return week.matches() && Integer.parseInt( week.group( 1 ) ) == 1 ? year - 1 : year;
+        }
+
+        // relative financial periods can start in the year before the one they are relative to
+        int financialYearOffset = period.contains( "FINANCIAL" ) ? 1 : 0;
+        Matcher lastYears = LAST_YEARS_PATTERN.matcher( period );
+        if ( lastYears.matches() )
+        {
+            return currentYear - Integer.parseInt( lastYears.group( 1 ) ) - financialYearOffset;
+        }
+        else if ( period.equals( "TODAY" ) || period.startsWith( "THIS_" ) || period.endsWith( "_THIS_YEAR" ) )
+        {
+            return currentYear - financialYearOffset;
+        }
+        else if ( period.equals( "YESTERDAY" ) || period.startsWith( "LAST_" ) || period.endsWith( "_LAST_YEAR" ) )
+        {
+            return currentYear - 1 - financialYearOffset;
+        }
+
+        throw new T2AException( String.format(
+            "Bad configuration: cannot work out the analytics years of period '%s', set analytics.last.years instead",
+            period ) );
+    }
+
+    private boolean hasEnrollmentProgramIndicators()
+        throws IOException
+    {
+        Map<String, Object> programIndicatorGroup = dhis2Client
+            .get( "programIndicatorGroups/" + programIndicatorGroupId )
+            .withParameter( "fields", "programIndicators[analyticsType]" ).transfer().returnAs( Map.class );
+
+        return ((List<Map<String, Object>>) programIndicatorGroup.getOrDefault( "programIndicators", List.of() ))
+            .stream().anyMatch( programIndicator -> "ENROLLMENT".equals( programIndicator.get( "analyticsType" ) ) );
+    }
+
+    private String getServerDate()
+        throws IOException
+    {
+        return (String) dhis2Client.get( "system/info" ).withParameter( "fields", "serverDate" ).transfer()
+            .returnAs( Map.class ).get( "serverDate" );
+    }
+
+    private String submit( Map<String, String> parameters )
+        throws IOException
+    {
+        var operation = dhis2Client.post( "resourceTables/analytics" );
+        parameters.forEach( operation::withParameter );
+        Map<String, Object> webMessage = operation.transfer().returnAs( Map.class );
+
+        Object response = webMessage.get( "response" );
+        if ( !(response instanceof Map) || ((Map<String, Object>) response).get( "id" ) == null )
+        {
+            throw new T2AException( "Unexpected analytics table response: no task ID in " + webMessage );
+        }
+
+        return (String) ((Map<String, Object>) response).get( "id" );
+    }
+
+    public Integer getLastYears()
+    {
+        return lastYears;
+    }
+
+    public void setLastYears( Integer lastYears )
+    {
+        this.lastYears = lastYears;
+    }
+
+    public String getPeriods()
+    {
+        return periods;
+    }
+
+    public void setPeriods( String periods )
+    {
+        this.periods = periods;
+    }
+
+    public String getProgramIndicatorGroupId()
+    {
+        return programIndicatorGroupId;
+    }
+
+    public void setProgramIndicatorGroupId( String programIndicatorGroupId )
+    {
+        this.programIndicatorGroupId = programIndicatorGroupId;
+    }
+
+    public boolean isSkipResourceTables()
+    {
+        return skipResourceTables;
+    }
+
+    public void setSkipResourceTables( boolean skipResourceTables )
+    {
+        this.skipResourceTables = skipResourceTables;
+    }
+
+    public Dhis2Client getDhis2Client()
+    {
+        return dhis2Client;
+    }
+
+    public void setDhis2Client( Dhis2Client dhis2Client )
+    {
+        this.dhis2Client = dhis2Client;
+    }
+
+    public AnalyticsFreshnessChecker getAnalyticsFreshnessChecker()
+    {
+        return analyticsFreshnessChecker;
+    }
+
+    public void setAnalyticsFreshnessChecker( AnalyticsFreshnessChecker analyticsFreshnessChecker )
+    {
+        this.analyticsFreshnessChecker = analyticsFreshnessChecker;
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.processor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.hisp.dhis.integration.sdk.api.Dhis2Client;
+import org.hisp.dhis.integration.sdk.api.Dhis2Response;
+import org.hisp.dhis.integration.t2a.MetadataCache;
+import org.hisp.dhis.integration.t2a.PipelineMetrics;
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.hisp.dhis.integration.t2a.model.OrganisationUnitIds;
+import org.hisp.dhis.integration.t2a.route.T2ARouteBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Fetches the IDs of the organisation units at <code>org.unit.level</code>
+ * page by page. The first page tells how many pages there are; the rest are
+ * fetched concurrently. Each page is streamed straight into
+ * {@link OrganisationUnitIds} and the pages are joined in order, sorted by ID,
+ * so that every run sees the organisation units in the same order. With
+ * <code>metadata.cache</code> on, the organisation units come from the
+ * {@link MetadataCache} instead and are only fetched in full when the cache
+ * can no longer be brought up to date.
+ */
+@Component
+public class OrganisationUnitFetcher implements Processor
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( OrganisationUnitFetcher.class );
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Value( "${org.unit.level}" )
+    private int orgUnitLevel;
+
+    @Value( "${org.unit.page.size:5000}" )
+    private int pageSize;
+
+    @Value( "${org.unit.fetch.concurrency:4}" )
+    private int concurrency;
+
+    @Autowired
+    private Dhis2Client dhis2Client;
+
+    @Autowired
+    private MetadataCache metadataCache;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Override
+    public void process( Exchange exchange )
+        throws Exception
+    {
+        long startTime = System.currentTimeMillis();
+        exchange.setProperty( T2ARouteBuilder.ALL_ORG_UNITS_PROPERTY,
+            metadataCache.isEnabled() ? metadataCache.getOrganisationUnitIds( orgUnitLevel, this::fetch ) : fetch() );
+        pipelineMetrics.recordMetadataFetch( "organisationUnits", System.currentTimeMillis() - startTime );
+    }
+
+    public OrganisationUnitIds fetch()
+        throws IOException,
+        InterruptedException,
+        ExecutionException
+    {
+        if ( pageSize < 1 || concurrency < 1 )
+        {
+            throw new T2AException(
+                "Bad configuration: org.unit.page.size and org.unit.fetch.concurrency must be greater than 0" );
+        }
+
+        Page firstPage = fetchPage( 1 );
+        OrganisationUnitIds.Builder organisationUnitIds = OrganisationUnitIds.builder()
+            .addAll( firstPage.organisationUnitIds );
+
+        if ( firstPage.pageCount > 1 )
+        {
+            ExecutorService executorService = Executors.newFixedThreadPool(
+                Math.min( concurrency, firstPage.pageCount - 1 ) );
+            try
+            {
+                List<Future<Page>> pages = new ArrayList<>();
+                for ( int page = 2; page <= firstPage.pageCount; page++ )
+                {
+                    int pageNumber = page;
+                    pages.add( executorService.submit( () -> fetchPage( pageNumber ) ) );
+                }
+                for ( Future<Page> page : pages )
+                {
+                    organisationUnitIds.addAll( page.get().organisationUnitIds );
+                }
+            }
+            finally
+            {
+                executorService.shutdownNow();
+            }
+        }
+
+        LOGGER.info( "Fetched {} organisation unit/s at level {} in {} page/s", organisationUnitIds.size(),
+            orgUnitLevel, firstPage.pageCount );
+
+        return organisationUnitIds.build();
+    }
+
+    private Page fetchPage( int page )
+        throws IOException
+    {
+        try ( Dhis2Response response = dhis2Client.get( "organisationUnits" ).withParameter( "fields", "id" )
+            .withParameter( "filter", "level:eq:" + orgUnitLevel ).withParameter( "order", "id:asc" )
+            .withParameter( "page", String.valueOf( page ) )
+            .withParameter( "pageSize", String.valueOf( pageSize ) ).transfer();
+            InputStream inputStream = response.read();
+            JsonParser parser = JSON_FACTORY.createParser( inputStream ) )
+        {
+            return readPage( parser );
+        }
+    }
+
+    static Page readPage( JsonParser parser )
+        throws IOException
+    {
+        if ( parser.nextToken() != JsonToken.START_OBJECT )
+        {
+            throw new T2AException( "Unexpected organisation units response: page is not a JSON object" );
+        }
+
+        OrganisationUnitIds.Builder organisationUnitIds = OrganisationUnitIds.builder();
+        int pageCount = 1;
+        while ( parser.nextToken() == JsonToken.FIELD_NAME )
+        {
+            String fieldName = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ( fieldName.equals( "pager" ) && token == JsonToken.START_OBJECT )
+            {
+                while ( parser.nextToken() == JsonToken.FIELD_NAME )
+                {
+                    String pagerFieldName = parser.getCurrentName();
+                    parser.nextToken();
+                    if ( pagerFieldName.equals( "pageCount" ) )
+                    {
+                        pageCount = parser.getValueAsInt( 1 );
+                    }
+                    parser.skipChildren();
+                }
+            }
+            else if ( fieldName.equals( "organisationUnits" ) && token == JsonToken.START_ARRAY )
+            {
+                while ( parser.nextToken() == JsonToken.START_OBJECT )
+                {
+                    while ( parser.nextToken() == JsonToken.FIELD_NAME )
+                    {
+                        String organisationUnitFieldName = parser.getCurrentName();
+                        parser.nextToken();
+                        if ( organisationUnitFieldName.equals( "id" ) )
+                        {
+                            organisationUnitIds.add( parser.getText() );
+                        }
+                        parser.skipChildren();
+                    }
+                }
+            }
+            else
+            {
+                parser.skipChildren();
+            }
+        }
+
+        return new Page( organisationUnitIds.build(), pageCount );
+    }
+
+    static class Page
+    {
+        final OrganisationUnitIds organisationUnitIds;
+
+        final int pageCount;
+
+        Page( OrganisationUnitIds organisationUnitIds, int pageCount )
+        {
+            this.organisationUnitIds = organisationUnitIds;
+            this.pageCount = pageCount;
+        }
+    }
+
+    public int getOrgUnitLevel()
+    {
+        return orgUnitLevel;
+    }
+
+    public void setOrgUnitLevel( int orgUnitLevel )
+    {
+        this.orgUnitLevel = orgUnitLevel;
+    }
+
+    public int getPageSize()
+    {
+        return pageSize;
+    }
+
+    public void setPageSize( int pageSize )
+    {
+        this.pageSize = pageSize;
+    }
+
+    public int getConcurrency()
+    {
+        return concurrency;
+    }
+
+    public void setConcurrency( int concurrency )
+    {
+        this.concurrency = concurrency;
+    }
+
+    public Dhis2Client getDhis2Client()
+    {
+        return dhis2Client;
+    }
+
+    public void setDhis2Client( Dhis2Client dhis2Client )
+    {
+        this.dhis2Client = dhis2Client;
+    }
+
+    public MetadataCache getMetadataCache()
+    {
+        return metadataCache;
+    }
+
+    public void setMetadataCache( MetadataCache metadataCache )
+    {
+        this.metadataCache = metadataCache;
+    }
+
+    public PipelineMetrics getPipelineMetrics()
+    {
+        return pipelineMetrics;
+    }
+
+    public void setPipelineMetrics( PipelineMetrics pipelineMetrics )
+    {
+        this.pipelineMetrics = pipelineMetrics;
+    }
+}
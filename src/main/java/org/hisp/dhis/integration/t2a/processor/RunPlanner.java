@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.processor;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.Processor;
+import org.hisp.dhis.api.model.v2_37_7.Attribute;
+import org.hisp.dhis.api.model.v2_37_7.ProgramIndicator;
+import org.hisp.dhis.api.model.v2_37_7.ProgramIndicatorGroup;
+import org.hisp.dhis.integration.sdk.api.Dhis2Client;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+import org.hisp.dhis.integration.t2a.model.RunPlan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+/**
+ * Resolves the aggregate data element, category option combo and attribute
+ * option combo of each program indicator in the group before the run starts.
+ * Program indicators without a mapping, or mapped to a data element code
+ * unknown to DHIS2, are dropped from the run so that no analytics query is
+ * spent on them.
+ */
+@Component
+public class RunPlanner implements Processor
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger( RunPlanner.class );
+
+    // keeps the data element filter well within URL length limits
+    private static final int CODE_FILTER_BATCH_SIZE = 50;
+
+    @Value( "${aggr.data.export.attr.id:vudyDP7jUy5}" )
+    private String aggrDataExportAttrId;
+
+    @Value( "${plan.validate.data.elements:true}" )
+    private boolean validateDataElements;
+
+    @Autowired
+    private Dhis2Client dhis2Client;
+
+    @Override
+    public void process( Exchange exchange )
+    {
+        ProgramIndicatorGroup programIndicatorGroup = exchange.getMessage().getBody( ProgramIndicatorGroup.class );
+        RunPlan runPlan = plan( programIndicatorGroup.getProgramIndicators().orElse( List.of() ) );
+
+        runPlan.getDroppedProgramIndicators().forEach( ( id, reason ) -> LOGGER.warn(
+            "Skipping program indicator '{}': {}", id, reason ) );
+        LOGGER.info( "Planned {} program indicator/s for push, dropped {}", runPlan.getMappings().size(),
+            runPlan.getDroppedProgramIndicators().size() );
+
+        exchange.getMessage().setBody( runPlan );
+    }
+
+    public RunPlan plan( List<ProgramIndicator> programIndicators )
+    {
+        List<ProgramIndicatorMapping> mappings = new ArrayList<>();
+        Map<String, String> droppedProgramIndicators = new LinkedHashMap<>();
+        for ( ProgramIndicator programIndicator : programIndicators )
+        {
+            String id = programIndicator.getId().get();
+            Optional<String> dataElement = getAggregateDataExportDataElement( programIndicator );
+            if ( dataElement.isEmpty() )
+            {
+                droppedProgramIndicators.put( id,
+                    String.format( "no value for attribute '%s'", aggrDataExportAttrId ) );
+            }
+            else if ( !StringUtils.hasText( dataElement.get() ) )
+            {
+                droppedProgramIndicators.put( id,
+                    String.format( "blank value for attribute '%s'", aggrDataExportAttrId ) );
+            }
+            else
+            {
+                mappings.add( new ProgramIndicatorMapping( id, dataElement.get().trim(),
+                    programIndicator.getAggregateExportCategoryOptionCombo().filter( StringUtils::hasText )
+                        .orElse( null ),
+                    programIndicator.getAggregateExportAttributeOptionCombo().filter( StringUtils::hasText )
+                        .orElse( null ) ) );
+            }
+        }
+
+        if ( validateDataElements && !mappings.isEmpty() )
+        {
+            Set<String> knownDataElements = fetchDataElementCodes(
+                mappings.stream().map( ProgramIndicatorMapping::getDataElement ).collect( Collectors.toSet() ) );
+            mappings.removeIf( mapping -> {
+                if ( knownDataElements.contains( mapping.getDataElement() ) )
+                {
+                    return false;
+                }
+                droppedProgramIndicators.put( mapping.getProgramIndicatorId(),
+                    String.format( "no data element has code '%s'", mapping.getDataElement() ) );
+                return true;
+            } );
+        }
+
+        return new RunPlan( mappings, droppedProgramIndicators );
+    }
+
+    private Set<String> fetchDataElementCodes( Collection<String> codes )
+    {
+        List<String> pendingCodes = new ArrayList<>( codes );
+        Set<String> knownCodes = new HashSet<>();
+        for ( int i = 0; i < pendingCodes.size(); i += CODE_FILTER_BATCH_SIZE )
+        {
+            String filter = String.join( ",",
+                pendingCodes.subList( i, Math.min( i + CODE_FILTER_BATCH_SIZE, pendingCodes.size() ) ) );
+            Map<String, Object> dataElements = dhis2Client.get( "dataElements" )
+                .withParameter( "filter", "code:in:[" + filter + "]" ).withParameter( "fields", "code" )
+                .withParameter( "paging", "false" ).transfer().returnAs( Map.class );
+
+            ((List<Map<String, Object>>) dataElements.getOrDefault( "dataElements", List.of() ))
+                .forEach( dataElement -> knownCodes.add( (String) dataElement.get( "code" ) ) );
+        }
+
+        return knownCodes;
+    }
+
+    private Optional<String> getAggregateDataExportDataElement( ProgramIndicator programIndicator )
+    {
+        return programIndicator.getAttributeValues().orElse( List.of() ).stream()
+            .filter( av -> av.getAttribute().flatMap( Attribute::getId ).map( aggrDataExportAttrId::equals )
+                .orElse( false ) )
+            .findFirst().map( av -> av.getValue().orElse( "" ) );
+    }
+
+    public String getAggrDataExportAttrId()
+    {
+        return aggrDataExportAttrId;
+    }
+
+    public void setAggrDataExportAttrId( String aggrDataExportAttrId )
+    {
+        this.aggrDataExportAttrId = aggrDataExportAttrId;
+    }
+
+    public boolean isValidateDataElements()
+    {
+        return validateDataElements;
+    }
+
+    public void setValidateDataElements( boolean validateDataElements )
+    {
+        this.validateDataElements = validateDataElements;
+    }
+
+    public Dhis2Client getDhis2Client()
+    {
+        return dhis2Client;
+    }
+
+    public void setDhis2Client( Dhis2Client dhis2Client )
+    {
+        this.dhis2Client = dhis2Client;
+    }
+}
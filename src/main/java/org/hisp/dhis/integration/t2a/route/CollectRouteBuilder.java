@@ -30,8 +30,12 @@ package org.hisp.dhis.integration.t2a.route;
 import org.apache.camel.LoggingLevel;
 import org.apache.camel.builder.RouteBuilder;
 import org.hisp.dhis.api.model.v2_37_7.ProgramIndicatorGroup;
+import org.hisp.dhis.integration.t2a.MetadataCache;
+import org.hisp.dhis.integration.t2a.PipelineMetrics;
+import org.hisp.dhis.integration.t2a.processor.RunPlanner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -39,14 +43,34 @@ public class CollectRouteBuilder extends RouteBuilder
 {
     private static final Logger LOGGER = LoggerFactory.getLogger( CollectRouteBuilder.class );
 
+    @Autowired
+    private RunPlanner runPlanner;
+
+    @Autowired
+    private MetadataCache metadataCache;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
     @Override
     public void configure()
         throws Exception
     {
         from( "direct:collect" ).log( LoggingLevel.INFO, LOGGER, "Fetching program indicators..." )
+            .setProperty( "metadataStartTime", simple( "${bean:java.lang.System?method=currentTimeMillis}" ) )
+            .choice().when( simple( "'{{metadata.cache:false}}' == 'true'" ) )
+            .process( exchange -> exchange.getMessage()
+                .setBody( metadataCache.getProgramIndicatorGroup( exchange.getContext().resolvePropertyPlaceholders(
+                    "{{pi.group.id}}" ) ) ) )
+            .otherwise()
             .toD(
                 "dhis2://get/resource?path=programIndicatorGroups/{{pi.group.id}}&fields=programIndicators[id,name,aggregateExportCategoryOptionCombo,aggregateExportAttributeOptionCombo,attributeValues]&client=#dhis2Client" )
             .unmarshal().json( ProgramIndicatorGroup.class )
+            .end()
+            .process( e -> pipelineMetrics.recordMetadataFetch( "programIndicators",
+                System.currentTimeMillis() - e.getProperty( "metadataStartTime", Long.class ) ) )
+            .process( runPlanner )
+            .to( "direct:await-analytics" )
             .to( "direct:push" );
     }
 }
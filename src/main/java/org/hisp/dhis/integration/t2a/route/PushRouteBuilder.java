@@ -27,13 +27,44 @@
  */
 package org.hisp.dhis.integration.t2a.route;
 
+import static org.hisp.dhis.integration.t2a.processor.AnalyticsTableGenerator.ANALYTICS_PERIODS_PROPERTY;
+import static org.hisp.dhis.integration.t2a.route.T2ARouteBuilder.ANALYTICS_ROW_COUNT_PROPERTY;
+import static org.hisp.dhis.integration.t2a.route.T2ARouteBuilder.ANALYTICS_START_TIME_PROPERTY;
+import static org.hisp.dhis.integration.t2a.route.T2ARouteBuilder.DIMENSIONS_PROPERTY;
+import static org.hisp.dhis.integration.t2a.route.T2ARouteBuilder.FULL_PUSH_PROPERTY;
+import static org.hisp.dhis.integration.t2a.route.T2ARouteBuilder.PROGRAM_INDICATOR_DATA_VALUE_COUNTS_PROPERTY;
+import static org.hisp.dhis.integration.t2a.route.T2ARouteBuilder.PROGRAM_INDICATOR_ROW_COUNTS_PROPERTY;
+import static org.hisp.dhis.integration.t2a.route.T2ARouteBuilder.RESUMING_PROPERTY;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
+import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
+import org.apache.camel.ThreadPoolRejectedPolicy;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.builder.ThreadPoolBuilder;
-import org.hisp.dhis.api.model.v2_37_7.ListGrid;
+import org.apache.camel.support.service.ServiceSupport;
+import org.hisp.dhis.integration.t2a.CheckpointJournal;
+import org.hisp.dhis.integration.t2a.CompressionTotals;
+import org.hisp.dhis.integration.t2a.DataValueFingerprintStore;
+import org.hisp.dhis.integration.t2a.DataValueSetBatcher;
 import org.hisp.dhis.integration.t2a.DimensionSplitter;
+import org.hisp.dhis.integration.t2a.ImportTotals;
+import org.hisp.dhis.integration.t2a.ImportTracker;
+import org.hisp.dhis.integration.t2a.OrgUnitBatchSizer;
+import org.hisp.dhis.integration.t2a.PendingAggregateAnalytics;
+import org.hisp.dhis.integration.t2a.PipelineMetrics;
+import org.hisp.dhis.integration.t2a.cluster.ClusterWorkQueue;
+import org.hisp.dhis.integration.t2a.concurrent.AdaptiveConcurrencyLimiter;
+import org.hisp.dhis.integration.t2a.concurrent.ConcurrencyBudget;
+import org.hisp.dhis.integration.t2a.concurrent.PermitLimitedExecutorService;
+import org.hisp.dhis.integration.t2a.concurrent.VirtualThreads;
+import org.hisp.dhis.integration.t2a.http.Dhis2HttpClient;
+import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
 import org.hisp.dhis.integration.t2a.processor.AnalyticsGridQueryBuilder;
 import org.hisp.dhis.integration.t2a.processor.AnalyticsGridToDataValueSetQueryBuilder;
 import org.slf4j.Logger;
@@ -47,12 +78,74 @@ public class PushRouteBuilder extends RouteBuilder
 {
     private static final Logger LOGGER = LoggerFactory.getLogger( PushRouteBuilder.class );
 
+    private static final String DATA_VALUE_SET_PROPERTY = "dataValueSet";
+
+    private static final String IMPORT_START_TIME_PROPERTY = "importStartTime";
+
+    private static final String ANALYTICS_LATENCY_PROPERTY = "analyticsLatency";
+
+    private static final String LIMITER_ACQUIRED_PROPERTY = "analyticsLimiterAcquired";
+
+    private static final String BUDGET_ACQUIRED_PROPERTY = "analyticsBudgetAcquired";
+
+    // bounded so that fetching analytics can stay ahead of importing without piling up data value sets
+    private static final String IMPORT_QUEUE = "seda:import?size={{import.queue.size:10}}&blockWhenFull=true";
+
     @Value( "${thread.pool.size:1}" )
     private int threadPoolSize;
 
+    @Value( "${thread.virtual:false}" )
+    private boolean virtualThreads;
+
+    @Value( "${thread.virtual.permits:100}" )
+    private int virtualThreadPermits;
+
+    @Value( "${run.aggregate.analytics.skip.unchanged:true}" )
+    private boolean skipUnchangedAggregateAnalytics;
+
     @Autowired
     private DimensionSplitter dimensionSplitter;
 
+    @Autowired
+    private AdaptiveConcurrencyLimiter analyticsConcurrencyLimiter;
+
+    // shared by the jobs of a process hosting several of them
+    @Autowired( required = false )
+    private ConcurrencyBudget concurrencyBudget = ConcurrencyBudget.unlimited();
+
+    @Autowired
+    private OrgUnitBatchSizer orgUnitBatchSizer;
+
+    @Autowired
+    private ClusterWorkQueue clusterWorkQueue;
+
+    @Autowired
+    private DataValueSetBatcher dataValueSetBatcher;
+
+    @Autowired
+    private DataValueFingerprintStore dataValueFingerprintStore;
+
+    @Autowired
+    private ImportTracker importTracker;
+
+    @Autowired
+    private ImportTotals importTotals;
+
+    @Autowired
+    private PendingAggregateAnalytics pendingAggregateAnalytics;
+
+    @Autowired
+    private CompressionTotals compressionTotals;
+
+    @Autowired
+    private Dhis2HttpClient dhis2HttpClient;
+
+    @Autowired
+    private CheckpointJournal checkpointJournal;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
     @Autowired
     private AnalyticsGridToDataValueSetQueryBuilder analyticsGridToDataValueSetQueryBuilder;
 
@@ -63,23 +156,312 @@ public class PushRouteBuilder extends RouteBuilder
     public void configure()
         throws Exception
     {
-        ThreadPoolBuilder builder = new ThreadPoolBuilder( getContext() );
-        ExecutorService programIndicatorPool = builder.poolSize( threadPoolSize ).maxPoolSize( threadPoolSize ).build();
+        ExecutorService programIndicatorPool;
+        if ( virtualThreads )
+        {
+            // blocking on the analytics queries is cheap on virtual threads so the permits alone bound them; the
+            // data value set imports are queued to the import route and run on its own consumer threads
+            LOGGER.info( "Processing program indicators on virtual threads with up to {} analytics request/s in flight",
+                virtualThreadPermits );
+            programIndicatorPool = new PermitLimitedExecutorService(
+                VirtualThreads.newThreadPerTaskExecutor( "t2a-push-" ), virtualThreadPermits );
+            // Camel only shuts down the pools it creates, as the ThreadPoolBuilder one below
+            ExecutorService virtualThreadPool = programIndicatorPool;
+            getContext().addService( new ServiceSupport()
+            {
+                @Override
+                protected void doStop()
+                {
+                    getContext().getExecutorServiceManager().shutdownGraceful( virtualThreadPool );
+                }
+            } );
+        }
+        else
+        {
+            ThreadPoolBuilder builder = new ThreadPoolBuilder( getContext() );
+            builder.poolSize( threadPoolSize ).maxPoolSize( threadPoolSize )
+                .rejectedPolicy( ThreadPoolRejectedPolicy.CallerRuns );
+            if ( orgUnitBatchSizer.isAdaptive() )
+            {
+                // keep the splitter from running far ahead of the batch size decisions
+                builder.maxQueueSize( threadPoolSize );
+            }
+            programIndicatorPool = builder.build();
+        }
+        pipelineMetrics.monitor( programIndicatorPool );
+        pipelineMetrics.monitor( analyticsConcurrencyLimiter );
 
         from( "direct:push" ).streamCaching( "true" )
-            .split( method( dimensionSplitter, "split" ) )
+            .process( e -> dataValueSetBatcher.clear() )
+            .process( e -> importTracker.reset() )
+            .process( e -> importTotals.reset() )
+            .process( e -> compressionTotals.reset() )
+            .process( e -> dhis2HttpClient.warmUp() )
+            .process( e -> dataValueFingerprintStore.begin( e.getProperty( FULL_PUSH_PROPERTY, false,
+                Boolean.class ) ) )
+            .choice().when( e -> clusterWorkQueue.isCoordinator() )
+            .process( e -> clusterWorkQueue.publish( e, dimensionSplitter.split( e ) ) )
+            .end()
+            .to( "direct:push-dimensions" )
+            .choice().when( e -> clusterWorkQueue.isCoordinator() )
+            .process( e -> clusterWorkQueue.finishRun( e, importTotals ) )
+            .end()
+            // recorded before the fingerprints are committed so that the changes behind them are never lost track of
+            .process( e -> {
+                if ( skipUnchangedAggregateAnalytics )
+                {
+                    recordPendingAggregateAnalytics( e );
+                }
+            } )
+            .process( e -> dataValueFingerprintStore.commit() )
+            .process( e -> checkpointJournal.complete() )
+            .process( e -> LOGGER.info( "Imported data value sets: {}", importTotals ) )
+            .process( e -> LOGGER.info( "Transferred analytics and data value sets: {}", compressionTotals ) )
+            .process( e -> pipelineMetrics.setRunCompression( compressionTotals ) )
+            .process( e -> dhis2HttpClient.logPoolStatistics() )
+            .setHeader( "skipAggregate", constant( "false" ) )
+            .setHeader( "skipEvents", constant( "true" ) )
+            .choice().when( e -> skipUnchangedAggregateAnalytics && !pendingAggregateAnalytics.isPending() )
+            .log( LoggingLevel.INFO, LOGGER,
+                "Skipping aggregate analytics because no data values were created, updated or deleted" )
+            .otherwise()
+            .process( e -> {
+                if ( skipUnchangedAggregateAnalytics )
+                {
+                    e.setProperty( ANALYTICS_PERIODS_PROPERTY, pendingAggregateAnalytics.getPeriods() );
+                }
+            } )
+            .to( "direct:run-analytics" )
+            // only reached once the tables are generated, a failed generation leaving the periods to the next run
+            .process( e -> pendingAggregateAnalytics.clear() )
+            .end();
+
+        // the held back data values are only checked for while there are dimensions to push
+        from( "direct:push-dimensions" )
+            .process( e -> e.getContext().getRouteController().startRoute( "flushRoute" ) )
+            .doTry()
+            .to( "direct:push-dimension-items" )
+            .doFinally()
+            .process( e -> e.getContext().getRouteController().stopRoute( "flushRoute" ) )
+            .end();
+
+        // in a cluster, the dimensions come from the work items claimed by this node
+        from( "direct:push-dimension-items" )
+            .split( clusterWorkQueue.isEnabled() ? method( clusterWorkQueue, "claim" )
+                : method( dimensionSplitter, "split" ) )
+            .streaming()
             .stopOnException()
             .executorService( programIndicatorPool )
+            .process( e -> importTracker.checkFailure() )
             .log( LoggingLevel.INFO, LOGGER,
-                "Processing program indicator '${body.programIndicator.id.get}' for period/s '${body.periods}' and organisation unit/s '${body.organisationUnitIds}'" )
+                "Processing program indicator/s '${body.programIndicatorIds}' for period/s '${body.periods}' and organisation unit/s '${body.organisationUnitIds}'" )
             .process( analyticsGridQueryBuilder )
-            .to( "dhis2://get/resource?path=analytics&client=#dhis2Client" ).unmarshal().json( ListGrid.class )
+            .doTry()
+            .process( e -> {
+                analyticsConcurrencyLimiter.acquire();
+                e.setProperty( LIMITER_ACQUIRED_PROPERTY, true );
+            } )
+            .process( e -> {
+                concurrencyBudget.acquire();
+                e.setProperty( BUDGET_ACQUIRED_PROPERTY, true );
+            } )
+            .setProperty( ANALYTICS_START_TIME_PROPERTY,
+                simple( "${bean:java.lang.System?method=currentTimeMillis}" ) )
+            .process( e -> e.getMessage().setBody( dhis2HttpClient.get( "analytics",
+                e.getMessage().getHeader( Dhis2HttpClient.QUERY_PARAMS_HEADER, Map.class ) ) ) )
+            // DHIS2 only answers once the grid is ready, so the time taken by the rest of the route is T2A's own
+            .process( e -> e.setProperty( ANALYTICS_LATENCY_PROPERTY, getAnalyticsLatency( e ) ) )
+            .process( e -> releaseAnalyticsPermits( e, true ) )
+            .process( e -> pipelineMetrics.recordAnalytics( e.getProperty( DIMENSIONS_PROPERTY, Dimensions.class ),
+                getAnalyticsLatency( e ), true ) )
+            .doCatch( Exception.class )
+            .process( e -> releaseAnalyticsPermits( e, false ) )
+            .process( e -> {
+                // no query was sent when acquiring a permit failed
+                if ( e.getProperty( ANALYTICS_START_TIME_PROPERTY ) != null )
+                {
+                    pipelineMetrics.recordAnalytics( e.getProperty( DIMENSIONS_PROPERTY, Dimensions.class ),
+                        getAnalyticsLatency( e ), false );
+                }
+            } )
+            .process( e -> {
+                throw e.getProperty( Exchange.EXCEPTION_CAUGHT, Exception.class );
+            } )
+            .end()
             .process( analyticsGridToDataValueSetQueryBuilder )
-            .to( "dhis2://post/resource?path=dataValueSets&inBody=resource&client=#dhis2Client" )
-            .log( LoggingLevel.DEBUG, LOGGER, "HTTP POST {{dhis2.api.url}}/dataValueSets Response => ${body}" )
+            .process( e -> pipelineMetrics.recordAnalyticsResult(
+                e.getProperty( DIMENSIONS_PROPERTY, Dimensions.class ),
+                e.getProperty( PROGRAM_INDICATOR_ROW_COUNTS_PROPERTY, int[].class ),
+                e.getProperty( PROGRAM_INDICATOR_DATA_VALUE_COUNTS_PROPERTY, int[].class ) ) )
+            .process( e -> checkpointJournal.register( e.getProperty( DIMENSIONS_PROPERTY, Dimensions.class ),
+                e.getMessage().getBody( EncodedDataValues.class ).size() > 0 ) )
+            .process( e -> clusterWorkQueue.register( e.getProperty( DIMENSIONS_PROPERTY, Dimensions.class ),
+                e.getMessage().getBody( EncodedDataValues.class ).size() > 0 ) )
+            .process( e -> orgUnitBatchSizer.record(
+                e.getProperty( DIMENSIONS_PROPERTY, Dimensions.class ).getOrganisationUnitCount(),
+                getAnalyticsLatency( e ),
+                e.getProperty( ANALYTICS_ROW_COUNT_PROPERTY, Integer.class ) ) )
+            .split( method( dataValueSetBatcher, "add" ) ).stopOnException()
+            .process( this::submitImport )
+            .to( IMPORT_QUEUE + "&waitForTaskToComplete=Never" )
             .end()
-            .setHeader( "skipAggregate", constant( "false" ) )
-            .setHeader( "skipEvents", constant( "true" ) )
-            .to( "direct:run-analytics" );
+            .end()
+            .split( method( dataValueSetBatcher, "flush" ) ).stopOnException()
+            .process( this::submitImport )
+            .to( IMPORT_QUEUE + "&waitForTaskToComplete=Never" )
+            .end()
+            .process( e -> importTracker.awaitCompletion() );
+
+        if ( clusterWorkQueue.isWorker() )
+        {
+            from( "quartz://t2a/cluster?trigger.repeatInterval={{cluster.poll.interval:5000}}"
+                + "&trigger.repeatCount=-1&stateful=true" )
+                .routeId( "clusterWorkerRoute" )
+                .setProperty( ClusterWorkQueue.CLUSTER_RUN_PROPERTY, method( clusterWorkQueue, "findOpenRun" ) )
+                .filter( exchangeProperty( ClusterWorkQueue.CLUSTER_RUN_PROPERTY ).isNotNull() )
+                .log( LoggingLevel.INFO, LOGGER,
+                    "Claiming work items of run '${exchangeProperty." + ClusterWorkQueue.CLUSTER_RUN_PROPERTY + "}'" )
+                .process( e -> dataValueSetBatcher.clear() )
+                .process( e -> importTracker.reset() )
+                .process( e -> importTotals.reset() )
+                .process( e -> compressionTotals.reset() )
+                .process( e -> dhis2HttpClient.warmUp() )
+                .doTry()
+                .to( "direct:push-dimensions" )
+                .process( e -> clusterWorkQueue.report( e, importTotals ) )
+                .process( e -> clusterWorkQueue.completeClaims() )
+                .process( e -> LOGGER.info( "Imported data value sets: {}", importTotals ) )
+                .process( e -> LOGGER.info( "Transferred analytics and data value sets: {}", compressionTotals ) )
+                .process( e -> dhis2HttpClient.logPoolStatistics() )
+                .doCatch( Exception.class )
+                .process( e -> clusterWorkQueue.releaseClaims() )
+                .log( LoggingLevel.ERROR, LOGGER,
+                    "Released work items after failing to process them: ${exception.message}" )
+                .end();
+        }
+
+        // releases the data values held back for too long while no more arrive, e.g., behind a slow analytics query;
+        // started and stopped by direct:push-dimensions
+        long flushCheckInterval = Math.max( 1, Math.min( dataValueSetBatcher.getFlushInterval(), 1000 ) );
+        from( "quartz://t2a/flush?trigger.repeatInterval=" + flushCheckInterval
+            + "&trigger.repeatCount=-1&stateful=true" )
+            .routeId( "flushRoute" ).autoStartup( false )
+            .process( e -> e.getMessage().setBody( flushExpiredDataValues() ) )
+            .split( body() )
+            .to( IMPORT_QUEUE + "&waitForTaskToComplete=Never" )
+            .end();
+
+        from( IMPORT_QUEUE + "&concurrentConsumers={{import.concurrent.consumers:1}}" ).routeId( "importRoute" )
+            .setProperty( DATA_VALUE_SET_PROPERTY, body() )
+            .setProperty( IMPORT_START_TIME_PROPERTY, simple( "${bean:java.lang.System?method=currentTimeMillis}" ) )
+            .doTry()
+            .to( "direct:import" )
+            .process( e -> pipelineMetrics.recordImport( e.getProperty( DATA_VALUE_SET_PROPERTY,
+                EncodedDataValues.class ), getImportLatency( e ), e.getMessage().getBody( String.class ) ) )
+            .process( e -> {
+                EncodedDataValues dataValueSet = e.getProperty( DATA_VALUE_SET_PROPERTY, EncodedDataValues.class );
+                // data values DHIS2 did not take keep their last fingerprint so that the next run pushes them again
+                if ( importTotals.add( dataValueSet, e.getMessage().getBody( String.class ) ) )
+                {
+                    dataValueFingerprintStore.imported( dataValueSet );
+                }
+            } )
+            .process( e -> checkpointJournal.imported( e.getProperty( DATA_VALUE_SET_PROPERTY,
+                EncodedDataValues.class ) ) )
+            .process( e -> clusterWorkQueue.imported( e.getProperty( DATA_VALUE_SET_PROPERTY,
+                EncodedDataValues.class ) ) )
+            .process( e -> importTracker.completed() )
+            .doCatch( Exception.class )
+            .process( e -> pipelineMetrics.recordImport( e.getProperty( DATA_VALUE_SET_PROPERTY,
+                EncodedDataValues.class ), getImportLatency( e ), null ) )
+            .process( e -> importTracker.failed( e.getProperty( Exchange.EXCEPTION_CAUGHT, Exception.class ) ) )
+            .end();
+
+        from( "direct:import" )
+            .setHeader( Dhis2HttpClient.QUERY_PARAMS_HEADER,
+                constant( Map.of( "dataElementIdScheme", List.of( "CODE" ), "categoryOptionComboIdScheme",
+                    List.of( "CODE" ), "importStrategy", List.of( "CREATE_AND_UPDATE" ), "dryRun",
+                    List.of( "false" ) ) ) )
+            .log( LoggingLevel.DEBUG, LOGGER, "Importing ${body.size()} data value/s" )
+            .process( e -> e.getMessage().setBody( dhis2HttpClient.post( "dataValueSets",
+                e.getMessage().getHeader( Dhis2HttpClient.QUERY_PARAMS_HEADER, Map.class ),
+                e.getMessage().getBody() ) ) )
+            .log( LoggingLevel.DEBUG, LOGGER, "HTTP POST {{dhis2.api.url}}/dataValueSets Response => ${body}" );
+    }
+
+    private void submitImport( Exchange exchange )
+    {
+        importTracker.submitted();
+        checkpointJournal.submitted( exchange.getMessage().getBody( EncodedDataValues.class ) );
+        clusterWorkQueue.submitted( exchange.getMessage().getBody( EncodedDataValues.class ) );
+    }
+
+    private void recordPendingAggregateAnalytics( Exchange exchange )
+        throws IOException
+    {
+        // the imports of an interrupted run are not in the totals so a resumed run cannot tell what changed
+        if ( exchange.getProperty( RESUMING_PROPERTY, false, Boolean.class ) )
+        {
+            pendingAggregateAnalytics.addAll();
+        }
+        else
+        {
+            pendingAggregateAnalytics.add( importTotals.getChangedPeriods() );
+        }
+    }
+
+    private List<EncodedDataValues> flushExpiredDataValues()
+        throws IOException
+    {
+        // submitted before the batcher is unlocked so that the push cannot finish in between
+        synchronized ( dataValueSetBatcher )
+        {
+            List<EncodedDataValues> dataValueSets = dataValueSetBatcher.flushExpired();
+            for ( EncodedDataValues dataValueSet : dataValueSets )
+            {
+                importTracker.submitted();
+                checkpointJournal.submitted( dataValueSet );
+                clusterWorkQueue.submitted( dataValueSet );
+            }
+            return dataValueSets;
+        }
+    }
+
+    /**
+     * Gives back whichever of the analytics concurrency limiter and budget
+     * permits the exchange holds. A query which was never sent leaves the
+     * limit as it is.
+     */
+    private void releaseAnalyticsPermits( Exchange exchange, boolean success )
+    {
+        if ( exchange.removeProperty( BUDGET_ACQUIRED_PROPERTY ) != null )
+        {
+            concurrencyBudget.release();
+        }
+        if ( exchange.removeProperty( LIMITER_ACQUIRED_PROPERTY ) != null )
+        {
+            if ( exchange.getProperty( ANALYTICS_START_TIME_PROPERTY ) == null )
+            {
+                analyticsConcurrencyLimiter.cancel();
+            }
+            else
+            {
+                analyticsConcurrencyLimiter.release( getAnalyticsLatency( exchange ),
+                    exchange.getProperty( DIMENSIONS_PROPERTY, Dimensions.class ).getOrganisationUnitCount(), success );
+            }
+        }
+    }
+
+    private static long getAnalyticsLatency( Exchange exchange )
+    {
+        Long latency = exchange.getProperty( ANALYTICS_LATENCY_PROPERTY, Long.class );
+
+        return latency != null ? latency
+            : System.currentTimeMillis() - exchange.getProperty( ANALYTICS_START_TIME_PROPERTY, Long.class );
+    }
+
+    private static long getImportLatency( Exchange exchange )
+    {
+        return System.currentTimeMillis() - exchange.getProperty( IMPORT_START_TIME_PROPERTY, Long.class );
     }
 }
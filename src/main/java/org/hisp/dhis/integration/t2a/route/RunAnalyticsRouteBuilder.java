@@ -32,8 +32,11 @@ import java.util.Map;
 
 import org.apache.camel.LoggingLevel;
 import org.apache.camel.builder.RouteBuilder;
+import org.hisp.dhis.integration.t2a.processor.AnalyticsTableAwaiter;
+import org.hisp.dhis.integration.t2a.processor.AnalyticsTableGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
@@ -41,16 +44,30 @@ public class RunAnalyticsRouteBuilder extends RouteBuilder
 {
     private static final Logger LOGGER = LoggerFactory.getLogger( RunAnalyticsRouteBuilder.class );
 
+    @Autowired
+    private AnalyticsTableGenerator analyticsTableGenerator;
+
+    @Autowired
+    private AnalyticsTableAwaiter analyticsTableAwaiter;
+
     @Override
     public void configure()
         throws Exception
     {
-        from( "direct:run-analytics" ).routeId( "scheduleAnalyticsRoute" )
+        from( "direct:run-analytics" ).to( "direct:submit-analytics" ).to( "direct:await-analytics" );
+
+        from( "direct:submit-analytics" ).routeId( "scheduleAnalyticsRoute" )
             .log( LoggingLevel.INFO, LOGGER, "Scheduling analytics task..." )
+            // DHIS2 invalidates its analytics cache once the tables are generated so clearing every cache is opt-in
+            .choice().when( simple( "'{{analytics.cache.clear:false}}' == 'true'" ) )
             .setHeader( "CamelDhis2.queryParams", constant( Map.of( "cacheClear", List.of( "true" ) ) ) )
             .to( "dhis2://post/resource?path=maintenance&client=#dhis2Client" )
-            .toD(
-                "dhis2://resourceTables/analytics?skipAggregate=${header.skipAggregate}&skipEvents=${header.skipEvents}&lastYears={{analytics.last.years:1}}&client=#dhis2Client" )
+            .end()
+            .process( analyticsTableGenerator );
+
+        // a no-op when no analytics task was submitted, for instance because event analytics are fresh
+        from( "direct:await-analytics" ).routeId( "awaitAnalyticsRoute" )
+            .process( analyticsTableAwaiter )
             .log( LoggingLevel.INFO, LOGGER, "Analytics task completed" );
     }
 }
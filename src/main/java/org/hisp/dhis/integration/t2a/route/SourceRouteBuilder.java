@@ -27,20 +27,73 @@
  */
 package org.hisp.dhis.integration.t2a.route;
 
+import static org.hisp.dhis.integration.t2a.route.T2ARouteBuilder.RUN_ID_HEADER;
+
+import org.apache.camel.Exchange;
 import org.apache.camel.builder.RouteBuilder;
+import org.hisp.dhis.integration.t2a.DataValueFingerprintStore;
+import org.hisp.dhis.integration.t2a.PipelineMetrics;
+import org.hisp.dhis.integration.t2a.RunCoordinator;
+import org.hisp.dhis.integration.t2a.cluster.ClusterWorkQueue;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 @Component
 public class SourceRouteBuilder extends RouteBuilder
 {
+    private static final String START_RUN_PROPERTY = "startRun";
+
+    @Autowired
+    private DataValueFingerprintStore dataValueFingerprintStore;
+
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
+
+    @Autowired
+    private RunCoordinator runCoordinator;
+
+    @Autowired
+    private ClusterWorkQueue clusterWorkQueue;
+
     @Override
     public void configure()
     {
         from( "jetty:{{http.endpoint.uri:http://localhost:8081/dhis2/t2a}}" )
-            .removeHeaders( "*" )
-            .to( "seda:t2a?waitForTaskToComplete=never" );
+            .choice().when( header( Exchange.HTTP_METHOD ).isEqualTo( "DELETE" ) )
+            .bean( dataValueFingerprintStore, "invalidate" )
+            .when( e -> clusterWorkQueue.isWorker() )
+            .setHeader( Exchange.HTTP_RESPONSE_CODE, constant( 409 ) )
+            .setHeader( Exchange.CONTENT_TYPE, constant( "text/plain; charset=utf-8" ) )
+            .setBody( constant( "Runs are triggered on the coordinator node of the cluster" ) )
+            .otherwise()
+            .to( "direct:trigger" )
+            .setHeader( Exchange.HTTP_RESPONSE_CODE, constant( 202 ) )
+            .setHeader( Exchange.CONTENT_TYPE, constant( "text/plain; charset=utf-8" ) )
+            .setBody( header( RUN_ID_HEADER ) )
+            .end();
+
+        from( "jetty:{{metrics.endpoint.uri:http://localhost:8081/dhis2/t2a/metrics}}" )
+            .setHeader( Exchange.CONTENT_TYPE, constant( "text/plain; version=0.0.4; charset=utf-8" ) )
+            .setBody( method( pipelineMetrics, "scrape" ) );
+
+        // workers only process the runs published by the coordinator
+        if ( !clusterWorkQueue.isWorker() )
+        {
+            from( "quartz://t2a?cron={{schedule.expression:0 0 0 * * ?}}" )
+                .to( "direct:trigger" );
+        }
 
-        from( "quartz://t2a?cron={{schedule.expression:0 0 0 * * ?}}" )
-            .to( "seda:t2a" );
+        // triggers arriving during a run collapse into a single follow-up run started when the run finishes
+        from( "direct:trigger" ).routeId( "triggerRoute" )
+            .removeHeaders( "*", "fullPush" )
+            .process( exchange -> {
+                RunCoordinator.Run run = runCoordinator.trigger(
+                    "true".equals( exchange.getMessage().getHeader( "fullPush", String.class ) ) );
+                exchange.getMessage().setHeader( RUN_ID_HEADER, run.getId() );
+                exchange.setProperty( START_RUN_PROPERTY, run.isStart() );
+            } )
+            .choice().when( exchangeProperty( START_RUN_PROPERTY ).isEqualTo( true ) )
+            .to( "seda:t2a?waitForTaskToComplete=never" )
+            .end();
     }
 }
@@ -27,12 +27,23 @@
  */
 package org.hisp.dhis.integration.t2a.route;
 
+import java.util.List;
+import java.util.Map;
+
+import org.apache.camel.Exchange;
 import org.apache.camel.LoggingLevel;
+import org.apache.camel.ProducerTemplate;
 import org.apache.camel.builder.RouteBuilder;
 import org.apache.camel.builder.ThreadPoolProfileBuilder;
 import org.apache.camel.spi.ThreadPoolProfile;
+import org.hisp.dhis.integration.t2a.CheckpointJournal;
+import org.hisp.dhis.integration.t2a.RunCoordinator;
+import org.hisp.dhis.integration.t2a.cluster.ClusterWorkQueue;
+import org.hisp.dhis.integration.t2a.processor.AnalyticsFreshnessChecker;
+import org.hisp.dhis.integration.t2a.processor.OrganisationUnitFetcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 /**
@@ -48,6 +59,40 @@ public class T2ARouteBuilder extends RouteBuilder
 
     public static final String ALL_ORG_UNITS_PROPERTY = "ous";
 
+    public static final String ANALYTICS_START_TIME_PROPERTY = "analyticsStartTime";
+
+    public static final String ANALYTICS_ROW_COUNT_PROPERTY = "analyticsRowCount";
+
+    public static final String PROGRAM_INDICATOR_ROW_COUNTS_PROPERTY = "programIndicatorRowCounts";
+
+    public static final String PROGRAM_INDICATOR_DATA_VALUE_COUNTS_PROPERTY = "programIndicatorDataValueCounts";
+
+    public static final String FULL_PUSH_PROPERTY = "fullPush";
+
+    public static final String RESUMING_PROPERTY = "resuming";
+
+    public static final String RUN_ID_HEADER = "runId";
+
+    public static final String RUN_ID_PROPERTY = "runId";
+
+    @Autowired
+    private CheckpointJournal checkpointJournal;
+
+    @Autowired
+    private OrganisationUnitFetcher organisationUnitFetcher;
+
+    @Autowired
+    private AnalyticsFreshnessChecker analyticsFreshnessChecker;
+
+    @Autowired
+    private RunCoordinator runCoordinator;
+
+    @Autowired
+    private ClusterWorkQueue clusterWorkQueue;
+
+    @Autowired
+    private ProducerTemplate producerTemplate;
+
     @Override
     public void configure()
     {
@@ -55,18 +100,42 @@ public class T2ARouteBuilder extends RouteBuilder
         camelDhis2ThreadProfile.setMaxQueueSize( -1 );
         getContext().getExecutorServiceManager().registerThreadPoolProfile( camelDhis2ThreadProfile );
 
-        from( "seda:t2a" ).setProperty( "startTime", simple( "${bean:java.lang.System?method=currentTimeMillis}" ) )
+        from( "seda:t2a" ).onCompletion().process( this::finishRun ).end()
+            .setProperty( RUN_ID_PROPERTY, header( RUN_ID_HEADER ) )
+            .setProperty( "startTime", simple( "${bean:java.lang.System?method=currentTimeMillis}" ) )
             .streamCaching( "true" )
+            .setProperty( FULL_PUSH_PROPERTY, header( "fullPush" ).convertTo( Boolean.class ) )
             .log( LoggingLevel.INFO, LOGGER, "Fetching organisation units..." )
-            .toD(
-                "dhis2://get/resource?path=organisationUnits&fields=id&filter=level:eq:{{org.unit.level}}&client=#dhis2Client" )
-            .setProperty( ALL_ORG_UNITS_PROPERTY, jsonpath( "$.organisationUnits..id" ) )
+            .process( organisationUnitFetcher )
+            .process( e -> e.setProperty( RESUMING_PROPERTY,
+                checkpointJournal.open( e.getProperty( ALL_ORG_UNITS_PROPERTY, List.class ) ) ) )
             .setHeader( "skipAggregate", constant( "true" ) )
             .setHeader( "skipEvents", constant( "false" ) )
-            .choice().when( simple( "{{run.event.analytics:true}}" ) ).to( "direct:run-analytics" ).end()
+            // an interrupted run only leaves a checkpoint behind after it has run event analytics
+            .choice().when( simple( "${exchangeProperty." + RESUMING_PROPERTY
+                + "} != true && '{{run.event.analytics:true}}' == 'true'" ) )
+            .process( analyticsFreshnessChecker )
+            .choice().when( simple( "${exchangeProperty." + AnalyticsFreshnessChecker.EVENT_ANALYTICS_FRESH_PROPERTY
+                + "} != true" ) )
+            // collecting awaits the generation once it has the program indicators and the run plan in hand
+            .to( "direct:submit-analytics" ).end()
+            .end()
             .to( "direct:collect" )
             .process( e -> e.getIn()
                 .setBody( (System.currentTimeMillis() - e.getProperty( "startTime", Long.class )) / 1000 ) )
             .log( LoggingLevel.INFO, LOGGER, "Aggregated program indicators in ${body} seconds" );
     }
+
+    private void finishRun( Exchange exchange )
+    {
+        // stops the workers from claiming the items of a run which failed on the coordinator
+        clusterWorkQueue.close( exchange.getProperty( ClusterWorkQueue.CLUSTER_RUN_PROPERTY, String.class ) );
+        RunCoordinator.Run nextRun = runCoordinator.finish( exchange.getProperty( RUN_ID_PROPERTY, String.class ) );
+        if ( nextRun != null )
+        {
+            // a fresh exchange so that nothing of the finished run leaks into the next one
+            producerTemplate.sendBodyAndHeaders( "seda:t2a?waitForTaskToComplete=never", null,
+                Map.of( RUN_ID_HEADER, nextRun.getId(), "fullPush", String.valueOf( nextRun.isFullPush() ) ) );
+        }
+    }
 }
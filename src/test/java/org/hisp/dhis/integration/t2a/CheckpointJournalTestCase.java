@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+
+import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CheckpointJournalTestCase
+{
+    private static final List<String> ORG_UNITS = List.of( "A", "B", "C" );
+
+    @TempDir
+    Path tempDir;
+
+    private Path journalPath;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        journalPath = tempDir.resolve( "checkpoint.journal" );
+    }
+
+    @Test
+    public void testDimensionsAreJournaledOnceAllTheirDataValueSetsAreImported()
+        throws IOException
+    {
+        CheckpointJournal checkpointJournal = createJournal( "2022Q1" );
+        assertFalse( checkpointJournal.open( ORG_UNITS ) );
+
+        DataValueSetBatcher dataValueSetBatcher = new DataValueSetBatcher();
+        dataValueSetBatcher.setBatchSize( 3 );
+        dataValueSetBatcher.setFlushInterval( Long.MAX_VALUE );
+
+        Dimensions first = createDimensions( "A" );
+        checkpointJournal.register( first, true );
+        List<EncodedDataValues> firstDataValueSets = dataValueSetBatcher.add( createDataValues( first, 4 ) );
+        assertEquals( 1, firstDataValueSets.size() );
+        checkpointJournal.submitted( firstDataValueSets.get( 0 ) );
+
+        Dimensions second = createDimensions( "B" );
+        checkpointJournal.register( second, true );
+        List<EncodedDataValues> secondDataValueSets = dataValueSetBatcher.add( createDataValues( second, 2 ) );
+        assertEquals( 1, secondDataValueSets.size() );
+        assertEquals( Set.of( first, second ), secondDataValueSets.get( 0 ).getCompletedSources() );
+        checkpointJournal.submitted( secondDataValueSets.get( 0 ) );
+
+        checkpointJournal.imported( secondDataValueSets.get( 0 ) );
+        assertEquals( List.of( "2022Q1\tfoo\tB" ), readEntries() );
+
+        checkpointJournal.imported( firstDataValueSets.get( 0 ) );
+        assertEquals( List.of( "2022Q1\tfoo\tB", "2022Q1\tfoo\tA" ), readEntries() );
+    }
+
+    @Test
+    public void testOpenResumesJournalWrittenForSameConfiguration()
+        throws IOException
+    {
+        CheckpointJournal checkpointJournal = createJournal( "2022Q1" );
+        checkpointJournal.open( ORG_UNITS );
+        checkpointJournal.register( createDimensions( "A;B" ), false );
+
+        CheckpointJournal resumedCheckpointJournal = createJournal( "2022Q1" );
+        assertTrue( resumedCheckpointJournal.open( ORG_UNITS ) );
+        assertEquals( Set.of( "A", "B" ), resumedCheckpointJournal.getCompletedOrgUnits( "2022Q1", "foo" ) );
+        assertTrue( resumedCheckpointJournal.getCompletedOrgUnits( "2022Q2", "foo" ).isEmpty() );
+    }
+
+    @Test
+    public void testOpenDiscardsJournalWrittenForDifferentConfiguration()
+        throws IOException
+    {
+        CheckpointJournal checkpointJournal = createJournal( "2022Q1" );
+        checkpointJournal.open( ORG_UNITS );
+        checkpointJournal.register( createDimensions( "A" ), false );
+
+        CheckpointJournal otherCheckpointJournal = createJournal( "2022Q2" );
+        assertFalse( otherCheckpointJournal.open( ORG_UNITS ) );
+        assertTrue( otherCheckpointJournal.getCompletedOrgUnits( "2022Q1", "foo" ).isEmpty() );
+        assertTrue( readEntries().isEmpty() );
+    }
+
+    @Test
+    public void testCompleteDeletesJournal()
+        throws IOException
+    {
+        CheckpointJournal checkpointJournal = createJournal( "2022Q1" );
+        checkpointJournal.open( ORG_UNITS );
+        checkpointJournal.register( createDimensions( "A" ), false );
+        checkpointJournal.complete();
+
+        assertFalse( Files.exists( journalPath ) );
+        assertFalse( createJournal( "2022Q1" ).open( ORG_UNITS ) );
+    }
+
+    private CheckpointJournal createJournal( String periods )
+    {
+        CheckpointJournal checkpointJournal = new CheckpointJournal();
+        checkpointJournal.setEnabled( true );
+        checkpointJournal.setJournalPath( journalPath.toString() );
+        checkpointJournal.setPeriods( periods );
+
+        return checkpointJournal;
+    }
+
+    private Dimensions createDimensions( String organisationUnitIds )
+    {
+        return new Dimensions( "2022Q1", organisationUnitIds,
+            List.of( new ProgramIndicatorMapping( "foo", "DE_FOO", null, null ) ) );
+    }
+
+    private EncodedDataValues createDataValues( Dimensions dimensions, int count )
+        throws IOException
+    {
+        EncodedDataValues.Builder builder = EncodedDataValues.builder().source( dimensions );
+        for ( int i = 0; i < count; i++ )
+        {
+            builder.add( "DE_FOO", dimensions.getPeriods(), dimensions.getOrganisationUnitIds(), null, null,
+                String.valueOf( i ) );
+        }
+
+        return builder.build();
+    }
+
+    private List<String> readEntries()
+        throws IOException
+    {
+        List<String> lines = Files.readAllLines( journalPath );
+        return lines.subList( 1, lines.size() );
+    }
+}
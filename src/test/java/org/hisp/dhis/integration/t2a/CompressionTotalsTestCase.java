@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class CompressionTotalsTestCase
+{
+    @Test
+    public void testRatioAndBytesSavedPerDirection()
+    {
+        CompressionTotals compressionTotals = new CompressionTotals();
+        compressionTotals.add( CompressionTotals.RECEIVED, 100, 1000 );
+        compressionTotals.add( CompressionTotals.RECEIVED, 100, 1000 );
+        compressionTotals.add( CompressionTotals.SENT, 50, 50 );
+
+        assertEquals( 10.0, compressionTotals.getRatio( CompressionTotals.RECEIVED ) );
+        assertEquals( 1800, compressionTotals.getBytesSaved( CompressionTotals.RECEIVED ) );
+        assertEquals( 1.0, compressionTotals.getRatio( CompressionTotals.SENT ) );
+        assertEquals( 0, compressionTotals.getBytesSaved( CompressionTotals.SENT ) );
+    }
+
+    @Test
+    public void testReset()
+    {
+        CompressionTotals compressionTotals = new CompressionTotals();
+        compressionTotals.add( CompressionTotals.SENT, 10, 100 );
+        compressionTotals.reset();
+
+        assertEquals( 0, compressionTotals.getBytes( CompressionTotals.SENT ) );
+        assertTrue( Double.isNaN( compressionTotals.getRatio( CompressionTotals.SENT ) ) );
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class DataValueFingerprintStoreTestCase
+{
+    @TempDir
+    Path tempDir;
+
+    private String storePath;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        storePath = tempDir.resolve( "fingerprints.bin" ).toString();
+    }
+
+    @Test
+    public void testIsUnchangedGivenDataValuePushedByLastSuccessfulRun()
+        throws IOException
+    {
+        DataValueFingerprintStore dataValueFingerprintStore = createStore();
+        dataValueFingerprintStore.begin( false );
+        assertFalse( isUnchanged( dataValueFingerprintStore, "5" ) );
+        imported( dataValueFingerprintStore, "5" );
+        dataValueFingerprintStore.commit();
+
+        DataValueFingerprintStore reloadedDataValueFingerprintStore = createStore();
+        reloadedDataValueFingerprintStore.begin( false );
+        assertTrue( isUnchanged( reloadedDataValueFingerprintStore, "5" ) );
+        assertFalse( isUnchanged( reloadedDataValueFingerprintStore, "6" ) );
+        assertFalse( reloadedDataValueFingerprintStore.isUnchanged( "DE", "2022Q2", "ImspTQPwCqd", null, null,
+            "5" ) );
+    }
+
+    @Test
+    public void testIsUnchangedGivenUncommittedRun()
+        throws IOException
+    {
+        DataValueFingerprintStore dataValueFingerprintStore = createStore();
+        dataValueFingerprintStore.begin( false );
+        imported( dataValueFingerprintStore, "5" );
+
+        dataValueFingerprintStore.begin( false );
+        assertFalse( isUnchanged( dataValueFingerprintStore, "5" ) );
+    }
+
+    @Test
+    public void testIsUnchangedGivenFullPush()
+        throws IOException
+    {
+        DataValueFingerprintStore dataValueFingerprintStore = createStore();
+        dataValueFingerprintStore.begin( false );
+        imported( dataValueFingerprintStore, "5" );
+        dataValueFingerprintStore.commit();
+
+        dataValueFingerprintStore.begin( true );
+        assertFalse( isUnchanged( dataValueFingerprintStore, "5" ) );
+    }
+
+    @Test
+    public void testIsUnchangedGivenInvalidatedStore()
+        throws IOException
+    {
+        DataValueFingerprintStore dataValueFingerprintStore = createStore();
+        dataValueFingerprintStore.begin( false );
+        imported( dataValueFingerprintStore, "5" );
+        dataValueFingerprintStore.commit();
+        dataValueFingerprintStore.invalidate();
+
+        dataValueFingerprintStore.begin( false );
+        assertFalse( isUnchanged( dataValueFingerprintStore, "5" ) );
+
+        DataValueFingerprintStore reloadedDataValueFingerprintStore = createStore();
+        reloadedDataValueFingerprintStore.begin( false );
+        assertFalse( isUnchanged( reloadedDataValueFingerprintStore, "5" ) );
+    }
+
+    @Test
+    public void testIsUnchangedGivenDataValueNotImported()
+        throws IOException
+    {
+        DataValueFingerprintStore dataValueFingerprintStore = createStore();
+        dataValueFingerprintStore.begin( false );
+        imported( dataValueFingerprintStore, "5" );
+        dataValueFingerprintStore.commit();
+
+        // DHIS2 rejected the new value so the next run must push it again
+        dataValueFingerprintStore.begin( false );
+        assertFalse( isUnchanged( dataValueFingerprintStore, "6" ) );
+        dataValueFingerprintStore.commit();
+
+        DataValueFingerprintStore reloadedDataValueFingerprintStore = createStore();
+        reloadedDataValueFingerprintStore.begin( false );
+        assertFalse( isUnchanged( reloadedDataValueFingerprintStore, "6" ) );
+        assertTrue( isUnchanged( reloadedDataValueFingerprintStore, "5" ) );
+    }
+
+    @Test
+    public void testInvalidateDuringRunKeepsOnlyTheRunsImports()
+        throws IOException
+    {
+        DataValueFingerprintStore dataValueFingerprintStore = createStore();
+        dataValueFingerprintStore.begin( false );
+        imported( dataValueFingerprintStore, "5" );
+        dataValueFingerprintStore.commit();
+
+        dataValueFingerprintStore.begin( false );
+        assertTrue( isUnchanged( dataValueFingerprintStore, "5" ) );
+        dataValueFingerprintStore.invalidate();
+        dataValueFingerprintStore.imported( dataValues( "O6uvpzGd5pu", "7" ) );
+        dataValueFingerprintStore.commit();
+
+        DataValueFingerprintStore reloadedDataValueFingerprintStore = createStore();
+        reloadedDataValueFingerprintStore.begin( false );
+        assertFalse( isUnchanged( reloadedDataValueFingerprintStore, "5" ) );
+        assertTrue( reloadedDataValueFingerprintStore.isUnchanged( "DE", "2022Q1", "O6uvpzGd5pu", "COC", null,
+            "7" ) );
+    }
+
+    @Test
+    public void testIsUnchangedGivenDisabledStore()
+        throws IOException
+    {
+        DataValueFingerprintStore dataValueFingerprintStore = createStore();
+        dataValueFingerprintStore.setEnabled( false );
+        dataValueFingerprintStore.begin( false );
+        imported( dataValueFingerprintStore, "5" );
+        dataValueFingerprintStore.commit();
+
+        dataValueFingerprintStore.begin( false );
+        assertFalse( isUnchanged( dataValueFingerprintStore, "5" ) );
+    }
+
+    private boolean isUnchanged( DataValueFingerprintStore dataValueFingerprintStore, String value )
+    {
+        return dataValueFingerprintStore.isUnchanged( "DE", "2022Q1", "ImspTQPwCqd", "COC", null, value );
+    }
+
+    private void imported( DataValueFingerprintStore dataValueFingerprintStore, String value )
+        throws IOException
+    {
+        dataValueFingerprintStore.imported( dataValues( "ImspTQPwCqd", value ) );
+    }
+
+    private EncodedDataValues dataValues( String orgUnit, String value )
+        throws IOException
+    {
+        return EncodedDataValues.builder().add( "DE", "2022Q1", orgUnit, "COC", null, value ).build();
+    }
+
+    private DataValueFingerprintStore createStore()
+    {
+        DataValueFingerprintStore dataValueFingerprintStore = new DataValueFingerprintStore();
+        dataValueFingerprintStore.setEnabled( true );
+        dataValueFingerprintStore.setStorePath( storePath );
+
+        return dataValueFingerprintStore;
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class DataValueSetBatcherTestCase
+{
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private DataValueSetBatcher dataValueSetBatcher;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        dataValueSetBatcher = new DataValueSetBatcher();
+        dataValueSetBatcher.setBatchSize( 3 );
+        dataValueSetBatcher.setFlushInterval( Long.MAX_VALUE );
+    }
+
+    @Test
+    public void testAddCombinesSmallDataValueSets()
+        throws IOException
+    {
+        assertTrue( dataValueSetBatcher.add( createDataValues( 0, 2 ) ).isEmpty() );
+
+        List<EncodedDataValues> dataValueSets = dataValueSetBatcher.add( createDataValues( 2, 2 ) );
+        assertEquals( 1, dataValueSets.size() );
+        assertEquals( List.of( "0", "1", "2" ), getValues( dataValueSets.get( 0 ) ) );
+
+        List<EncodedDataValues> remainder = dataValueSetBatcher.flush();
+        assertEquals( 1, remainder.size() );
+        assertEquals( List.of( "3" ), getValues( remainder.get( 0 ) ) );
+        assertTrue( dataValueSetBatcher.flush().isEmpty() );
+    }
+
+    @Test
+    public void testAddSplitsLargeDataValueSets()
+        throws IOException
+    {
+        List<EncodedDataValues> dataValueSets = dataValueSetBatcher.add( createDataValues( 0, 7 ) );
+        assertEquals( 2, dataValueSets.size() );
+        assertEquals( List.of( "0", "1", "2" ), getValues( dataValueSets.get( 0 ) ) );
+        assertEquals( List.of( "3", "4", "5" ), getValues( dataValueSets.get( 1 ) ) );
+        assertEquals( List.of( "6" ), getValues( dataValueSetBatcher.flush().get( 0 ) ) );
+    }
+
+    @Test
+    public void testAddReleasesBufferedDataValuesOnceFlushIntervalHasElapsed()
+        throws IOException
+    {
+        dataValueSetBatcher.setFlushInterval( 0 );
+
+        List<EncodedDataValues> dataValueSets = dataValueSetBatcher.add( createDataValues( 0, 1 ) );
+        assertEquals( 1, dataValueSets.size() );
+        assertEquals( List.of( "0" ), getValues( dataValueSets.get( 0 ) ) );
+        assertTrue( dataValueSetBatcher.flush().isEmpty() );
+    }
+
+    @Test
+    public void testFlushExpiredKeepsBufferedDataValuesUntilFlushIntervalHasElapsed()
+        throws IOException
+    {
+        dataValueSetBatcher.add( createDataValues( 0, 1 ) );
+
+        assertTrue( dataValueSetBatcher.flushExpired().isEmpty() );
+        assertEquals( List.of( "0" ), getValues( dataValueSetBatcher.flush().get( 0 ) ) );
+    }
+
+    @Test
+    public void testFlushExpiredReleasesBufferedDataValuesOnceFlushIntervalHasElapsed()
+        throws IOException
+    {
+        dataValueSetBatcher.add( createDataValues( 0, 1 ) );
+        dataValueSetBatcher.setFlushInterval( 0 );
+
+        List<EncodedDataValues> dataValueSets = dataValueSetBatcher.flushExpired();
+        assertEquals( 1, dataValueSets.size() );
+        assertEquals( List.of( "0" ), getValues( dataValueSets.get( 0 ) ) );
+        assertTrue( dataValueSetBatcher.flushExpired().isEmpty() );
+    }
+
+    @Test
+    public void testClearDiscardsBufferedDataValues()
+        throws IOException
+    {
+        dataValueSetBatcher.add( createDataValues( 0, 1 ) );
+        dataValueSetBatcher.clear();
+        assertTrue( dataValueSetBatcher.flush().isEmpty() );
+    }
+
+    private EncodedDataValues createDataValues( int firstValue, int count )
+        throws IOException
+    {
+        EncodedDataValues.Builder builder = EncodedDataValues.builder();
+        for ( int i = firstValue; i < firstValue + count; i++ )
+        {
+            builder.add( "DE", "2022Q1", "ImspTQPwCqd", null, null, String.valueOf( i ) );
+        }
+
+        return builder.build();
+    }
+
+    private List<String> getValues( EncodedDataValues dataValues )
+        throws IOException
+    {
+        JsonNode dataValueSet = OBJECT_MAPPER.readTree( OBJECT_MAPPER.writeValueAsString( dataValues ) );
+        return dataValueSet.findValuesAsText( "value" );
+    }
+}
@@ -28,11 +28,18 @@
 package org.hisp.dhis.integration.t2a;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
 
 import org.apache.camel.CamelContext;
 import org.apache.camel.Exchange;
@@ -40,11 +47,12 @@ import org.apache.camel.Message;
 import org.apache.camel.impl.engine.SimpleCamelContext;
 import org.apache.camel.support.DefaultExchange;
 import org.apache.camel.support.DefaultMessage;
-import org.hisp.dhis.api.model.v2_37_7.ProgramIndicator;
-import org.hisp.dhis.api.model.v2_37_7.ProgramIndicatorGroup;
 import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+import org.hisp.dhis.integration.t2a.model.RunPlan;
 import org.hisp.dhis.integration.t2a.route.T2ARouteBuilder;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.CsvSource;
 
@@ -56,37 +64,102 @@ public class DimensionsSplitterTestCase
     {
         List<String> organisationUnitIds = Arrays.asList( "Bob", "Alice" );
 
-        ProgramIndicatorGroup programIndicatorGroup = new ProgramIndicatorGroup();
-        programIndicatorGroup.setProgramIndicators(
-            List.of( new ProgramIndicator().withId( UUID.randomUUID().toString() ),
-                new ProgramIndicator().withId( UUID.randomUUID().toString() ) ) );
+        RunPlan runPlan = createRunPlan( UUID.randomUUID().toString(), UUID.randomUUID().toString() );
 
         DimensionSplitter dimensionSplitter = new DimensionSplitter();
+        dimensionSplitter.setCheckpointJournal( new CheckpointJournal() );
+        dimensionSplitter.setOrgUnitBatchSizer( new OrgUnitBatchSizer() );
         dimensionSplitter.setOrgUnitBatchSize( orgUnitBatchSize );
         dimensionSplitter.setPeriods( "2022Q1,2022Q2,2022Q3,2022Q4" );
         dimensionSplitter.setSplitPeriods( splitPeriods );
 
-        List<Dimensions> dimensions = dimensionSplitter.split(
-            createExchange( new SimpleCamelContext(), organisationUnitIds, programIndicatorGroup ) );
+        List<Dimensions> dimensions = split( dimensionSplitter,
+            createExchange( new SimpleCamelContext(), organisationUnitIds, runPlan ) );
         assertEquals( expectedDimensionsSize, dimensions.size() );
     }
 
+    @ParameterizedTest
+    @CsvSource( { "1,3", "2,2", "3,1", "4,1" } )
+    public void testSplitGivenProgramIndicatorBatchSize( int programIndicatorBatchSize,
+        int expectedDimensionsSize )
+    {
+        List<String> organisationUnitIds = Arrays.asList( "Bob" );
+
+        RunPlan runPlan = createRunPlan( "foo", "bar", "baz" );
+
+        DimensionSplitter dimensionSplitter = new DimensionSplitter();
+        dimensionSplitter.setCheckpointJournal( new CheckpointJournal() );
+        dimensionSplitter.setOrgUnitBatchSizer( new OrgUnitBatchSizer() );
+        dimensionSplitter.setOrgUnitBatchSize( 1 );
+        dimensionSplitter.setProgramIndicatorBatchSize( programIndicatorBatchSize );
+        dimensionSplitter.setPeriods( "2022Q1" );
+        dimensionSplitter.setSplitPeriods( true );
+
+        List<Dimensions> dimensions = split( dimensionSplitter,
+            createExchange( new SimpleCamelContext(), organisationUnitIds, runPlan ) );
+        assertEquals( expectedDimensionsSize, dimensions.size() );
+        assertEquals( "foo;bar;baz",
+            dimensions.stream().map( Dimensions::getProgramIndicatorIds ).collect( Collectors.joining( ";" ) ) );
+    }
+
+    @Test
+    public void testSplitSizesEachOrgUnitBatchWhenItIsHandedOut()
+    {
+        List<String> organisationUnitIds = Arrays.asList( "A", "B", "C", "D", "E", "F", "G" );
+
+        RunPlan runPlan = createRunPlan( "foo", "bar" );
+
+        OrgUnitBatchSizer orgUnitBatchSizer = new OrgUnitBatchSizer();
+        orgUnitBatchSizer.setAdaptive( true );
+        orgUnitBatchSizer.setTargetLatency( 1000 );
+
+        DimensionSplitter dimensionSplitter = new DimensionSplitter();
+        dimensionSplitter.setCheckpointJournal( new CheckpointJournal() );
+        dimensionSplitter.setOrgUnitBatchSize( 1 );
+        dimensionSplitter.setOrgUnitBatchSizer( orgUnitBatchSizer );
+        dimensionSplitter.setPeriods( "2022Q1,2022Q2" );
+        dimensionSplitter.setSplitPeriods( true );
+
+        Iterator<Dimensions> dimensions = dimensionSplitter.split(
+            createExchange( new SimpleCamelContext(), organisationUnitIds, runPlan ) );
+
+        assertEquals( "A", dimensions.next().getOrganisationUnitIds() );
+        assertEquals( "A", dimensions.next().getOrganisationUnitIds() );
+        orgUnitBatchSizer.record( 1, 100, 1 );
+        assertEquals( "B;C", dimensions.next().getOrganisationUnitIds() );
+        assertEquals( "B;C", dimensions.next().getOrganisationUnitIds() );
+        orgUnitBatchSizer.record( 2, 100, 2 );
+        Dimensions lastDimensionsOfFirstPeriod = dimensions.next();
+        assertEquals( "D;E;F;G", lastDimensionsOfFirstPeriod.getOrganisationUnitIds() );
+        assertEquals( "2022Q1", lastDimensionsOfFirstPeriod.getPeriods() );
+        dimensions.next();
+
+        Dimensions firstDimensionsOfSecondPeriod = dimensions.next();
+        assertEquals( "2022Q2", firstDimensionsOfSecondPeriod.getPeriods() );
+        assertEquals( "A;B;C;D", firstDimensionsOfSecondPeriod.getOrganisationUnitIds() );
+        assertEquals( "foo", firstDimensionsOfSecondPeriod.getProgramIndicatorIds() );
+        assertEquals( "bar", dimensions.next().getProgramIndicatorIds() );
+        assertEquals( "E;F;G", dimensions.next().getOrganisationUnitIds() );
+        assertEquals( "E;F;G", dimensions.next().getOrganisationUnitIds() );
+        assertFalse( dimensions.hasNext() );
+    }
+
     @Test
     public void testSplitGivenSplitOrgUnitsConfigIsFalse()
     {
         List<String> organisationUnitIds = Arrays.asList( "Bob", "Alice" );
 
-        ProgramIndicatorGroup programIndicatorGroup = new ProgramIndicatorGroup();
-        programIndicatorGroup.setProgramIndicators(
-            List.of( new ProgramIndicator().withId( UUID.randomUUID().toString() ) ) );
+        RunPlan runPlan = createRunPlan( UUID.randomUUID().toString() );
 
         DimensionSplitter dimensionSplitter = new DimensionSplitter();
+        dimensionSplitter.setCheckpointJournal( new CheckpointJournal() );
+        dimensionSplitter.setOrgUnitBatchSizer( new OrgUnitBatchSizer() );
         dimensionSplitter.setOrgUnitBatchSize( 2 );
         dimensionSplitter.setPeriods( "2022Q1" );
         dimensionSplitter.setSplitPeriods( ThreadLocalRandom.current().nextBoolean() );
 
-        List<Dimensions> dimensions = dimensionSplitter
-            .split( createExchange( new SimpleCamelContext(), organisationUnitIds, programIndicatorGroup ) );
+        List<Dimensions> dimensions = split( dimensionSplitter,
+            createExchange( new SimpleCamelContext(), organisationUnitIds, runPlan ) );
         assertEquals( 1, dimensions.size() );
         assertEquals( "Bob;Alice", dimensions.get( 0 ).getOrganisationUnitIds() );
         assertEquals( "2022Q1", dimensions.get( 0 ).getPeriods() );
@@ -97,28 +170,96 @@ public class DimensionsSplitterTestCase
     {
         List<String> organisationUnitIds = Arrays.asList( "Bob" );
 
-        ProgramIndicatorGroup programIndicatorGroup = new ProgramIndicatorGroup();
-        programIndicatorGroup.setProgramIndicators(
-            List.of( new ProgramIndicator().withId( UUID.randomUUID().toString() ) ) );
+        RunPlan runPlan = createRunPlan( UUID.randomUUID().toString() );
 
         DimensionSplitter dimensionSplitter = new DimensionSplitter();
+        dimensionSplitter.setCheckpointJournal( new CheckpointJournal() );
+        dimensionSplitter.setOrgUnitBatchSizer( new OrgUnitBatchSizer() );
         dimensionSplitter.setOrgUnitBatchSize( ThreadLocalRandom.current().nextInt( 1, Integer.MAX_VALUE ) );
         dimensionSplitter.setPeriods( "2022Q1,2022Q2,2022Q3,2022Q4" );
         dimensionSplitter.setSplitPeriods( false );
 
-        List<Dimensions> dimensions = dimensionSplitter.split(
-            createExchange( new SimpleCamelContext(), organisationUnitIds, programIndicatorGroup ) );
+        List<Dimensions> dimensions = split( dimensionSplitter,
+            createExchange( new SimpleCamelContext(), organisationUnitIds, runPlan ) );
         assertEquals( 1, dimensions.size() );
         assertEquals( "2022Q1;2022Q2;2022Q3;2022Q4", dimensions.get( 0 ).getPeriods() );
         assertEquals( "Bob", dimensions.get( 0 ).getOrganisationUnitIds() );
     }
 
+    @Test
+    public void testSplitIsLazy()
+    {
+        List<String> organisationUnitIds = Arrays.asList( "Bob", "Alice" );
+
+        RunPlan runPlan = createRunPlan( "foo" );
+
+        OrgUnitBatchSizer orgUnitBatchSizer = new OrgUnitBatchSizer();
+
+        DimensionSplitter dimensionSplitter = new DimensionSplitter();
+        dimensionSplitter.setCheckpointJournal( new CheckpointJournal() );
+        dimensionSplitter.setOrgUnitBatchSize( 1 );
+        dimensionSplitter.setOrgUnitBatchSizer( orgUnitBatchSizer );
+        dimensionSplitter.setPeriods( "2022Q1" );
+        dimensionSplitter.setSplitPeriods( true );
+
+        Iterator<Dimensions> dimensions = dimensionSplitter.split(
+            createExchange( new SimpleCamelContext(), organisationUnitIds, runPlan ) );
+
+        assertEquals( "Bob", dimensions.next().getOrganisationUnitIds() );
+        orgUnitBatchSizer.reset( 5 );
+        assertEquals( "Alice", dimensions.next().getOrganisationUnitIds() );
+        assertFalse( dimensions.hasNext() );
+    }
+
+    @Test
+    public void testSplitLeavesOutOrgUnitsCompletedByInterruptedRun( @TempDir Path tempDir )
+        throws IOException
+    {
+        List<String> organisationUnitIds = Arrays.asList( "A", "B", "C" );
+        RunPlan runPlan = createRunPlan( "foo" );
+
+        CheckpointJournal checkpointJournal = new CheckpointJournal();
+        checkpointJournal.setEnabled( true );
+        checkpointJournal.setJournalPath( tempDir.resolve( "checkpoint.journal" ).toString() );
+        checkpointJournal.setPeriods( "2022Q1,2022Q2" );
+        checkpointJournal.open( organisationUnitIds );
+        checkpointJournal.register( new Dimensions( "2022Q1", "A;B", runPlan.getMappings() ), false );
+        checkpointJournal.open( organisationUnitIds );
+
+        DimensionSplitter dimensionSplitter = new DimensionSplitter();
+        dimensionSplitter.setCheckpointJournal( checkpointJournal );
+        dimensionSplitter.setOrgUnitBatchSizer( new OrgUnitBatchSizer() );
+        dimensionSplitter.setOrgUnitBatchSize( 2 );
+        dimensionSplitter.setPeriods( "2022Q1,2022Q2" );
+        dimensionSplitter.setSplitPeriods( true );
+
+        List<Dimensions> dimensions = split( dimensionSplitter,
+            createExchange( new SimpleCamelContext(), organisationUnitIds, runPlan ) );
+        assertEquals( List.of( "2022Q1:C", "2022Q2:A;B", "2022Q2:C" ),
+            dimensions.stream().map( d -> d.getPeriods() + ":" + d.getOrganisationUnitIds() )
+                .collect( Collectors.toList() ) );
+    }
+
+    private List<Dimensions> split( DimensionSplitter dimensionSplitter, Exchange exchange )
+    {
+        List<Dimensions> dimensions = new ArrayList<>();
+        dimensionSplitter.split( exchange ).forEachRemaining( dimensions::add );
+        return dimensions;
+    }
+
+    private RunPlan createRunPlan( String... programIndicatorIds )
+    {
+        return new RunPlan( Arrays.stream( programIndicatorIds )
+            .map( id -> new ProgramIndicatorMapping( id, "DE_" + id, null, null ) ).collect( Collectors.toList() ),
+            Map.of() );
+    }
+
     private Exchange createExchange( CamelContext camelContext, List<String> organisationUnitIds,
-        ProgramIndicatorGroup programIndicatorGroup )
+        RunPlan runPlan )
     {
         Exchange exchange = new DefaultExchange( camelContext );
         Message message = new DefaultMessage( exchange );
-        message.setBody( programIndicatorGroup );
+        message.setBody( runPlan );
 
         exchange.setMessage( message );
         exchange.setProperty( T2ARouteBuilder.ALL_ORG_UNITS_PROPERTY, organisationUnitIds );
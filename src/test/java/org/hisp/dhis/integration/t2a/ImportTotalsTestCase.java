@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class ImportTotalsTestCase
+{
+    private final ImportTotals importTotals = new ImportTotals();
+
+    @Test
+    public void testAddSumsImportCounts()
+    {
+        importTotals.add( List.of( "2022Q1" ), "{\"httpStatus\": \"OK\", \"response\": {\"responseType\": "
+            + "\"ImportSummary\", \"importCount\": {\"imported\": 2, \"updated\": 3, \"ignored\": 1, \"deleted\": 0}, "
+            + "\"conflicts\": [{\"object\": \"DE_1\"}]}}" );
+        importTotals.add( List.of( "2022Q2" ), "{\"responseType\": \"ImportSummary\", \"importCount\": "
+            + "{\"imported\": 0, \"updated\": 0, \"ignored\": 4, \"deleted\": 1}}" );
+
+        assertEquals( 2, importTotals.getImports() );
+        assertEquals( 2, importTotals.getImported() );
+        assertEquals( 3, importTotals.getUpdated() );
+        assertEquals( 1, importTotals.getDeleted() );
+        assertEquals( 5, importTotals.getIgnored() );
+        assertEquals( 1, importTotals.getConflicts() );
+    }
+
+    @Test
+    public void testAddTellsWhetherEveryDataValueWasImported()
+    {
+        assertTrue( importTotals.add( List.of( "2022Q1" ), "{\"importCount\": {\"imported\": 2, \"updated\": 1, "
+            + "\"ignored\": 0, \"deleted\": 0}}" ) );
+        assertFalse( importTotals.add( List.of( "2022Q1" ), "{\"importCount\": {\"imported\": 2, \"updated\": 0, "
+            + "\"ignored\": 1, \"deleted\": 0}}" ) );
+        assertFalse( importTotals.add( List.of( "2022Q1" ), "{\"importCount\": {\"imported\": 2, \"updated\": 0, "
+            + "\"ignored\": 0, \"deleted\": 0}, \"conflicts\": [{\"object\": \"DE_1\"}]}" ) );
+        assertFalse( importTotals.add( List.of( "2022Q1" ), "not JSON" ) );
+    }
+
+    @Test
+    public void testChangedPeriodsExcludeImportsWithoutChanges()
+    {
+        importTotals.add( List.of( "2021Q4", "2022Q1" ), "{\"importCount\": {\"imported\": 0, \"updated\": 1, "
+            + "\"ignored\": 0, \"deleted\": 0}}" );
+        importTotals.add( List.of( "2019Q1" ), "{\"importCount\": {\"imported\": 0, \"updated\": 0, "
+            + "\"ignored\": 7, \"deleted\": 0}}" );
+
+        assertTrue( importTotals.hasChanges() );
+        assertEquals( Set.of( "2021Q4", "2022Q1" ), importTotals.getChangedPeriods() );
+    }
+
+    @Test
+    public void testHasChangesGivenNoChanges()
+    {
+        importTotals.add( List.of( "2022Q1" ), "{\"importCount\": {\"imported\": 0, \"updated\": 0, "
+            + "\"ignored\": 3, \"deleted\": 0}}" );
+
+        assertFalse( importTotals.hasChanges() );
+    }
+
+    @Test
+    public void testUnreadableImportSummaryCountsAsChanged()
+    {
+        importTotals.add( List.of( "2022Q1" ), "not JSON" );
+
+        assertTrue( importTotals.hasChanges() );
+        assertEquals( Set.of( "2022Q1" ), importTotals.getChangedPeriods() );
+    }
+
+    @Test
+    public void testReset()
+    {
+        importTotals.add( List.of( "2022Q1" ), "{\"importCount\": {\"imported\": 1}}" );
+        importTotals.reset();
+
+        assertEquals( 0, importTotals.getImports() );
+        assertFalse( importTotals.hasChanges() );
+    }
+}
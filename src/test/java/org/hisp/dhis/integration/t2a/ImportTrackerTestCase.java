@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class ImportTrackerTestCase
+{
+    private ImportTracker importTracker;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        importTracker = new ImportTracker();
+    }
+
+    @Test
+    public void testAwaitCompletionWaitsForOutstandingImports()
+        throws Exception
+    {
+        importTracker.submitted();
+        importTracker.submitted();
+
+        CompletableFuture<Void> awaitCompletion = CompletableFuture.runAsync( () -> {
+            try
+            {
+                importTracker.awaitCompletion();
+            }
+            catch ( InterruptedException e )
+            {
+                Thread.currentThread().interrupt();
+            }
+        } );
+
+        importTracker.completed();
+        importTracker.completed();
+        awaitCompletion.get( 10, TimeUnit.SECONDS );
+        assertEquals( 0, importTracker.getOutstanding() );
+    }
+
+    @Test
+    public void testAwaitCompletionThrowsFirstFailure()
+    {
+        Exception failure = new IllegalStateException();
+        importTracker.submitted();
+        importTracker.submitted();
+        importTracker.failed( failure );
+        importTracker.failed( new IllegalArgumentException() );
+
+        T2AException e = assertThrows( T2AException.class, importTracker::awaitCompletion );
+        assertSame( failure, e.getCause() );
+    }
+
+    @Test
+    public void testSubmittedThrowsAfterFailure()
+    {
+        importTracker.submitted();
+        importTracker.failed( new IllegalStateException() );
+
+        assertThrows( T2AException.class, importTracker::submitted );
+    }
+
+    @Test
+    public void testResetForgetsFailure()
+        throws InterruptedException
+    {
+        importTracker.submitted();
+        importTracker.failed( new IllegalStateException() );
+        importTracker.reset();
+
+        importTracker.submitted();
+        importTracker.completed();
+        importTracker.awaitCompletion();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class LongLongHashMapTestCase
+{
+    @Test
+    public void testPutAndGetBeyondInitialCapacity()
+    {
+        LongLongHashMap map = new LongLongHashMap();
+        for ( long key = -500; key <= 500; key++ )
+        {
+            map.put( key * 31, key );
+        }
+
+        assertEquals( 1001, map.size() );
+        for ( long key = -500; key <= 500; key++ )
+        {
+            assertTrue( map.containsKey( key * 31 ) );
+            assertEquals( key, map.get( key * 31, Long.MIN_VALUE ) );
+        }
+        assertFalse( map.containsKey( 1 ) );
+        assertEquals( Long.MIN_VALUE, map.get( 1, Long.MIN_VALUE ) );
+    }
+
+    @Test
+    public void testPutReplacesValue()
+    {
+        LongLongHashMap map = new LongLongHashMap();
+        map.put( 0, 1 );
+        map.put( 0, 2 );
+        map.put( 7, 3 );
+        map.put( 7, 4 );
+
+        assertEquals( 2, map.size() );
+        assertEquals( 2, map.get( 0, -1 ) );
+        assertEquals( 4, map.get( 7, -1 ) );
+    }
+
+    @Test
+    public void testPutAllAndForEach()
+    {
+        LongLongHashMap map = new LongLongHashMap();
+        map.put( 0, 10 );
+        map.put( 1, 11 );
+        LongLongHashMap otherMap = new LongLongHashMap( 100 );
+        otherMap.put( 1, 21 );
+        otherMap.put( 2, 22 );
+        map.putAll( otherMap );
+
+        Map<Long, Long> entries = new HashMap<>();
+        map.forEach( entries::put );
+        assertEquals( Map.of( 0L, 10L, 1L, 21L, 2L, 22L ), entries );
+    }
+
+    @Test
+    public void testClear()
+    {
+        LongLongHashMap map = new LongLongHashMap();
+        map.put( 0, 10 );
+        map.put( 1, 11 );
+        map.clear();
+
+        assertEquals( 0, map.size() );
+        assertFalse( map.containsKey( 0 ) );
+        assertFalse( map.containsKey( 1 ) );
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.hisp.dhis.integration.t2a.model.OrganisationUnitIds;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class MetadataCacheTestCase
+{
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testGetOrganisationUnitIdsMergesChangedOrganisationUnits()
+        throws Exception
+    {
+        cacheOrganisationUnits( "2022-06-01T00:00:00.000", "fdc6uOvgoji", "ImspTQPwCqd" );
+
+        FakeMetadataCache metadataCache = new FakeMetadataCache( "2022-06-02T00:00:00.000", 4,
+            List.of( List.of( "ImspTQPwCqd", "O6uvpzGd5pu" ), List.of( "lc3eMKXaEfw" ) ) );
+        OrganisationUnitIds organisationUnitIds = metadataCache.getOrganisationUnitIds( 3, () -> {
+            fail( "Organisation units fetched in full although the cache is up to date" );
+            return null;
+        } );
+
+        assertEquals( List.of( "ImspTQPwCqd", "O6uvpzGd5pu", "fdc6uOvgoji", "lc3eMKXaEfw" ), organisationUnitIds );
+        List<Map<String, String>> changedRequests = metadataCache.getChangedRequests();
+        assertEquals( 2, changedRequests.size() );
+        assertEquals( "3", changedRequests.get( 0 ).get( "level" ) );
+        assertEquals( "1", changedRequests.get( 0 ).get( "page" ) );
+        assertEquals( "2", changedRequests.get( 1 ).get( "page" ) );
+        assertEquals( "2", changedRequests.get( 1 ).get( "pageSize" ) );
+    }
+
+    @Test
+    public void testGetOrganisationUnitIdsRefetchesGivenCountMismatch()
+        throws Exception
+    {
+        cacheOrganisationUnits( "2022-06-01T00:00:00.000", "fdc6uOvgoji", "ImspTQPwCqd" );
+
+        // one cached organisation unit was deleted, which is only noticed by the count
+        FakeMetadataCache metadataCache = new FakeMetadataCache( "2022-06-02T00:00:00.000", 2,
+            List.of( List.of( "O6uvpzGd5pu" ) ) );
+        OrganisationUnitIds organisationUnitIds = metadataCache.getOrganisationUnitIds( 3,
+            () -> toOrganisationUnitIds( "O6uvpzGd5pu", "ImspTQPwCqd" ) );
+
+        assertEquals( List.of( "ImspTQPwCqd", "O6uvpzGd5pu" ), organisationUnitIds );
+        assertEquals( List.of( "ImspTQPwCqd", "O6uvpzGd5pu" ),
+            new FakeMetadataCache( "2022-06-03T00:00:00.000", 2, List.of() ).getOrganisationUnitIds( 3, () -> {
+                fail( "Re-fetched organisation units not cached" );
+                return null;
+            } ) );
+    }
+
+    @Test
+    public void testGetOrganisationUnitIdsPersistsSince()
+        throws Exception
+    {
+        cacheOrganisationUnits( "2022-06-01T00:00:00.000", "fdc6uOvgoji" );
+
+        FakeMetadataCache metadataCache = new FakeMetadataCache( "2022-06-02T00:00:00.000", 1,
+            List.of( List.of( "fdc6uOvgoji" ) ) );
+        metadataCache.getOrganisationUnitIds( 3, () -> {
+            fail( "Organisation units fetched in full although the cache is up to date" );
+            return null;
+        } );
+        assertEquals( "lastUpdated:gt:2022-06-01T00:00:00.000",
+            metadataCache.getChangedRequests().get( 0 ).get( "filter" ) );
+
+        metadataCache = new FakeMetadataCache( "2022-06-03T00:00:00.000", 1, List.of() );
+        metadataCache.getOrganisationUnitIds( 3, () -> {
+            fail( "Organisation units fetched in full although the cache is up to date" );
+            return null;
+        } );
+        assertEquals( "lastUpdated:gt:2022-06-02T00:00:00.000",
+            metadataCache.getChangedRequests().get( 0 ).get( "filter" ) );
+    }
+
+    @Test
+    public void testGetOrganisationUnitIdsSkipsSaveGivenNoChanges()
+        throws Exception
+    {
+        cacheOrganisationUnits( "2022-06-01T00:00:00.000", "fdc6uOvgoji" );
+        Path cachePath = tempDir.resolve( "t2a-metadata-cache.json" );
+        Files.setLastModifiedTime( cachePath, FileTime.fromMillis( 0 ) );
+
+        new FakeMetadataCache( "2022-06-02T00:00:00.000", 1, List.of() ).getOrganisationUnitIds( 3, () -> {
+            fail( "Organisation units fetched in full although the cache is up to date" );
+            return null;
+        } );
+        assertEquals( 0, Files.getLastModifiedTime( cachePath ).toMillis() );
+
+        FakeMetadataCache metadataCache = new FakeMetadataCache( "2022-06-03T00:00:00.000", 1, List.of() );
+        metadataCache.getOrganisationUnitIds( 3, () -> {
+            fail( "Organisation units fetched in full although the cache is up to date" );
+            return null;
+        } );
+        assertEquals( "lastUpdated:gt:2022-06-01T00:00:00.000",
+            metadataCache.getChangedRequests().get( 0 ).get( "filter" ) );
+    }
+
+    @Test
+    public void testGetOrganisationUnitIdsGivenEmptyCache()
+        throws Exception
+    {
+        FakeMetadataCache metadataCache = new FakeMetadataCache( "2022-06-01T00:00:00.000", 1, List.of() );
+
+        assertEquals( List.of( "fdc6uOvgoji" ),
+            metadataCache.getOrganisationUnitIds( 3, () -> toOrganisationUnitIds( "fdc6uOvgoji" ) ) );
+        assertTrue( metadataCache.getChangedRequests().isEmpty() );
+    }
+
+    @Test
+    public void testGetChangedProgramIndicatorIdsGivenEmptyCache()
+    {
+        Map<String, String> lastUpdated = new LinkedHashMap<>();
+        lastUpdated.put( "Uvn6LCg7dVU", "2022-01-01T00:00:00.000" );
+        lastUpdated.put( "OdiHJayrsKo", "2022-01-02T00:00:00.000" );
+
+        assertEquals( List.of( "Uvn6LCg7dVU", "OdiHJayrsKo" ),
+            MetadataCache.getChangedProgramIndicatorIds( lastUpdated, Map.of() ) );
+    }
+
+    @Test
+    public void testGetChangedProgramIndicatorIdsSkipsUnchangedProgramIndicators()
+    {
+        Map<String, String> lastUpdated = new LinkedHashMap<>();
+        lastUpdated.put( "Uvn6LCg7dVU", "2022-01-01T00:00:00.000" );
+        lastUpdated.put( "OdiHJayrsKo", "2022-03-01T00:00:00.000" );
+        lastUpdated.put( "sGna2pquXOO", "2022-01-03T00:00:00.000" );
+
+        Map<String, Map<String, Object>> cachedProgramIndicators = Map.of(
+            "Uvn6LCg7dVU", Map.of( "id", "Uvn6LCg7dVU", "lastUpdated", "2022-01-01T00:00:00.000" ),
+            "OdiHJayrsKo", Map.of( "id", "OdiHJayrsKo", "lastUpdated", "2022-01-02T00:00:00.000" ),
+            "tUdBD1JDxpn", Map.of( "id", "tUdBD1JDxpn", "lastUpdated", "2022-01-04T00:00:00.000" ) );
+
+        assertEquals( List.of( "OdiHJayrsKo", "sGna2pquXOO" ),
+            MetadataCache.getChangedProgramIndicatorIds( lastUpdated, cachedProgramIndicators ) );
+    }
+
+    private void cacheOrganisationUnits( String serverDate, String... ids )
+        throws Exception
+    {
+        new FakeMetadataCache( serverDate, ids.length, List.of() ).getOrganisationUnitIds( 3,
+            () -> toOrganisationUnitIds( ids ) );
+    }
+
+    private static OrganisationUnitIds toOrganisationUnitIds( String... ids )
+    {
+        OrganisationUnitIds.Builder builder = OrganisationUnitIds.builder();
+        for ( String id : ids )
+        {
+            builder.add( id );
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Answers the metadata requests in place of DHIS2. Every instance starts
+     * from the cache file alone, as a new run would.
+     */
+    private class FakeMetadataCache extends MetadataCache
+    {
+        private final String serverDate;
+
+        private final int total;
+
+        private final List<List<String>> changedPages;
+
+        private final List<Map<String, String>> changedRequests = new ArrayList<>();
+
+        FakeMetadataCache( String serverDate, int total, List<List<String>> changedPages )
+        {
+            this.serverDate = serverDate;
+            this.total = total;
+            this.changedPages = changedPages;
+            setEnabled( true );
+            setCachePath( tempDir.resolve( "t2a-metadata-cache.json" ).toString() );
+            setPageSize( 2 );
+            setMetadataCacheStore( new MetadataCacheStore() );
+        }
+
+        @Override
+        Map<String, Object> get( String path, Map<String, String> parameters )
+        {
+            if ( path.equals( "system/info" ) )
+            {
+                return Map.of( "serverDate", serverDate );
+            }
+            if ( parameters.containsKey( "level" ) )
+            {
+                changedRequests.add( parameters );
+                int page = Integer.parseInt( parameters.get( "page" ) );
+                List<String> ids = page <= changedPages.size() ? changedPages.get( page - 1 ) : List.of();
+
+                return Map.of( "pager", Map.of( "page", page, "pageCount", Math.max( 1, changedPages.size() ) ),
+                    "organisationUnits", ids.stream().map( id -> Map.of( "id", id ) ).collect( Collectors.toList() ) );
+            }
+
+            return Map.of( "pager", Map.of( "total", total ) );
+        }
+
+        List<Map<String, String>> getChangedRequests()
+        {
+            return changedRequests;
+        }
+    }
+}
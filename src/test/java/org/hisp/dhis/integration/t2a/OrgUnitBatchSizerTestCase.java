@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class OrgUnitBatchSizerTestCase
+{
+    private OrgUnitBatchSizer orgUnitBatchSizer;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        orgUnitBatchSizer = new OrgUnitBatchSizer();
+        orgUnitBatchSizer.setAdaptive( true );
+        orgUnitBatchSizer.setTargetLatency( 1000 );
+        orgUnitBatchSizer.setMinBatchSize( 1 );
+        orgUnitBatchSizer.setMaxBatchSize( 100 );
+    }
+
+    @Test
+    public void testRecordGrowsBatchSizeAtMostTwofoldWhenLatencyIsBelowTarget()
+    {
+        orgUnitBatchSizer.reset( 10 );
+        orgUnitBatchSizer.record( 10, 100, 40 );
+        assertEquals( 20, orgUnitBatchSizer.getBatchSize() );
+    }
+
+    @Test
+    public void testRecordShrinksBatchSizeImmediatelyWhenLatencyIsAboveTarget()
+    {
+        orgUnitBatchSizer.reset( 50 );
+        orgUnitBatchSizer.record( 50, 10000, 200 );
+        assertEquals( 5, orgUnitBatchSizer.getBatchSize() );
+    }
+
+    @Test
+    public void testRecordKeepsBatchSizeWithinBounds()
+    {
+        orgUnitBatchSizer.reset( 80 );
+        orgUnitBatchSizer.record( 80, 1, 0 );
+        assertEquals( 100, orgUnitBatchSizer.getBatchSize() );
+
+        orgUnitBatchSizer.reset( 80 );
+        orgUnitBatchSizer.record( 80, 1000000, 0 );
+        assertEquals( 1, orgUnitBatchSizer.getBatchSize() );
+    }
+
+    @Test
+    public void testRecordDoesNotChangeBatchSizeWhenNotAdaptive()
+    {
+        orgUnitBatchSizer.setAdaptive( false );
+        orgUnitBatchSizer.reset( 10 );
+        orgUnitBatchSizer.record( 10, 100000, 0 );
+        assertEquals( 10, orgUnitBatchSizer.getBatchSize() );
+    }
+
+    @Test
+    public void testResetFailsGivenMinBatchSizeGreaterThanMaxBatchSize()
+    {
+        orgUnitBatchSizer.setMinBatchSize( 200 );
+        assertThrows( T2AException.class, () -> orgUnitBatchSizer.reset( 10 ) );
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PendingAggregateAnalyticsTestCase
+{
+    @TempDir
+    Path tempDir;
+
+    private String pendingPath;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        pendingPath = tempDir.resolve( "pending-aggregate-analytics.txt" ).toString();
+    }
+
+    @Test
+    public void testPeriodsPendingUntilCleared()
+        throws IOException
+    {
+        PendingAggregateAnalytics pendingAggregateAnalytics = createPendingAggregateAnalytics();
+        assertFalse( pendingAggregateAnalytics.isPending() );
+
+        pendingAggregateAnalytics.add( List.of() );
+        assertFalse( pendingAggregateAnalytics.isPending() );
+
+        pendingAggregateAnalytics.add( List.of( "2022Q2" ) );
+        // a failed generation leaves the periods behind for the next run, which adds its own
+        PendingAggregateAnalytics nextRunPendingAggregateAnalytics = createPendingAggregateAnalytics();
+        nextRunPendingAggregateAnalytics.add( List.of( "2022Q1", "2022Q2" ) );
+        assertTrue( nextRunPendingAggregateAnalytics.isPending() );
+        assertEquals( List.of( "2022Q1", "2022Q2" ), nextRunPendingAggregateAnalytics.getPeriods() );
+
+        nextRunPendingAggregateAnalytics.clear();
+        assertFalse( createPendingAggregateAnalytics().isPending() );
+    }
+
+    @Test
+    public void testAddAll()
+        throws IOException
+    {
+        PendingAggregateAnalytics pendingAggregateAnalytics = createPendingAggregateAnalytics();
+        pendingAggregateAnalytics.add( List.of( "2022Q1" ) );
+        pendingAggregateAnalytics.addAll();
+        pendingAggregateAnalytics.add( List.of( "2022Q2" ) );
+
+        assertTrue( pendingAggregateAnalytics.isPending() );
+        assertNull( pendingAggregateAnalytics.getPeriods() );
+    }
+
+    private PendingAggregateAnalytics createPendingAggregateAnalytics()
+    {
+        PendingAggregateAnalytics pendingAggregateAnalytics = new PendingAggregateAnalytics();
+        pendingAggregateAnalytics.setPendingPath( pendingPath );
+
+        return pendingAggregateAnalytics;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Timer;
+
+public class PipelineMetricsTestCase
+{
+    @Test
+    public void testCountConflictsGivenImportSummary()
+    {
+        assertEquals( 2, PipelineMetrics.countConflicts( "{\"responseType\": \"ImportSummary\", \"conflicts\": "
+            + "[{\"object\": \"DE_1\", \"value\": \"Data element not found\"}, "
+            + "{\"object\": \"DE_2\", \"value\": \"Data element not found\"}]}" ) );
+    }
+
+    @Test
+    public void testCountConflictsGivenWebMessage()
+    {
+        assertEquals( 1, PipelineMetrics.countConflicts( "{\"httpStatus\": \"Conflict\", \"response\": "
+            + "{\"responseType\": \"ImportSummary\", \"conflicts\": [{\"object\": \"DE_1\"}]}}" ) );
+    }
+
+    @Test
+    public void testCountConflictsGivenNoConflicts()
+    {
+        assertEquals( 0, PipelineMetrics.countConflicts( "{\"responseType\": \"ImportSummary\"}" ) );
+        assertEquals( 0, PipelineMetrics.countConflicts( "not JSON" ) );
+    }
+
+    @Test
+    public void testRecordAnalyticsTagsProgramIndicatorAndPeriod()
+    {
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        Dimensions dimensions = new Dimensions( "2022Q1", "ImspTQPwCqd;O6uvpzGd5pu",
+            List.of( new ProgramIndicatorMapping( "Uvn6LCg7dVU", "DE_1", null, null ) ) );
+
+        pipelineMetrics.recordAnalytics( dimensions, 100, false );
+
+        assertEquals( 1, pipelineMetrics.getRegistry().get( "t2a.analytics.requests" )
+            .tag( "programIndicator", "Uvn6LCg7dVU" ).tag( "period", "2022Q1" ).tag( "outcome", "failure" ).timer()
+            .count() );
+    }
+
+    @Test
+    public void testRecordAnalyticsTagsMultipleProgramIndicatorsAndPeriods()
+    {
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        Dimensions dimensions = new Dimensions( "2022Q1;2022Q2", "ImspTQPwCqd",
+            List.of( new ProgramIndicatorMapping( "Uvn6LCg7dVU", "DE_1", null, null ),
+                new ProgramIndicatorMapping( "OdiHJayrsKo", "DE_2", null, null ) ) );
+
+        pipelineMetrics.recordAnalytics( dimensions, 100, true );
+        pipelineMetrics.recordAnalytics( dimensions, 300, true );
+
+        Timer timer = pipelineMetrics.getRegistry().get( "t2a.analytics.requests" )
+            .tag( "programIndicator", "multiple" ).tag( "period", "multiple" )
+            .tag( "outcome", "success" ).timer();
+        assertEquals( 2, timer.count() );
+        assertEquals( 400, timer.totalTime( TimeUnit.MILLISECONDS ) );
+    }
+
+    @Test
+    public void testRecordAnalyticsPublishesHistogram()
+    {
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        Dimensions dimensions = new Dimensions( "2022Q1", "ImspTQPwCqd",
+            List.of( new ProgramIndicatorMapping( "Uvn6LCg7dVU", "DE_1", null, null ) ) );
+
+        pipelineMetrics.recordAnalytics( dimensions, 100, true );
+
+        assertTrue( pipelineMetrics.scrape().contains( "t2a_analytics_requests_seconds_bucket{" ) );
+    }
+
+    @Test
+    public void testRecordAnalyticsResultCountsPerProgramIndicator()
+    {
+        PipelineMetrics pipelineMetrics = new PipelineMetrics();
+        Dimensions dimensions = new Dimensions( "2022Q1", "ImspTQPwCqd",
+            List.of( new ProgramIndicatorMapping( "Uvn6LCg7dVU", "DE_1", null, null ),
+                new ProgramIndicatorMapping( "OdiHJayrsKo", "DE_2", null, null ) ) );
+
+        pipelineMetrics.recordAnalyticsResult( dimensions, new int[] { 3, 1 }, new int[] { 4, 0 } );
+
+        assertEquals( 3, pipelineMetrics.getRegistry().get( "t2a.analytics.rows" )
+            .tag( "programIndicator", "Uvn6LCg7dVU" ).tag( "period", "2022Q1" ).counter().count() );
+        assertEquals( 1, pipelineMetrics.getRegistry().get( "t2a.analytics.rows" )
+            .tag( "programIndicator", "OdiHJayrsKo" ).counter().count() );
+        assertEquals( 4, pipelineMetrics.getRegistry().get( "t2a.data.values" )
+            .tag( "programIndicator", "Uvn6LCg7dVU" ).counter().count() );
+        assertEquals( 0, pipelineMetrics.getRegistry().get( "t2a.data.values" )
+            .tag( "programIndicator", "OdiHJayrsKo" ).counter().count() );
+    }
+}
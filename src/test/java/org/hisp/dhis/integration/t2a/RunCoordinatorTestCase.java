@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class RunCoordinatorTestCase
+{
+    private final RunCoordinator runCoordinator = new RunCoordinator();
+
+    @Test
+    public void testTriggerStartsRunWhenIdle()
+    {
+        RunCoordinator.Run run = runCoordinator.trigger( false );
+
+        assertTrue( run.isStart() );
+        assertEquals( run.getId(), runCoordinator.getCurrentRunId() );
+    }
+
+    @Test
+    public void testTriggersDuringRunCollapseIntoOneFollowUpRun()
+    {
+        RunCoordinator.Run run = runCoordinator.trigger( false );
+        RunCoordinator.Run firstTrigger = runCoordinator.trigger( false );
+        RunCoordinator.Run secondTrigger = runCoordinator.trigger( true );
+
+        assertFalse( firstTrigger.isStart() );
+        assertFalse( secondTrigger.isStart() );
+        assertNotEquals( run.getId(), firstTrigger.getId() );
+        assertEquals( firstTrigger.getId(), secondTrigger.getId() );
+
+        RunCoordinator.Run followUpRun = runCoordinator.finish( run.getId() );
+        assertEquals( firstTrigger.getId(), followUpRun.getId() );
+        assertTrue( followUpRun.isStart() );
+        assertTrue( followUpRun.isFullPush() );
+
+        assertNull( runCoordinator.finish( followUpRun.getId() ) );
+        assertNull( runCoordinator.getCurrentRunId() );
+    }
+
+    @Test
+    public void testFinishIgnoresUnknownRun()
+    {
+        RunCoordinator.Run run = runCoordinator.trigger( false );
+
+        assertNull( runCoordinator.finish( null ) );
+        assertNull( runCoordinator.finish( "unknown" ) );
+        assertEquals( run.getId(), runCoordinator.getCurrentRunId() );
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.cluster;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.hisp.dhis.integration.t2a.DataValueSetBatcher;
+import org.hisp.dhis.integration.t2a.ImportTotals;
+import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+import org.hisp.dhis.integration.t2a.route.T2ARouteBuilder;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ClusterWorkQueueTestCase
+{
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testWorkItemsAreProcessedOnceAcrossNodes()
+        throws IOException
+    {
+        ClusterWorkQueue coordinator = createQueue( "coordinator", "a" );
+        ClusterWorkQueue worker = createQueue( "worker", "b" );
+        Exchange coordinatorExchange = createExchange( "run-1" );
+        coordinator.publish( coordinatorExchange, createDimensions( 3 ).iterator() );
+
+        assertEquals( "run-1", worker.findOpenRun() );
+        Exchange workerExchange = createExchange( null );
+        workerExchange.setProperty( ClusterWorkQueue.CLUSTER_RUN_PROPERTY, worker.findOpenRun() );
+        Iterator<Dimensions> workerItems = worker.claim( workerExchange );
+        assertTrue( workerItems.hasNext() );
+        assertEquals( "2022Q0", workerItems.next().getPeriods() );
+
+        Iterator<Dimensions> coordinatorItems = coordinator.claim( coordinatorExchange );
+        assertEquals( "2022Q1", coordinatorItems.next().getPeriods() );
+        assertEquals( "2022Q2", coordinatorItems.next().getPeriods() );
+        assertFalse( workerItems.hasNext() );
+        assertNull( worker.findOpenRun() );
+
+        ImportTotals workerImportTotals = new ImportTotals();
+        workerImportTotals.merge( 1, 1, 0, 0, 0, 0, List.of( "2022Q0" ) );
+        worker.report( workerExchange, workerImportTotals );
+        worker.completeClaims();
+        assertFalse( coordinatorItems.hasNext() );
+
+        ImportTotals importTotals = new ImportTotals();
+        coordinator.finishRun( coordinatorExchange, importTotals );
+        assertEquals( 1, importTotals.getImports() );
+        assertEquals( List.of( "2022Q0" ), List.copyOf( importTotals.getChangedPeriods() ) );
+        assertEquals( 3, countFiles( tempDir.resolve( "run-1" ).resolve( "done" ) ) );
+    }
+
+    @Test
+    public void testPublishKeepsWindowOfItemsPending()
+        throws IOException
+    {
+        ClusterWorkQueue coordinator = createQueue( "coordinator", "a" );
+        coordinator.setPublishWindow( 2 );
+        ClusterWorkQueue worker = createQueue( "worker", "b" );
+        Exchange exchange = createExchange( "run-1" );
+        Iterator<Dimensions> dimensions = createDimensions( 5 ).iterator();
+        coordinator.publish( exchange, dimensions );
+        assertEquals( 2, countFiles( tempDir.resolve( "run-1" ).resolve( "pending" ) ) );
+
+        Iterator<Dimensions> workerItems = worker.claim( exchange );
+        assertEquals( "2022Q0", workerItems.next().getPeriods() );
+        assertEquals( "2022Q1", workerItems.next().getPeriods() );
+        assertFalse( workerItems.hasNext() );
+        assertTrue( dimensions.hasNext() );
+
+        coordinator.publishPending();
+        assertEquals( 2, countFiles( tempDir.resolve( "run-1" ).resolve( "pending" ) ) );
+        worker.completeClaims();
+
+        Iterator<Dimensions> coordinatorItems = coordinator.claim( exchange );
+        List<String> periods = new ArrayList<>();
+        coordinatorItems.forEachRemaining( item -> periods.add( item.getPeriods() ) );
+        assertEquals( List.of( "2022Q2", "2022Q3", "2022Q4" ), periods );
+        assertFalse( dimensions.hasNext() );
+    }
+
+    @Test
+    public void testClaimTakesOverExpiredClaim()
+        throws IOException
+    {
+        ClusterWorkQueue coordinator = createQueue( "coordinator", "a" );
+        ClusterWorkQueue worker = createQueue( "worker", "b" );
+        Exchange exchange = createExchange( "run-1" );
+        coordinator.publish( exchange, createDimensions( 1 ).iterator() );
+        assertTrue( worker.claim( exchange ).hasNext() );
+
+        writeLeaseDeadline( System.currentTimeMillis() - 120000 );
+
+        Iterator<Dimensions> coordinatorItems = coordinator.claim( exchange );
+        assertTrue( coordinatorItems.hasNext() );
+        assertEquals( "2022Q0", coordinatorItems.next().getPeriods() );
+        assertFalse( coordinatorItems.hasNext() );
+    }
+
+    @Test
+    public void testClaimLeavesClaimExpiredWithinClockSkew()
+        throws IOException
+    {
+        ClusterWorkQueue coordinator = createQueue( "coordinator", "a" );
+        ClusterWorkQueue worker = createQueue( "worker", "b" );
+        ClusterWorkQueue otherWorker = createQueue( "worker", "c" );
+        Exchange exchange = createExchange( "run-1" );
+        coordinator.publish( exchange, createDimensions( 1 ).iterator() );
+        assertTrue( worker.claim( exchange ).hasNext() );
+
+        // the clock of the claiming node is a second behind
+        writeLeaseDeadline( System.currentTimeMillis() - 1000 );
+        assertFalse( otherWorker.claim( exchange ).hasNext() );
+
+        writeLeaseDeadline( System.currentTimeMillis() - 10000 );
+        assertTrue( otherWorker.claim( exchange ).hasNext() );
+    }
+
+    @Test
+    public void testItemIsDoneOnceItsDataValuesAreImported()
+        throws IOException
+    {
+        ClusterWorkQueue coordinator = createQueue( "coordinator", "a" );
+        ClusterWorkQueue worker = createQueue( "worker", "b" );
+        Exchange exchange = createExchange( "run-1" );
+        coordinator.publish( exchange, createDimensions( 2 ).iterator() );
+        Iterator<Dimensions> workerItems = worker.claim( exchange );
+        Dimensions first = workerItems.next();
+        Dimensions second = workerItems.next();
+
+        DataValueSetBatcher dataValueSetBatcher = new DataValueSetBatcher();
+        dataValueSetBatcher.setBatchSize( 2 );
+        dataValueSetBatcher.setFlushInterval( Long.MAX_VALUE );
+        worker.register( first, true );
+        List<EncodedDataValues> dataValueSets = dataValueSetBatcher.add( createDataValues( first, 2 ) );
+        assertEquals( 1, dataValueSets.size() );
+        worker.submitted( dataValueSets.get( 0 ) );
+        assertEquals( 0, countFiles( tempDir.resolve( "run-1" ).resolve( "done" ) ) );
+
+        worker.imported( dataValueSets.get( 0 ) );
+        assertEquals( 1, countFiles( tempDir.resolve( "run-1" ).resolve( "done" ) ) );
+        assertEquals( 1, countFiles( tempDir.resolve( "run-1" ).resolve( "claimed" ) ) );
+
+        worker.register( second, false );
+        assertEquals( 2, countFiles( tempDir.resolve( "run-1" ).resolve( "done" ) ) );
+        assertEquals( 0, countFiles( tempDir.resolve( "run-1" ).resolve( "claimed" ) ) );
+    }
+
+    @Test
+    public void testReleaseClaimsRequeuesWorkItems()
+        throws IOException
+    {
+        ClusterWorkQueue coordinator = createQueue( "coordinator", "a" );
+        ClusterWorkQueue worker = createQueue( "worker", "b" );
+        Exchange exchange = createExchange( "run-1" );
+        coordinator.publish( exchange, createDimensions( 1 ).iterator() );
+        assertTrue( worker.claim( exchange ).hasNext() );
+        assertNull( worker.findOpenRun() );
+
+        worker.releaseClaims();
+        assertEquals( "run-1", worker.findOpenRun() );
+    }
+
+    @Test
+    public void testCoordinatorClaimsItemReleasedWhileWaiting()
+        throws Exception
+    {
+        ClusterWorkQueue coordinator = createQueue( "coordinator", "a" );
+        ClusterWorkQueue worker = createQueue( "worker", "b" );
+        Exchange exchange = createExchange( "run-1" );
+        coordinator.publish( exchange, createDimensions( 1 ).iterator() );
+        assertTrue( worker.claim( exchange ).hasNext() );
+
+        Iterator<Dimensions> coordinatorItems = coordinator.claim( exchange );
+        CompletableFuture<Boolean> hasNext = CompletableFuture.supplyAsync( coordinatorItems::hasNext );
+        Thread.sleep( 100 );
+        assertFalse( hasNext.isDone() );
+
+        worker.releaseClaims();
+        assertTrue( hasNext.get( 5, TimeUnit.SECONDS ) );
+        assertEquals( "2022Q0", coordinatorItems.next().getPeriods() );
+        assertFalse( coordinatorItems.hasNext() );
+    }
+
+    @Test
+    public void testPublishDropsEarlierRun()
+        throws IOException
+    {
+        ClusterWorkQueue coordinator = createQueue( "coordinator", "a" );
+        coordinator.publish( createExchange( "run-1" ), createDimensions( 2 ).iterator() );
+        coordinator.publish( createExchange( "run-2" ), createDimensions( 1 ).iterator() );
+
+        assertFalse( Files.exists( tempDir.resolve( "run-1" ) ) );
+        assertEquals( "run-2", coordinator.findOpenRun() );
+
+        coordinator.close( "run-2" );
+        assertNull( coordinator.findOpenRun() );
+    }
+
+    @Test
+    public void testDimensionsSurviveJsonRoundTrip()
+        throws IOException
+    {
+        Dimensions dimensions = new Dimensions( "2022Q1;2022Q2", "ImspTQPwCqd;O6uvpzGd5pu",
+            List.of( new ProgramIndicatorMapping( "PI1", "DE1", "COC1", null ),
+                new ProgramIndicatorMapping( "PI2", "DE2", null, "AOC2" ) ) );
+        ObjectMapper objectMapper = new ObjectMapper();
+
+        assertEquals( dimensions, ClusterWorkQueue.fromJson(
+            objectMapper.readTree( objectMapper.writeValueAsBytes( ClusterWorkQueue.toJson( dimensions ) ) ) ) );
+    }
+
+    private ClusterWorkQueue createQueue( String mode, String nodeId )
+    {
+        ClusterWorkQueue clusterWorkQueue = new ClusterWorkQueue();
+        clusterWorkQueue.setMode( mode );
+        clusterWorkQueue.setNodeId( nodeId );
+        clusterWorkQueue.setQueuePath( tempDir.toString() );
+        clusterWorkQueue.setLeaseDuration( 60000 );
+        clusterWorkQueue.setPollInterval( 10 );
+        clusterWorkQueue.setClockSkew( 5000 );
+        clusterWorkQueue.setPublishWindow( 100 );
+
+        return clusterWorkQueue;
+    }
+
+    private void writeLeaseDeadline( long leaseDeadline )
+        throws IOException
+    {
+        Path claim;
+        try ( Stream<Path> claims = Files.list( tempDir.resolve( "run-1" ).resolve( "claimed" ) ) )
+        {
+            claim = claims.findFirst().orElseThrow();
+        }
+        ObjectMapper objectMapper = new ObjectMapper();
+        Map<String, Object> json = ClusterWorkQueue.toJson( ClusterWorkQueue.fromJson( objectMapper.readTree(
+            claim.toFile() ) ) );
+        json.put( "leaseDeadline", leaseDeadline );
+        Files.write( claim, objectMapper.writeValueAsBytes( json ) );
+    }
+
+    private static Exchange createExchange( String runId )
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.setProperty( T2ARouteBuilder.RUN_ID_PROPERTY, runId );
+
+        return exchange;
+    }
+
+    private static List<Dimensions> createDimensions( int count )
+    {
+        List<Dimensions> dimensions = new ArrayList<>();
+        for ( int i = 0; i < count; i++ )
+        {
+            dimensions.add( new Dimensions( "2022Q" + i, "ImspTQPwCqd",
+                List.of( new ProgramIndicatorMapping( "PI" + i, "DE" + i, null, null ) ) ) );
+        }
+
+        return dimensions;
+    }
+
+    private static EncodedDataValues createDataValues( Dimensions dimensions, int count )
+        throws IOException
+    {
+        EncodedDataValues.Builder builder = EncodedDataValues.builder().source( dimensions );
+        for ( int i = 0; i < count; i++ )
+        {
+            builder.add( "DE" + i, dimensions.getPeriods(), dimensions.getOrganisationUnitIds(), null, null,
+                String.valueOf( i ) );
+        }
+
+        return builder.build();
+    }
+
+    private static long countFiles( Path dir )
+        throws IOException
+    {
+        try ( Stream<Path> files = Files.list( dir ) )
+        {
+            return files.count();
+        }
+    }
+}
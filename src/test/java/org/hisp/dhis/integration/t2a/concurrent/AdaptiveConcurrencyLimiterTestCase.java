@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.concurrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AdaptiveConcurrencyLimiterTestCase
+{
+    private AdaptiveConcurrencyLimiter adaptiveConcurrencyLimiter;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        adaptiveConcurrencyLimiter = new AdaptiveConcurrencyLimiter();
+        adaptiveConcurrencyLimiter.setEnabled( true );
+        adaptiveConcurrencyLimiter.setMinLimit( 1 );
+        adaptiveConcurrencyLimiter.setMaxLimit( 8 );
+        adaptiveConcurrencyLimiter.init();
+    }
+
+    @AfterEach
+    public void afterEach()
+    {
+        adaptiveConcurrencyLimiter.destroy();
+    }
+
+    @Test
+    public void testReleaseRaisesLimitWhileLatencyIsFlat()
+        throws InterruptedException
+    {
+        runQueries( 4, 100 );
+
+        assertEquals( 3, adaptiveConcurrencyLimiter.getLimit() );
+        assertEquals( 0, adaptiveConcurrencyLimiter.getInFlight() );
+    }
+
+    @Test
+    public void testReleaseDoesNotRaiseLimitAboveMax()
+        throws InterruptedException
+    {
+        runQueries( 100, 100 );
+
+        assertEquals( 8, adaptiveConcurrencyLimiter.getLimit() );
+    }
+
+    @Test
+    public void testReleaseCutsLimitOnLatencySpike()
+        throws InterruptedException
+    {
+        runQueries( 100, 100 );
+        assertEquals( 8, adaptiveConcurrencyLimiter.getLimit() );
+
+        adaptiveConcurrencyLimiter.acquire();
+        adaptiveConcurrencyLimiter.release( 1000, 1, true );
+
+        assertEquals( 6, adaptiveConcurrencyLimiter.getLimit() );
+    }
+
+    @Test
+    public void testReleaseComparesLatencyPerOrgUnit()
+        throws InterruptedException
+    {
+        runQueries( 100, 100 );
+        assertEquals( 8, adaptiveConcurrencyLimiter.getLimit() );
+
+        // four times the org units in four times the time is as fast as before
+        adaptiveConcurrencyLimiter.acquire();
+        adaptiveConcurrencyLimiter.release( 400, 4, true );
+        assertEquals( 8, adaptiveConcurrencyLimiter.getLimit() );
+        assertEquals( 100, adaptiveConcurrencyLimiter.getBaselineLatency(), 0.001 );
+
+        adaptiveConcurrencyLimiter.acquire();
+        adaptiveConcurrencyLimiter.release( 1000, 4, true );
+        assertEquals( 6, adaptiveConcurrencyLimiter.getLimit() );
+    }
+
+    @Test
+    public void testReleaseHalvesLimitOnFailure()
+        throws InterruptedException
+    {
+        runQueries( 100, 100 );
+
+        adaptiveConcurrencyLimiter.acquire();
+        adaptiveConcurrencyLimiter.release( 100, 1, false );
+        assertEquals( 4, adaptiveConcurrencyLimiter.getLimit() );
+
+        adaptiveConcurrencyLimiter.acquire();
+        adaptiveConcurrencyLimiter.release( 100, 1, false );
+        adaptiveConcurrencyLimiter.acquire();
+        adaptiveConcurrencyLimiter.release( 100, 1, false );
+        adaptiveConcurrencyLimiter.acquire();
+        adaptiveConcurrencyLimiter.release( 100, 1, false );
+        assertEquals( 1, adaptiveConcurrencyLimiter.getLimit() );
+    }
+
+    @Test
+    public void testCancelKeepsLimit()
+        throws InterruptedException
+    {
+        runQueries( 4, 100 );
+
+        adaptiveConcurrencyLimiter.acquire();
+        adaptiveConcurrencyLimiter.cancel();
+        assertEquals( 3, adaptiveConcurrencyLimiter.getLimit() );
+        assertEquals( 0, adaptiveConcurrencyLimiter.getInFlight() );
+    }
+
+    @Test
+    public void testAcquireDoesNothingWhenDisabled()
+        throws InterruptedException
+    {
+        AdaptiveConcurrencyLimiter disabledConcurrencyLimiter = new AdaptiveConcurrencyLimiter();
+        disabledConcurrencyLimiter.init();
+        for ( int i = 0; i < 100; i++ )
+        {
+            disabledConcurrencyLimiter.acquire();
+        }
+
+        assertEquals( 0, disabledConcurrencyLimiter.getInFlight() );
+    }
+
+    @Test
+    public void testInitStartsFromInitialLimit()
+    {
+        AdaptiveConcurrencyLimiter initialConcurrencyLimiter = new AdaptiveConcurrencyLimiter();
+        initialConcurrencyLimiter.setInitialLimit( 4 );
+        initialConcurrencyLimiter.init();
+
+        assertEquals( 4, initialConcurrencyLimiter.getLimit() );
+    }
+
+    @Test
+    public void testInitRejectsInitialLimitAboveMaxLimit()
+    {
+        AdaptiveConcurrencyLimiter badConcurrencyLimiter = new AdaptiveConcurrencyLimiter();
+        badConcurrencyLimiter.setMaxLimit( 5 );
+        badConcurrencyLimiter.setInitialLimit( 10 );
+
+        assertThrows( T2AException.class, badConcurrencyLimiter::init );
+    }
+
+    @Test
+    public void testInitRejectsMinLimitAboveMaxLimit()
+    {
+        AdaptiveConcurrencyLimiter badConcurrencyLimiter = new AdaptiveConcurrencyLimiter();
+        badConcurrencyLimiter.setMinLimit( 10 );
+        badConcurrencyLimiter.setMaxLimit( 5 );
+
+        assertThrows( T2AException.class, badConcurrencyLimiter::init );
+    }
+
+    // keeps every slot busy while the given no. of queries complete, then lets the rest finish
+    private void runQueries( int queries, long latency )
+        throws InterruptedException
+    {
+        fillSlots();
+        for ( int i = 0; i < queries; i++ )
+        {
+            adaptiveConcurrencyLimiter.release( latency, 1, true );
+            fillSlots();
+        }
+        while ( adaptiveConcurrencyLimiter.getInFlight() > 0 )
+        {
+            adaptiveConcurrencyLimiter.release( latency, 1, true );
+        }
+    }
+
+    private void fillSlots()
+        throws InterruptedException
+    {
+        while ( adaptiveConcurrencyLimiter.getInFlight() < adaptiveConcurrencyLimiter.getLimit() )
+        {
+            adaptiveConcurrencyLimiter.acquire();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.concurrent;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.junit.jupiter.api.Test;
+
+public class PermitLimitedExecutorServiceTestCase
+{
+    @Test
+    public void testExecuteDoesNotRunMoreTasksAtOnceThanPermits()
+        throws InterruptedException
+    {
+        PermitLimitedExecutorService executorService = new PermitLimitedExecutorService(
+            Executors.newCachedThreadPool(), 2 );
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch( 10 );
+
+        for ( int i = 0; i < 10; i++ )
+        {
+            executorService.execute( () -> {
+                maxRunning.accumulateAndGet( running.incrementAndGet(), Math::max );
+                try
+                {
+                    Thread.sleep( 10 );
+                }
+                catch ( InterruptedException e )
+                {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+                done.countDown();
+            } );
+        }
+
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        assertEquals( 2, maxRunning.get() );
+        executorService.shutdown();
+        assertTrue( executorService.awaitTermination( 10, TimeUnit.SECONDS ) );
+        assertEquals( 0, executorService.getActiveCount() );
+    }
+
+    @Test
+    public void testExecuteReleasesPermitWhenTaskFails()
+        throws InterruptedException
+    {
+        PermitLimitedExecutorService executorService = new PermitLimitedExecutorService(
+            Executors.newSingleThreadExecutor(), 1 );
+        executorService.execute( () -> {
+            throw new IllegalStateException();
+        } );
+
+        CountDownLatch done = new CountDownLatch( 1 );
+        executorService.execute( done::countDown );
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+        executorService.shutdown();
+    }
+
+    @Test
+    public void testConstructorRejectsNonPositivePermits()
+    {
+        assertThrows( T2AException.class,
+            () -> new PermitLimitedExecutorService( Executors.newSingleThreadExecutor(), 0 ) );
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.http;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.junit.jupiter.api.Test;
+
+public class Dhis2CredentialsTestCase
+{
+    @Test
+    public void testValidateGivenPatAndBasicAuthentication()
+    {
+        Dhis2Credentials dhis2Credentials = new Dhis2Credentials();
+        dhis2Credentials.setPat( "d2pat_apheulkR1x7ac8vr9vcxrFkXlgeRiFc94200032556" );
+        dhis2Credentials.setUsername( "admin" );
+
+        assertThrows( T2AException.class, dhis2Credentials::validate );
+    }
+
+    @Test
+    public void testValidateGivenNoAuthentication()
+    {
+        Dhis2Credentials dhis2Credentials = new Dhis2Credentials();
+        dhis2Credentials.setUsername( "admin" );
+
+        assertThrows( T2AException.class, dhis2Credentials::validate );
+    }
+
+    @Test
+    public void testGetAuthorization()
+    {
+        Dhis2Credentials dhis2Credentials = new Dhis2Credentials();
+        dhis2Credentials.setUsername( "admin" );
+        dhis2Credentials.setPassword( "district" );
+        dhis2Credentials.validate();
+        assertEquals( "Basic YWRtaW46ZGlzdHJpY3Q=", dhis2Credentials.getAuthorization() );
+
+        dhis2Credentials.setUsername( null );
+        dhis2Credentials.setPassword( null );
+        dhis2Credentials.setPat( "d2pat_apheulkR1x7ac8vr9vcxrFkXlgeRiFc94200032556" );
+        dhis2Credentials.validate();
+        assertEquals( "ApiToken d2pat_apheulkR1x7ac8vr9vcxrFkXlgeRiFc94200032556",
+            dhis2Credentials.getAuthorization() );
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.http;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.junit.jupiter.api.Test;
+
+public class Dhis2HttpClientTestCase
+{
+    private static final byte[] DATA_VALUE_SET = ("{\"dataValues\":["
+        + "{\"dataElement\":\"DE_1\",\"period\":\"2022Q1\",\"orgUnit\":\"ImspTQPwCqd\",\"value\":\"5\"},".repeat( 100 )
+        + "{\"dataElement\":\"DE_1\",\"period\":\"2022Q2\",\"orgUnit\":\"ImspTQPwCqd\",\"value\":\"6\"}]}")
+            .getBytes( StandardCharsets.UTF_8 );
+
+    @Test
+    public void testGzip()
+        throws IOException
+    {
+        byte[] wireContent = Dhis2HttpClient.gzip( DATA_VALUE_SET );
+
+        assertTrue( wireContent.length * 10 < DATA_VALUE_SET.length );
+        try ( InputStream inputStream = new GZIPInputStream( new ByteArrayInputStream( wireContent ) ) )
+        {
+            assertArrayEquals( DATA_VALUE_SET, inputStream.readAllBytes() );
+        }
+    }
+
+    @Test
+    public void testCountingInputStreamCountsWireAndContentBytes()
+        throws IOException
+    {
+        byte[] wireContent = Dhis2HttpClient.gzip( DATA_VALUE_SET );
+        Dhis2HttpClient.CountingInputStream wireStream = new Dhis2HttpClient.CountingInputStream(
+            new ByteArrayInputStream( wireContent ) );
+        Dhis2HttpClient.CountingInputStream contentStream = new Dhis2HttpClient.CountingInputStream(
+            new GZIPInputStream( wireStream ) );
+
+        assertEquals( '{', contentStream.read() );
+        contentStream.readAllBytes();
+
+        assertEquals( DATA_VALUE_SET.length, contentStream.getCount() );
+        assertEquals( wireContent.length, wireStream.getCount() );
+    }
+
+    @Test
+    public void testCreateHttpClientsGivenNonPositivePoolSize()
+    {
+        Dhis2HttpClient dhis2HttpClient = new Dhis2HttpClient();
+        dhis2HttpClient.setPoolSize( 0 );
+
+        assertThrows( T2AException.class, dhis2HttpClient::createHttpClients );
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.job;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+public class JobLauncherTestCase
+{
+    @Test
+    public void testGetJobDefinitionsGivenNoJobs()
+    {
+        assertTrue( JobLauncher.getJobDefinitions( new MockEnvironment() ).isEmpty() );
+    }
+
+    @Test
+    public void testGetJobDefinitions()
+    {
+        MockEnvironment environment = new MockEnvironment().withProperty( "jobs", "malawi, sierra-leone" )
+            .withProperty( "jobs.malawi.pi.group.id", "Lesc1szBJGe" ).withProperty( "jobs.malawi.weight", "3" )
+            .withProperty( "jobs.sierra-leone.org.unit.level", "3" );
+
+        List<JobDefinition> jobDefinitions = JobLauncher.getJobDefinitions( environment );
+
+        assertEquals( 2, jobDefinitions.size() );
+        assertEquals( new JobDefinition( "malawi", 3, Map.of( "pi.group.id", "Lesc1szBJGe" ) ),
+            jobDefinitions.get( 0 ) );
+        assertEquals( new JobDefinition( "sierra-leone", 1, Map.of( "org.unit.level", "3" ) ),
+            jobDefinitions.get( 1 ) );
+    }
+
+    @Test
+    public void testGetJobDefinitionsFromCommandLine()
+    {
+        List<JobDefinition> jobDefinitions = JobLauncher.getJobDefinitions(
+            JobLauncher.loadEnvironment( new String[] { "--jobs=malawi", "--jobs.malawi.weight=2" } ) );
+
+        assertEquals( List.of( new JobDefinition( "malawi", 2, Map.of() ) ), jobDefinitions );
+    }
+
+    @Test
+    public void testGetJobDefinitionsGivenBadJobName()
+    {
+        MockEnvironment environment = new MockEnvironment().withProperty( "jobs", "Malawi" );
+
+        assertThrows( T2AException.class, () -> JobLauncher.getJobDefinitions( environment ) );
+    }
+
+    @Test
+    public void testGetJobDefinitionsGivenNonPositiveWeight()
+    {
+        MockEnvironment environment = new MockEnvironment().withProperty( "jobs", "malawi" )
+            .withProperty( "jobs.malawi.weight", "0" );
+
+        assertThrows( T2AException.class, () -> JobLauncher.getJobDefinitions( environment ) );
+    }
+
+    @Test
+    public void testGetConcurrencyBudgetDefaultsToThreadPerJob()
+    {
+        List<JobDefinition> jobDefinitions = List.of( new JobDefinition( "malawi", 1, Map.of() ),
+            new JobDefinition( "sierra-leone", 1, Map.of() ) );
+
+        assertEquals( 2, JobLauncher.getConcurrencyBudget( new MockEnvironment(), jobDefinitions ) );
+        assertEquals( 8, JobLauncher.getConcurrencyBudget(
+            new MockEnvironment().withProperty( "jobs.concurrency", "8" ), jobDefinitions ) );
+    }
+
+    @Test
+    public void testGetJobPropertiesSharesOutConcurrencyBudgetByWeight()
+    {
+        MockEnvironment topLevel = new MockEnvironment();
+
+        assertEquals( "6", JobLauncher.getJobProperties( new JobDefinition( "malawi", 3, Map.of() ), 8, 4, topLevel )
+            .get( "thread.pool.size" ) );
+        assertEquals( "2", JobLauncher.getJobProperties( new JobDefinition( "sierra-leone", 1, Map.of() ), 8, 4,
+            topLevel ).get( "thread.pool.size" ) );
+        assertEquals( "1", JobLauncher.getJobProperties( new JobDefinition( "sierra-leone", 1, Map.of() ), 1, 4,
+            topLevel ).get( "thread.pool.size" ) );
+        assertEquals( "5", JobLauncher.getJobProperties(
+            new JobDefinition( "sierra-leone", 1, Map.of( "thread.pool.size", "5" ) ), 8, 4, topLevel )
+            .get( "thread.pool.size" ) );
+    }
+
+    @Test
+    public void testGetJobPropertiesKeepsJobsApart()
+    {
+        MockEnvironment topLevel = new MockEnvironment().withProperty( "checkpoint.journal.path",
+            "/var/lib/t2a/checkpoint.journal" );
+
+        Map<String, String> properties = JobLauncher.getJobProperties( new JobDefinition( "malawi", 1, Map.of() ), 1,
+            1, topLevel );
+
+        assertEquals( "malawi", properties.get( "job.name" ) );
+        assertEquals( "http://localhost:8081/dhis2/t2a/malawi", properties.get( "http.endpoint.uri" ) );
+        assertEquals( "http://localhost:8081/dhis2/t2a/metrics/malawi", properties.get( "metrics.endpoint.uri" ) );
+        assertEquals( "/var/lib/t2a/malawi-checkpoint.journal", properties.get( "checkpoint.journal.path" ) );
+        assertEquals( "malawi-t2a-fingerprints.bin", properties.get( "delta.push.store.path" ) );
+        assertEquals( "malawi-t2a-pending-aggregate-analytics.txt",
+            properties.get( "run.aggregate.analytics.pending.path" ) );
+    }
+
+    @Test
+    public void testGetJobPropertiesSharesMetadataCacheByServer()
+    {
+        MockEnvironment topLevel = new MockEnvironment().withProperty( "dhis2.api.url",
+            "https://play.dhis2.org/2.38.0/api" );
+
+        assertEquals( "play.dhis2.org_2.38.0_api-t2a-metadata-cache.json",
+            JobLauncher.getJobProperties( new JobDefinition( "malawi", 1, Map.of() ), 1, 2, topLevel )
+                .get( "metadata.cache.path" ) );
+        assertEquals( "play.dhis2.org_2.38.0_api-t2a-metadata-cache.json",
+            JobLauncher.getJobProperties( new JobDefinition( "sierra-leone", 1, Map.of() ), 1, 2, topLevel )
+                .get( "metadata.cache.path" ) );
+        assertEquals( "dhis2.example.org_api-t2a-metadata-cache.json",
+            JobLauncher.getJobProperties( new JobDefinition( "sierra-leone", 1,
+                Map.of( "dhis2.api.url", "https://dhis2.example.org/api" ) ), 1, 2, topLevel )
+                .get( "metadata.cache.path" ) );
+    }
+}
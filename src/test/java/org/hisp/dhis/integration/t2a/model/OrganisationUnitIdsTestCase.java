@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class OrganisationUnitIdsTestCase
+{
+    @Test
+    public void testBuildKeepsIdsInOrder()
+    {
+        List<String> expectedIds = new ArrayList<>();
+        OrganisationUnitIds.Builder builder = OrganisationUnitIds.builder();
+        for ( int i = 0; i < 1000; i++ )
+        {
+            String id = "OU" + i;
+            expectedIds.add( id );
+            builder.add( id );
+        }
+
+        OrganisationUnitIds organisationUnitIds = builder.build();
+        assertEquals( expectedIds, organisationUnitIds );
+        assertEquals( expectedIds.subList( 10, 20 ), organisationUnitIds.subList( 10, 20 ) );
+        assertEquals( String.join( ";", expectedIds ), String.join( ";", organisationUnitIds ) );
+    }
+
+    @Test
+    public void testAddAllAppendsIds()
+    {
+        OrganisationUnitIds first = OrganisationUnitIds.builder().add( "ImspTQPwCqd" ).add( "O6uvpzGd5pu" ).build();
+        OrganisationUnitIds second = OrganisationUnitIds.builder().add( "fdc6uOvgoji" ).build();
+
+        OrganisationUnitIds organisationUnitIds = OrganisationUnitIds.builder().addAll( first )
+            .addAll( OrganisationUnitIds.builder().build() ).addAll( second ).build();
+        assertEquals( List.of( "ImspTQPwCqd", "O6uvpzGd5pu", "fdc6uOvgoji" ), organisationUnitIds );
+    }
+
+    @Test
+    public void testGetThrowsGivenIndexOutOfBounds()
+    {
+        OrganisationUnitIds organisationUnitIds = OrganisationUnitIds.builder().build();
+
+        assertTrue( organisationUnitIds.isEmpty() );
+        assertThrows( IndexOutOfBoundsException.class, () -> organisationUnitIds.get( 0 ) );
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class AnalyticsFreshnessCheckerTestCase
+{
+    private final AnalyticsFreshnessChecker analyticsFreshnessChecker = new AnalyticsFreshnessChecker();
+
+    @Test
+    public void testGetEventTablesGenerationBeforeAnyGeneration()
+    {
+        assertNull( analyticsFreshnessChecker.getEventTablesGeneration( LocalDateTime.parse( "2022-06-01T00:00" ) ) );
+    }
+
+    @Test
+    public void testGetEventTablesGenerationGivenNoLastGeneration()
+    {
+        generateEventAndAggregateTables();
+
+        assertNull( analyticsFreshnessChecker.getEventTablesGeneration( null ) );
+    }
+
+    @Test
+    public void testGetEventTablesGenerationGivenAggregateOnlyLastGeneration()
+    {
+        generateEventAndAggregateTables();
+
+        assertEquals( LocalDateTime.parse( "2022-06-01T01:00" ),
+            analyticsFreshnessChecker.getEventTablesGeneration( LocalDateTime.parse( "2022-06-01T03:00" ) ) );
+    }
+
+    @Test
+    public void testGetEventTablesGenerationGivenEventLastGeneration()
+    {
+        analyticsFreshnessChecker.generationStarted( true, "2022-06-01T01:00:00.000" );
+        analyticsFreshnessChecker.generationCompleted( true, "2022-06-01T02:00:00.000" );
+
+        assertEquals( LocalDateTime.parse( "2022-06-01T01:00" ),
+            analyticsFreshnessChecker.getEventTablesGeneration( LocalDateTime.parse( "2022-06-01T01:59:58" ) ) );
+    }
+
+    @Test
+    public void testGetEventTablesGenerationGivenLaterGenerationOutsideT2A()
+    {
+        generateEventAndAggregateTables();
+
+        assertNull( analyticsFreshnessChecker.getEventTablesGeneration( LocalDateTime.parse( "2022-06-02T00:00" ) ) );
+    }
+
+    @Test
+    public void testGetEventTablesGenerationGivenUnfinishedAggregateOnlyGeneration()
+    {
+        analyticsFreshnessChecker.generationStarted( false, "2022-06-01T03:00:00.000" );
+
+        assertNull( analyticsFreshnessChecker.getEventTablesGeneration( LocalDateTime.parse( "2022-06-02T00:00" ) ) );
+    }
+
+    @Test
+    public void testGetEventTablesGenerationGivenFailedEventGeneration()
+    {
+        analyticsFreshnessChecker.generationStarted( true, "2022-06-01T01:00:00.000" );
+
+        assertNull( analyticsFreshnessChecker.getEventTablesGeneration( LocalDateTime.parse( "2022-06-01T00:00" ) ) );
+    }
+
+    @Test
+    public void testGetEventTablesGenerationGivenAggregateOnlyGenerationWithUnknownEnd()
+    {
+        analyticsFreshnessChecker.generationStarted( true, "2022-06-01T01:00:00.000" );
+        analyticsFreshnessChecker.generationCompleted( true, "2022-06-01T02:00:00.000" );
+        analyticsFreshnessChecker.generationStarted( false, "2022-06-01T03:00:00.000" );
+        analyticsFreshnessChecker.generationCompleted( false, null );
+
+        assertNull( analyticsFreshnessChecker.getEventTablesGeneration( LocalDateTime.parse( "2022-06-02T00:00" ) ) );
+    }
+
+    @Test
+    public void testGetLastEventTablesGenerationStartGivenGenerationStartedOutsideT2A()
+    {
+        Map<String, List<Map<String, Object>>> tasks = Map.of(
+            "BdeNA8xGvIr", List.of( notification( "2022-06-01T02:00:00.000", "Analytics tables updated", true ),
+                notification( "2022-06-01T01:30:00.000", "Populated analytics_event_2022_uyjxktbwrnf", false ),
+                notification( "2022-06-01T01:00:00.000", "Analytics table update process started", false ) ),
+            "QpsX3QzDVDh", List.of( notification( "2022-05-01T02:00:00.000", "Analytics tables updated", true ),
+                notification( "2022-05-01T01:00:00.000", "Populated analytics_event_2022_uyjxktbwrnf", false ) ) );
+
+        assertEquals( LocalDateTime.parse( "2022-06-01T01:00" ),
+            AnalyticsFreshnessChecker.getLastEventTablesGenerationStart( tasks ) );
+    }
+
+    @Test
+    public void testGetLastEventTablesGenerationStartIgnoresAggregateOnlyUnfinishedAndFailedGenerations()
+    {
+        Map<String, List<Map<String, Object>>> tasks = Map.of(
+            "BdeNA8xGvIr", List.of( notification( "2022-06-01T02:00:00.000", "Analytics tables updated", true ),
+                notification( "2022-06-01T01:00:00.000", "Populated analytics_2022", false ) ),
+            "QpsX3QzDVDh", List.of(
+                notification( "2022-06-02T01:00:00.000", "Populated analytics_event_2022_uyjxktbwrnf", false ) ),
+            "nTPbWsD7YQo", List.of( Map.of( "time", "2022-06-03T02:00:00.000", "message",
+                "Process failed: analytics_event_2022_uyjxktbwrnf", "completed", true, "level", "ERROR" ) ) );
+
+        assertNull( AnalyticsFreshnessChecker.getLastEventTablesGenerationStart( tasks ) );
+    }
+
+    private static Map<String, Object> notification( String time, String message, boolean completed )
+    {
+        return Map.of( "time", time, "message", message, "completed", completed, "level", "INFO" );
+    }
+
+    private void generateEventAndAggregateTables()
+    {
+        analyticsFreshnessChecker.generationStarted( true, "2022-06-01T01:00:00.000" );
+        analyticsFreshnessChecker.generationCompleted( true, "2022-06-01T02:00:00.000" );
+        analyticsFreshnessChecker.generationStarted( false, "2022-06-01T03:00:00.000" );
+        analyticsFreshnessChecker.generationCompleted( false, "2022-06-01T03:30:00.000" );
+    }
+}
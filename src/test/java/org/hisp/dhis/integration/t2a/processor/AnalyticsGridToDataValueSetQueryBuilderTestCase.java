@@ -28,20 +28,25 @@
 package org.hisp.dhis.integration.t2a.processor;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 
 import org.apache.camel.Exchange;
 import org.apache.camel.Message;
-import org.hisp.dhis.api.model.v2_37_7.Attribute;
-import org.hisp.dhis.api.model.v2_37_7.AttributeValue;
-import org.hisp.dhis.api.model.v2_37_7.DataValueSet;
-import org.hisp.dhis.api.model.v2_37_7.DataValue__1;
-import org.hisp.dhis.api.model.v2_37_7.ListGrid;
-import org.hisp.dhis.api.model.v2_37_7.ProgramIndicator;
+import org.hisp.dhis.integration.t2a.DataValueFingerprintStore;
+import org.hisp.dhis.integration.t2a.T2AException;
 import org.hisp.dhis.integration.t2a.model.Dimensions;
+import org.hisp.dhis.integration.t2a.model.EncodedDataValues;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
 import org.hisp.dhis.integration.t2a.route.T2ARouteBuilder;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -49,9 +54,14 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
 @ExtendWith( MockitoExtension.class )
 public class AnalyticsGridToDataValueSetQueryBuilderTestCase
 {
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
     @Mock
     private Exchange exchange;
 
@@ -60,47 +70,141 @@ public class AnalyticsGridToDataValueSetQueryBuilderTestCase
 
     @Test
     public void testProcessCopiesAttributeOptionComboToDataValue()
+        throws IOException
     {
-        ListGrid listGrid = new ListGrid().withRows( List.of( List.of( "", "", "", "", "", "", "", "", "" ) ) );
+        JsonNode dataValue = process( "{\"rows\": [[\"\", \"\", \"\", \"\", \"\", \"\", \"\", \"\", \"\"]]}",
+            List.of( new ProgramIndicatorMapping( "yC212U3ifgY", "DE_FOO", null, "foo" ) ) ).get( 0 );
 
-        when( exchange.getMessage() ).thenReturn( message );
-        when( exchange.getProperty( T2ARouteBuilder.DIMENSIONS_PROPERTY, Dimensions.class ) ).thenReturn(
-            new Dimensions( "2021", "ImspTQPwCqd",
-                new ProgramIndicator().withAggregateExportAttributeOptionCombo( "foo" ).withAttributeValues(
-                    List.of( new AttributeValue().withValue( "" )
-                        .withAttribute( new Attribute().withId( "gWxh7DiRmG7" ) ) ) ) ) );
-        when( message.getBody( ListGrid.class ) ).thenReturn( listGrid );
+        assertEquals( "foo", dataValue.get( "attributeOptionCombo" ).asText() );
+    }
 
-        AnalyticsGridToDataValueSetQueryBuilder analyticsGridToDataValueSetQueryBuilder = new AnalyticsGridToDataValueSetQueryBuilder();
-        analyticsGridToDataValueSetQueryBuilder.setAggrDataExportAttrId( "gWxh7DiRmG7" );
-        analyticsGridToDataValueSetQueryBuilder.process( exchange );
+    @Test
+    public void testProcessCopiesCategoryOptionComboToDataValue()
+        throws IOException
+    {
+        JsonNode dataValue = process( "{\"rows\": [[\"\", \"\", \"\", \"\", \"\", \"\", \"\", \"\", \"\"]]}",
+            List.of( new ProgramIndicatorMapping( "yC212U3ifgY", "DE_FOO", "bar", null ) ) ).get( 0 );
 
-        ArgumentCaptor<DataValueSet> argumentCaptor = ArgumentCaptor.forClass( DataValueSet.class );
-        verify( message ).setBody( argumentCaptor.capture() );
-        DataValue__1 dataValue = argumentCaptor.getValue().getDataValues().get().get( 0 );
-        assertEquals( "foo", dataValue.getAttributeOptionCombo().get() );
+        assertEquals( "bar", dataValue.get( "categoryOptionCombo" ).asText() );
+        assertEquals( "0", dataValue.get( "value" ).asText() );
     }
 
     @Test
-    public void testProcessCopiesCategoryOptionComboToDataValue()
+    public void testProcessSplitsValueColumnsIntoDataValuePerProgramIndicator()
+        throws IOException
     {
-        ListGrid listGrid = new ListGrid().withRows( List.of( List.of( "", "", "", "", "", "", "", "", "" ) ) );
+        JsonNode dataValues = process(
+            "{\"rows\": [[\"ImspTQPwCqd\", \"\", \"\", \"\", \"2021\", \"\", \"\", \"\", \"1\", \"2\"]]}",
+            List.of( new ProgramIndicatorMapping( "yC212U3ifgY", "DE_FOO", "foo", null ),
+                new ProgramIndicatorMapping( "gbDbKF0BEY1", "DE_BAR", "bar", null ) ) );
+
+        assertEquals( 2, dataValues.size() );
+        assertEquals( "DE_FOO", dataValues.get( 0 ).get( "dataElement" ).asText() );
+        assertEquals( "foo", dataValues.get( 0 ).get( "categoryOptionCombo" ).asText() );
+        assertEquals( "ImspTQPwCqd", dataValues.get( 0 ).get( "orgUnit" ).asText() );
+        assertEquals( "2021", dataValues.get( 0 ).get( "period" ).asText() );
+        assertEquals( "1", dataValues.get( 0 ).get( "value" ).asText() );
+        assertEquals( "DE_BAR", dataValues.get( 1 ).get( "dataElement" ).asText() );
+        assertEquals( "bar", dataValues.get( 1 ).get( "categoryOptionCombo" ).asText() );
+        assertEquals( "2", dataValues.get( 1 ).get( "value" ).asText() );
+    }
+
+    @Test
+    public void testProcessLocatesOrgUnitAndPeriodColumnsFromHeaders()
+        throws IOException
+    {
+        JsonNode dataValues = process( "{\"headers\": [{\"name\": \"pe\", \"column\": \"Period\"}, "
+            + "{\"name\": \"ou\", \"column\": \"Organisation unit\"}, {\"name\": \"yC212U3ifgY\"}], "
+            + "\"metaData\": {\"items\": {}}, \"rows\": [[\"2021\", \"ImspTQPwCqd\", 3], [\"2022\", \"DiszpKrYNg8\", null]]}",
+            List.of( new ProgramIndicatorMapping( "yC212U3ifgY", "DE_FOO", null, null ) ) );
+
+        assertEquals( 2, dataValues.size() );
+        assertEquals( "ImspTQPwCqd", dataValues.get( 0 ).get( "orgUnit" ).asText() );
+        assertEquals( "2021", dataValues.get( 0 ).get( "period" ).asText() );
+        assertEquals( "3", dataValues.get( 0 ).get( "value" ).asText() );
+        assertFalse( dataValues.get( 0 ).has( "categoryOptionCombo" ) );
+        assertEquals( "DiszpKrYNg8", dataValues.get( 1 ).get( "orgUnit" ).asText() );
+        assertEquals( "0", dataValues.get( 1 ).get( "value" ).asText() );
+    }
+
+    @Test
+    public void testProcessLocatesValueColumnsFromHeaders()
+        throws IOException
+    {
+        JsonNode dataValues = process( "{\"headers\": [{\"name\": \"ou\"}, {\"name\": \"pe\"}, "
+            + "{\"name\": \"gbDbKF0BEY1\", \"column\": \"Bar\"}, {\"name\": \"yC212U3ifgY\", \"column\": \"Foo\"}], "
+            + "\"rows\": [[\"ImspTQPwCqd\", \"2021\", \"2\", \"1\"]]}",
+            List.of( new ProgramIndicatorMapping( "yC212U3ifgY", "DE_FOO", null, null ),
+                new ProgramIndicatorMapping( "gbDbKF0BEY1", "DE_BAR", null, null ) ) );
+
+        assertEquals( 2, dataValues.size() );
+        assertEquals( "DE_FOO", dataValues.get( 0 ).get( "dataElement" ).asText() );
+        assertEquals( "1", dataValues.get( 0 ).get( "value" ).asText() );
+        assertEquals( "DE_BAR", dataValues.get( 1 ).get( "dataElement" ).asText() );
+        assertEquals( "2", dataValues.get( 1 ).get( "value" ).asText() );
+    }
+
+    @Test
+    public void testProcessCountsRowsAndDataValuesPerProgramIndicator()
+        throws IOException
+    {
+        process( "{\"headers\": [{\"name\": \"ou\"}, {\"name\": \"pe\"}, {\"name\": \"yC212U3ifgY\"}, "
+            + "{\"name\": \"gbDbKF0BEY1\"}], \"rows\": [[\"ImspTQPwCqd\", \"2021\", \"1\", null], "
+            + "[\"DiszpKrYNg8\", \"2021\", \"3\", \"\"]]}",
+            List.of( new ProgramIndicatorMapping( "yC212U3ifgY", "DE_FOO", null, null ),
+                new ProgramIndicatorMapping( "gbDbKF0BEY1", "DE_BAR", null, null ) ) );
+
+        verify( exchange ).setProperty( T2ARouteBuilder.PROGRAM_INDICATOR_ROW_COUNTS_PROPERTY, new int[] { 2, 0 } );
+        verify( exchange ).setProperty( T2ARouteBuilder.PROGRAM_INDICATOR_DATA_VALUE_COUNTS_PROPERTY,
+            new int[] { 2, 2 } );
+    }
+
+    @Test
+    public void testProcessRejectsRowShorterThanHeaders()
+    {
+        assertThrows( T2AException.class, () -> process( "{\"headers\": [{\"name\": \"ou\"}, {\"name\": \"pe\"}, "
+            + "{\"name\": \"yC212U3ifgY\"}], \"rows\": [[\"ImspTQPwCqd\", \"2021\", \"1\"], [\"DiszpKrYNg8\"]]}",
+            List.of( new ProgramIndicatorMapping( "yC212U3ifgY", "DE_FOO", null, null ) ) ) );
+    }
+
+    @Test
+    public void testProcessRejectsHeadersWithoutProgramIndicatorColumn()
+    {
+        T2AException t2aException = assertThrows( T2AException.class, () -> process(
+            "{\"headers\": [{\"name\": \"ou\"}, {\"name\": \"pe\"}, {\"name\": \"yC212U3ifgY\"}], "
+                + "\"rows\": [[\"ImspTQPwCqd\", \"2021\", \"1\"]]}",
+            List.of( new ProgramIndicatorMapping( "yC212U3ifgY", "DE_FOO", null, null ),
+                new ProgramIndicatorMapping( "gbDbKF0BEY1", "DE_BAR", null, null ) ) ) );
+
+        assertTrue( t2aException.getMessage().contains( "gbDbKF0BEY1" ) );
+    }
+
+    @Test
+    public void testProcessRejectsRowShorterThanValueColumnsGivenNoHeaders()
+    {
+        assertThrows( T2AException.class, () -> process( "{\"rows\": [[\"ImspTQPwCqd\"]]}",
+            List.of( new ProgramIndicatorMapping( "yC212U3ifgY", "DE_FOO", null, null ),
+                new ProgramIndicatorMapping( "gbDbKF0BEY1", "DE_BAR", null, null ) ) ) );
+    }
+
+    private JsonNode process( String grid, List<ProgramIndicatorMapping> mappings )
+        throws IOException
+    {
+        InputStream body = new ByteArrayInputStream( grid.getBytes( StandardCharsets.UTF_8 ) );
 
         when( exchange.getMessage() ).thenReturn( message );
         when( exchange.getProperty( T2ARouteBuilder.DIMENSIONS_PROPERTY, Dimensions.class ) ).thenReturn(
-            new Dimensions( "2021", "ImspTQPwCqd",
-                new ProgramIndicator().withAggregateExportCategoryOptionCombo( "bar" ).withAttributeValues(
-                    List.of( new AttributeValue().withValue( "" )
-                        .withAttribute( new Attribute().withId( "gWxh7DiRmG7" ) ) ) ) ) );
-        when( message.getBody( ListGrid.class ) ).thenReturn( listGrid );
+            new Dimensions( "2021", "ImspTQPwCqd", mappings ) );
+        when( message.getBody( InputStream.class ) ).thenReturn( body );
 
         AnalyticsGridToDataValueSetQueryBuilder analyticsGridToDataValueSetQueryBuilder = new AnalyticsGridToDataValueSetQueryBuilder();
-        analyticsGridToDataValueSetQueryBuilder.setAggrDataExportAttrId( "gWxh7DiRmG7" );
+        analyticsGridToDataValueSetQueryBuilder.setDataValueFingerprintStore( new DataValueFingerprintStore() );
         analyticsGridToDataValueSetQueryBuilder.process( exchange );
 
-        ArgumentCaptor<DataValueSet> argumentCaptor = ArgumentCaptor.forClass( DataValueSet.class );
+        ArgumentCaptor<EncodedDataValues> argumentCaptor = ArgumentCaptor.forClass( EncodedDataValues.class );
         verify( message ).setBody( argumentCaptor.capture() );
-        DataValue__1 dataValue = argumentCaptor.getValue().getDataValues().get().get( 0 );
-        assertEquals( "bar", dataValue.getCategoryOptionCombo().get() );
+
+        return OBJECT_MAPPER.readTree( OBJECT_MAPPER.writeValueAsString( argumentCaptor.getValue() ) )
+            .get( "dataValues" );
     }
 }
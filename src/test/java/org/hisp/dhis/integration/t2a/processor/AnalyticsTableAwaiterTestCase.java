@@ -0,0 +1,281 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.camel.Exchange;
+import org.apache.camel.impl.DefaultCamelContext;
+import org.apache.camel.support.DefaultExchange;
+import org.hisp.dhis.integration.t2a.PipelineMetrics;
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.hisp.dhis.integration.t2a.model.AnalyticsTableTask;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class AnalyticsTableAwaiterTestCase
+{
+    private static final Map<String, Object> RUNNING = Map.of( "level", "INFO", "message", "Populating tables",
+        "completed", false );
+
+    private static final Map<String, Object> COMPLETED = Map.of( "level", "INFO", "message",
+        "Analytics tables updated", "completed", true );
+
+    private FakeAnalyticsTableAwaiter analyticsTableAwaiter;
+
+    private AnalyticsFreshnessChecker analyticsFreshnessChecker;
+
+    private PipelineMetrics pipelineMetrics;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        analyticsFreshnessChecker = new AnalyticsFreshnessChecker();
+        pipelineMetrics = new PipelineMetrics();
+        analyticsTableAwaiter = new FakeAnalyticsTableAwaiter();
+        analyticsTableAwaiter.setPollInterval( 1 );
+        analyticsTableAwaiter.setMaxPollInterval( 1 );
+        analyticsTableAwaiter.setTimeout( 60000 );
+        analyticsTableAwaiter.setAnalyticsFreshnessChecker( analyticsFreshnessChecker );
+        analyticsTableAwaiter.setPipelineMetrics( pipelineMetrics );
+        analyticsTableAwaiter.startScheduler();
+    }
+
+    @AfterEach
+    public void afterEach()
+    {
+        analyticsTableAwaiter.stopScheduler();
+    }
+
+    @Test
+    public void testProcessCompletesOnceTaskIsCompleted()
+        throws Exception
+    {
+        analyticsTableAwaiter.respond( List.of( RUNNING ), List.of( COMPLETED, RUNNING ) );
+        analyticsFreshnessChecker.generationStarted( true, "2022-06-01T01:00:00.000" );
+
+        Exchange exchange = await( new AnalyticsTableTask( "qNrM9hBgUr2", "events", true, true,
+            System.currentTimeMillis() ) );
+
+        assertNull( exchange.getException() );
+        assertEquals( 2, analyticsTableAwaiter.getPolls() );
+        assertEquals( Boolean.TRUE,
+            exchange.getProperty( AnalyticsTableGenerator.RESOURCE_TABLES_GENERATED_PROPERTY ) );
+        assertEquals( 1, pipelineMetrics.getRegistry().get( "t2a.analytics.table.generation" )
+            .tag( "tables", "events" ).timer().count() );
+        assertEquals( LocalDateTime.parse( "2022-06-01T01:00" ),
+            analyticsFreshnessChecker.getEventTablesGeneration( LocalDateTime.parse( "2022-06-01T01:59:58" ) ) );
+    }
+
+    @Test
+    public void testProcessCompletesGivenServerDateFailure()
+        throws Exception
+    {
+        analyticsTableAwaiter.respond( List.of( COMPLETED ) );
+        analyticsTableAwaiter.setServerDate( null );
+        analyticsFreshnessChecker.generationStarted( true, "2022-06-01T01:00:00.000" );
+
+        Exchange exchange = await( new AnalyticsTableTask( "qNrM9hBgUr2", "events", true, false,
+            System.currentTimeMillis() ) );
+
+        assertNull( exchange.getException() );
+        assertEquals( 1, analyticsTableAwaiter.getPolls() );
+        assertEquals( 1, pipelineMetrics.getRegistry().get( "t2a.analytics.table.generation" )
+            .tag( "tables", "events" ).timer().count() );
+        // without the end of the generation, the tables are not taken as fresh
+        assertNull(
+            analyticsFreshnessChecker.getEventTablesGeneration( LocalDateTime.parse( "2022-06-01T01:59:58" ) ) );
+    }
+
+    @Test
+    public void testProcessFailsGivenErrorNotification()
+        throws Exception
+    {
+        analyticsTableAwaiter.respond( List.of( RUNNING ),
+            List.of( Map.of( "level", "ERROR", "message", "No space left on device", "completed", true ) ) );
+
+        Exchange exchange = await( new AnalyticsTableTask( "qNrM9hBgUr2", "aggregate", false, false,
+            System.currentTimeMillis() ) );
+
+        assertInstanceOf( T2AException.class, exchange.getException() );
+        assertTrue( exchange.getException().getMessage().contains( "No space left on device" ) );
+        assertEquals( 0, pipelineMetrics.getRegistry().find( "t2a.analytics.table.generation" ).timers().size() );
+    }
+
+    @Test
+    public void testProcessFailsAfterConsecutivePollFailures()
+        throws Exception
+    {
+        analyticsTableAwaiter.respond( new IOException( "Connection refused" ) );
+
+        Exchange exchange = await( new AnalyticsTableTask( "qNrM9hBgUr2", "aggregate", false, false,
+            System.currentTimeMillis() ) );
+
+        assertInstanceOf( T2AException.class, exchange.getException() );
+        assertTrue( exchange.getException().getMessage().contains( "after 5 consecutive failures" ) );
+        assertEquals( 5, analyticsTableAwaiter.getPolls() );
+    }
+
+    @Test
+    public void testProcessToleratesPollFailuresInBetweenSuccessfulPolls()
+        throws Exception
+    {
+        IOException failure = new IOException( "Connection refused" );
+        analyticsTableAwaiter.respond( failure, failure, failure, failure, List.of( RUNNING ), failure, failure,
+            failure, failure, List.of( COMPLETED ) );
+
+        Exchange exchange = await( new AnalyticsTableTask( "qNrM9hBgUr2", "aggregate", false, false,
+            System.currentTimeMillis() ) );
+
+        assertNull( exchange.getException() );
+        assertEquals( 10, analyticsTableAwaiter.getPolls() );
+    }
+
+    @Test
+    public void testProcessFailsOnTimeout()
+        throws Exception
+    {
+        analyticsTableAwaiter.respond( List.of( RUNNING ) );
+        analyticsTableAwaiter.setTimeout( 1000 );
+
+        Exchange exchange = await( new AnalyticsTableTask( "qNrM9hBgUr2", "aggregate", false, false,
+            System.currentTimeMillis() - 1000 ) );
+
+        assertInstanceOf( T2AException.class, exchange.getException() );
+        assertTrue( exchange.getException().getMessage().contains( "Last status: Populating tables" ) );
+        assertEquals( 1, analyticsTableAwaiter.getPolls() );
+    }
+
+    @Test
+    public void testNextPollIntervalDoubles()
+    {
+        assertEquals( 10000, AnalyticsTableAwaiter.nextPollInterval( 5000, 60000 ) );
+    }
+
+    @Test
+    public void testNextPollIntervalIsCappedAtMaxPollInterval()
+    {
+        assertEquals( 60000, AnalyticsTableAwaiter.nextPollInterval( 40000, 60000 ) );
+        assertEquals( 60000, AnalyticsTableAwaiter.nextPollInterval( 60000, 60000 ) );
+    }
+
+    @Test
+    public void testEstimateProgressGivenPreviousDuration()
+    {
+        assertEquals( 0.25, AnalyticsTableAwaiter.estimateProgress( 15000, 60000L ) );
+    }
+
+    @Test
+    public void testEstimateProgressStaysShortOfCompletion()
+    {
+        assertEquals( 0.99, AnalyticsTableAwaiter.estimateProgress( 90000, 60000L ) );
+    }
+
+    @Test
+    public void testEstimateProgressGivenNoPreviousDuration()
+    {
+        assertTrue( Double.isNaN( AnalyticsTableAwaiter.estimateProgress( 15000, null ) ) );
+    }
+
+    private Exchange await( AnalyticsTableTask task )
+        throws InterruptedException
+    {
+        Exchange exchange = new DefaultExchange( new DefaultCamelContext() );
+        exchange.setProperty( AnalyticsTableGenerator.ANALYTICS_TABLE_TASK_PROPERTY, task );
+        CountDownLatch done = new CountDownLatch( 1 );
+        analyticsTableAwaiter.process( exchange, doneSync -> done.countDown() );
+        assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+
+        return exchange;
+    }
+
+    /**
+     * Answers the polls with the given task notifications or failures, in
+     * order, repeating the last one.
+     */
+    private static class FakeAnalyticsTableAwaiter extends AnalyticsTableAwaiter
+    {
+        private final List<Object> responses = new ArrayList<>();
+
+        private String serverDate = "2022-06-01T02:00:00.000";
+
+        private int polls;
+
+        synchronized void respond( Object... responses )
+        {
+            this.responses.addAll( List.of( responses ) );
+        }
+
+        void setServerDate( String serverDate )
+        {
+            this.serverDate = serverDate;
+        }
+
+        synchronized int getPolls()
+        {
+            return polls;
+        }
+
+        @Override
+        synchronized List<Map<String, Object>> getNotifications( String taskId )
+            throws IOException
+        {
+            Object response = responses.get( Math.min( polls++, responses.size() - 1 ) );
+            if ( response instanceof IOException )
+            {
+                throw (IOException) response;
+            }
+
+            return (List<Map<String, Object>>) response;
+        }
+
+        @Override
+        String getServerDate()
+            throws IOException
+        {
+            if ( serverDate == null )
+            {
+                throw new IOException( "Read timed out" );
+            }
+
+            return serverDate;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+
+import org.hisp.dhis.integration.t2a.T2AException;
+import org.junit.jupiter.api.Test;
+
+public class AnalyticsTableGeneratorTestCase
+{
+    @Test
+    public void testGetLastYearsGivenPeriodsInCurrentYear()
+    {
+        assertEquals( 1, AnalyticsTableGenerator.getLastYears( List.of( "2022Q1", "2022Q2", "202206", "2022" ),
+            2022 ) );
+    }
+
+    @Test
+    public void testGetLastYearsCountsBackToEarliestPeriod()
+    {
+        assertEquals( 3, AnalyticsTableGenerator.getLastYears( List.of( "2022Q4", "2020Q1", "2021" ), 2022 ) );
+        assertEquals( 2, AnalyticsTableGenerator.getLastYears( List.of( "2021April" ), 2022 ) );
+    }
+
+    @Test
+    public void testGetLastYearsGivenFirstWeek()
+    {
+        assertEquals( 2, AnalyticsTableGenerator.getLastYears( List.of( "2022W1" ), 2022 ) );
+        assertEquals( 1, AnalyticsTableGenerator.getLastYears( List.of( "2022W2", "2022Q1" ), 2022 ) );
+    }
+
+    @Test
+    public void testGetLastYearsGivenRelativePeriods()
+    {
+        assertEquals( 1, AnalyticsTableGenerator.getLastYears( List.of( "THIS_YEAR", "MONTHS_THIS_YEAR" ), 2022 ) );
+        assertEquals( 2, AnalyticsTableGenerator.getLastYears( List.of( "LAST_12_MONTHS" ), 2022 ) );
+        assertEquals( 2, AnalyticsTableGenerator.getLastYears( List.of( "QUARTERS_LAST_YEAR" ), 2022 ) );
+        assertEquals( 6, AnalyticsTableGenerator.getLastYears( List.of( "LAST_5_YEARS" ), 2022 ) );
+        assertEquals( 7, AnalyticsTableGenerator.getLastYears( List.of( "LAST_5_FINANCIAL_YEARS" ), 2022 ) );
+        assertEquals( 2, AnalyticsTableGenerator.getLastYears( List.of( "THIS_FINANCIAL_YEAR" ), 2022 ) );
+    }
+
+    @Test
+    public void testGetLastYearsGivenUnknownPeriod()
+    {
+        assertThrows( T2AException.class, () -> AnalyticsTableGenerator.getLastYears( List.of( "FOO" ), 2022 ) );
+    }
+}
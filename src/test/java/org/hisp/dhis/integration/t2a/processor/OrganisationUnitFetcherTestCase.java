@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonFactory;
+
+public class OrganisationUnitFetcherTestCase
+{
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    @Test
+    public void testReadPageReadsIdsAndPageCount()
+        throws IOException
+    {
+        OrganisationUnitFetcher.Page page = OrganisationUnitFetcher.readPage( JSON_FACTORY.createParser(
+            "{\"pager\": {\"page\": 1, \"pageCount\": 3, \"total\": 5, \"pageSize\": 2}, "
+                + "\"organisationUnits\": [{\"id\": \"ImspTQPwCqd\"}, {\"id\": \"O6uvpzGd5pu\"}]}" ) );
+
+        assertEquals( 3, page.pageCount );
+        assertEquals( List.of( "ImspTQPwCqd", "O6uvpzGd5pu" ), page.organisationUnitIds );
+    }
+
+    @Test
+    public void testReadPageGivenNoPager()
+        throws IOException
+    {
+        OrganisationUnitFetcher.Page page = OrganisationUnitFetcher.readPage( JSON_FACTORY.createParser(
+            "{\"organisationUnits\": [{\"id\": \"ImspTQPwCqd\", \"children\": [{\"id\": \"O6uvpzGd5pu\"}]}]}" ) );
+
+        assertEquals( 1, page.pageCount );
+        assertEquals( List.of( "ImspTQPwCqd" ), page.organisationUnitIds );
+    }
+}
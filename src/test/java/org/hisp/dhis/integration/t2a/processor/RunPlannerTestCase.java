@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2004-2022, University of Oslo
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * Redistributions of source code must retain the above copyright notice, this
+ * list of conditions and the following disclaimer.
+ *
+ * Redistributions in binary form must reproduce the above copyright notice,
+ * this list of conditions and the following disclaimer in the documentation
+ * and/or other materials provided with the distribution.
+ * Neither the name of the HISP project nor the names of its contributors may
+ * be used to endorse or promote products derived from this software without
+ * specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+ * ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+ * ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.hisp.dhis.integration.t2a.processor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.hisp.dhis.api.model.v2_37_7.Attribute;
+import org.hisp.dhis.api.model.v2_37_7.AttributeValue;
+import org.hisp.dhis.api.model.v2_37_7.ProgramIndicator;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+import org.hisp.dhis.integration.t2a.model.RunPlan;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class RunPlannerTestCase
+{
+    private RunPlanner runPlanner;
+
+    @BeforeEach
+    public void beforeEach()
+    {
+        runPlanner = new RunPlanner();
+        runPlanner.setAggrDataExportAttrId( "gWxh7DiRmG7" );
+        runPlanner.setValidateDataElements( false );
+    }
+
+    @Test
+    public void testPlanMapsProgramIndicatorToDataElementAndOptionCombos()
+    {
+        RunPlan runPlan = runPlanner.plan( List.of( new ProgramIndicator().withId( "yC212U3ifgY" )
+            .withAggregateExportCategoryOptionCombo( "foo" ).withAggregateExportAttributeOptionCombo( "bar" )
+            .withAttributeValues( List.of( new AttributeValue().withValue( "DE_FOO" )
+                .withAttribute( new Attribute().withId( "gWxh7DiRmG7" ) ) ) ) ) );
+
+        assertEquals( List.of( new ProgramIndicatorMapping( "yC212U3ifgY", "DE_FOO", "foo", "bar" ) ),
+            runPlan.getMappings() );
+        assertTrue( runPlan.getDroppedProgramIndicators().isEmpty() );
+    }
+
+    @Test
+    public void testPlanTreatsBlankOptionCombosAsAbsent()
+    {
+        RunPlan runPlan = runPlanner.plan( List.of( new ProgramIndicator().withId( "yC212U3ifgY" )
+            .withAggregateExportCategoryOptionCombo( " " )
+            .withAttributeValues( List.of( new AttributeValue().withValue( "DE_FOO" )
+                .withAttribute( new Attribute().withId( "gWxh7DiRmG7" ) ) ) ) ) );
+
+        assertNull( runPlan.getMappings().get( 0 ).getCategoryOptionCombo() );
+        assertNull( runPlan.getMappings().get( 0 ).getAttributeOptionCombo() );
+    }
+
+    @Test
+    public void testPlanDropsProgramIndicatorsWithoutAggregateDataExportAttribute()
+    {
+        RunPlan runPlan = runPlanner.plan( List.of(
+            new ProgramIndicator().withId( "yC212U3ifgY" ).withAttributeValues( List.of() ),
+            new ProgramIndicator().withId( "gbDbKF0BEY1" ).withAttributeValues(
+                List.of( new AttributeValue().withValue( "DE_FOO" )
+                    .withAttribute( new Attribute().withId( "vudyDP7jUy5" ) ) ) ),
+            new ProgramIndicator().withId( "Tt5TAvdfdVK" ).withAttributeValues(
+                List.of( new AttributeValue().withValue( "  " )
+                    .withAttribute( new Attribute().withId( "gWxh7DiRmG7" ) ) ) ) ) );
+
+        assertTrue( runPlan.getMappings().isEmpty() );
+        assertEquals( List.of( "yC212U3ifgY", "gbDbKF0BEY1", "Tt5TAvdfdVK" ),
+            List.copyOf( runPlan.getDroppedProgramIndicators().keySet() ) );
+    }
+}
@@ -159,7 +159,7 @@ public class AbstractRouteBuilderTestCase
         addOrgUnitToProgram( orgUnitUnderTestId );
         createTrackedEntityInstances( orgUnitUnderTestId, 5 );
 
-        AdviceWith.adviceWith( camelContext, "scheduleAnalyticsRoute", r -> r.weaveAddLast().to( "mock:spy" ) );
+        AdviceWith.adviceWith( camelContext, "awaitAnalyticsRoute", r -> r.weaveAddLast().to( "mock:spy" ) );
         camelContext.start();
     }
 
@@ -39,8 +39,8 @@ import org.apache.camel.ProducerTemplate;
 import org.apache.camel.support.DefaultExchange;
 import org.apache.camel.test.spring.junit5.CamelSpringBootTest;
 import org.apache.camel.test.spring.junit5.UseAdviceWith;
-import org.hisp.dhis.api.model.v2_37_7.ProgramIndicator;
-import org.hisp.dhis.api.model.v2_37_7.ProgramIndicatorGroup;
+import org.hisp.dhis.integration.t2a.model.ProgramIndicatorMapping;
+import org.hisp.dhis.integration.t2a.model.RunPlan;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -76,8 +76,8 @@ public class PushRouteBuilderTestCase extends AbstractRouteBuilderTestCase
         Exchange exchange = new DefaultExchange( camelContext );
         exchange.setProperty( ALL_ORG_UNITS_PROPERTY, orgUnitIds );
         exchange.getMessage().setBody(
-            new ProgramIndicatorGroup().withProgramIndicators( List.of( new ProgramIndicator().withAttributeValues(
-                Collections.emptyList() ).withId( "yC212U3ifgY" ) ) ) );
+            new RunPlan( List.of( new ProgramIndicatorMapping( "yC212U3ifgY", "BirthsHome", null, null ) ),
+                Collections.emptyMap() ) );
 
         assertNull( producerTemplate.send( "direct:push", exchange ).getException() );
     }
@@ -78,7 +78,7 @@ public class T2ARouteBuilderTestCase extends AbstractRouteBuilderTestCase
         spyEndpoint.setExpectedCount( 2 );
 
         given().baseUri( t2aHttpEndpointUri ).when().post().then()
-            .statusCode( 204 );
+            .statusCode( 202 );
 
         spyEndpoint.await();
 
@@ -114,7 +114,7 @@ public class T2ARouteBuilderTestCase extends AbstractRouteBuilderTestCase
         spyEndpoint.setExpectedCount( 2 );
 
         given().baseUri( t2aHttpEndpointUri ).when().post().then()
-            .statusCode( 204 );
+            .statusCode( 202 );
 
         spyEndpoint.await();
         assertEquals( "6.0", dhis2Client.get( "analytics" )
@@ -136,7 +136,7 @@ public class T2ARouteBuilderTestCase extends AbstractRouteBuilderTestCase
         spyEndpoint.reset();
         spyEndpoint.setExpectedCount( 2 );
         given().baseUri( t2aHttpEndpointUri ).when().post().then()
-            .statusCode( 204 );
+            .statusCode( 202 );
 
         spyEndpoint.await();
 